@@ -0,0 +1,102 @@
+package moe.yushi.yggdrasil_mock.benchmark;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import moe.yushi.yggdrasil_mock.Texture;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilCharacter;
+
+/**
+ * Lookups in {@link YggdrasilDatabase}, alone and while a single writer keeps modifying it
+ * (the equivalent of {@code PATCH /admin/users/{email}} in a loop). Sampled, for the latency percentiles.
+ * <p>
+ * {@code modify} alone gives the cost of a single small modification, which copies the indexes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class DatabaseBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int users;
+
+	private AnnotationConfigApplicationContext ctx;
+	private YggdrasilDatabase database;
+
+	@Setup
+	public void setup() {
+		ctx = Fixtures.context(c -> {
+			c.registerBean(Texture.Storage.class);
+			c.registerBean(YggdrasilDatabase.class, () -> {
+				var database = new YggdrasilDatabase();
+				database.setUsers(List.of(Fixtures.users(users)));
+				return database;
+			});
+		});
+		database = ctx.getBean(YggdrasilDatabase.class);
+	}
+
+	@TearDown
+	public void tearDown() {
+		ctx.close();
+	}
+
+	private Optional<YggdrasilCharacter> randomLookup() {
+		return database.findCharacterByName("player" + ThreadLocalRandom.current().nextInt(users));
+	}
+
+	private Object randomModification() {
+		int i = ThreadLocalRandom.current().nextInt(users);
+		return database.modify(editor -> {
+			editor.setPassword(editor.findUserByEmail("user-" + i + "@example.com").orElseThrow(), "password-" + i);
+			return null;
+		});
+	}
+
+	@Benchmark
+	public Optional<YggdrasilCharacter> lookup() {
+		return randomLookup();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object modify() {
+		return randomModification();
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public Object contendedModify() {
+		return randomModification();
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public Optional<YggdrasilCharacter> contendedLookup() {
+		return randomLookup();
+	}
+}
@@ -0,0 +1,62 @@
+package moe.yushi.yggdrasil_mock.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.util.UriBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilCharacter;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilUser;
+
+/**
+ * Objects shared by the benchmarks, built the same way as in the server but without starting it.
+ */
+final class Fixtures {
+	private Fixtures() {}
+
+	static final String SKIN = "textures/eromanga/elf_yamada.png";
+	static final String CAPE = "textures/eromanga/muramasa_senju.png";
+
+	/**
+	 * @return users named {@code user-{n}@example.com}, each owning a single character named {@code player{n}}
+	 */
+	static YggdrasilUser[] users(int count) {
+		var users = new YggdrasilUser[count];
+		for (int i = 0; i < count; i++) {
+			var character = new YggdrasilCharacter();
+			character.setName("player" + i);
+			var user = new YggdrasilUser();
+			user.setEmail("user-" + i + "@example.com");
+			user.setPassword("password-" + i);
+			user.setCharacters(List.of(character));
+			users[i] = user;
+		}
+		return users;
+	}
+
+	static byte[] resource(String name) {
+		try (var in = Fixtures.class.getClassLoader().getResourceAsStream(name)) {
+			if (in == null)
+				throw new IllegalArgumentException("Resource not found: " + name);
+			return in.readAllBytes();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * A minimal context for the components that rely on injection or lifecycle callbacks,
+	 * which are registered by {@code registrar}. The caller is responsible for closing it.
+	 */
+	static AnnotationConfigApplicationContext context(Consumer<AnnotationConfigApplicationContext> registrar) {
+		var ctx = new AnnotationConfigApplicationContext();
+		Supplier<UriBuilder> rootUrl = () -> UriComponentsBuilder.fromHttpUrl("http://localhost:8080/");
+		ctx.registerBean("rootUrl", Supplier.class, () -> rootUrl);
+		registrar.accept(ctx);
+		ctx.refresh();
+		return ctx;
+	}
+}
@@ -0,0 +1,89 @@
+package moe.yushi.yggdrasil_mock.benchmark;
+
+import static java.util.stream.Collectors.joining;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import moe.yushi.yggdrasil_mock.DatabaseImage.CharacterEntry;
+import moe.yushi.yggdrasil_mock.DatabaseImage.UserEntry;
+import moe.yushi.yggdrasil_mock.EmbeddedServer;
+
+/**
+ * Bulk name lookups ({@code POST /api/profiles/minecraft}) of {@code names} names, half of which exist,
+ * over HTTP against an embedded server. {@code yggdrasil.core.profiles-query-limit} is raised to {@code names}.
+ * <p>
+ * The client runs in the same JVM, so only the relative numbers are meaningful.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ProfilesQueryBenchmark {
+
+	@Param({ "10", "10000" })
+	public int names;
+
+	private EmbeddedServer server;
+	private HttpClient client;
+	private HttpRequest query;
+
+	@Setup
+	public void setup() {
+		var user = new UserEntry();
+		user.email = "user@example.com";
+		user.password = "password";
+		for (int i = 0; i < names / 2; i++) {
+			var character = new CharacterEntry();
+			character.name = "player" + i;
+			user.characters.add(character);
+		}
+		server = EmbeddedServer.builder()
+				.user(user)
+				.property("yggdrasil.core.profiles-query-limit", names)
+				.start();
+		client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.build();
+
+		// players 0 to names/2 exist, the others don't
+		var body = IntStream.range(0, names)
+				.mapToObj(i -> "\"player" + i + "\"")
+				.collect(joining(",", "[", "]"));
+		query = HttpRequest.newBuilder(URI.create(server.getUrl() + "api/profiles/minecraft"))
+				.header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofString(body))
+				.build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.close();
+	}
+
+	@Benchmark
+	public int query() throws IOException, InterruptedException {
+		var response = client.send(query, BodyHandlers.ofByteArray());
+		if (response.statusCode() != 200)
+			throw new IllegalStateException("Unexpected status " + response.statusCode());
+		return response.body().length;
+	}
+}
@@ -0,0 +1,91 @@
+package moe.yushi.yggdrasil_mock.benchmark;
+
+import static java.util.Map.entry;
+import java.io.IOException;
+import java.security.PrivateKey;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import moe.yushi.yggdrasil_mock.KeyUtils;
+import moe.yushi.yggdrasil_mock.PropertiesUtils;
+import moe.yushi.yggdrasil_mock.Texture;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.ModelType;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.TextureType;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilCharacter;
+
+/**
+ * Building profile responses: the textures property, its signature, and the whole response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PropertiesBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean signed;
+
+	private ConfigurableApplicationContext ctx;
+	private PrivateKey signingKey;
+	private YggdrasilCharacter character;
+	private String texturesProperty;
+
+	@Setup
+	public void setup() throws IOException {
+		signingKey = signed ? KeyUtils.generateKey().getPrivate() : null;
+		ctx = Fixtures.context(c -> c.registerBean(Texture.Storage.class));
+		var storage = ctx.getBean(Texture.Storage.class);
+		character = Fixtures.users(1)[0].getCharacters().get(0);
+		character.setModel(ModelType.ALEX);
+		character.setTextures(Map.of(
+				TextureType.SKIN, storage.loadTexture("classpath:" + Fixtures.SKIN),
+				TextureType.CAPE, storage.loadTexture("classpath:" + Fixtures.CAPE)));
+		character.setUploadableTextures(Set.of(TextureType.SKIN, TextureType.CAPE));
+		texturesProperty = texturesProperty();
+	}
+
+	@TearDown
+	public void tearDown() {
+		ctx.close();
+	}
+
+	@Benchmark
+	public String texturesProperty() {
+		return PropertiesUtils.base64Encoded(
+				entry("timestamp", System.currentTimeMillis()),
+				entry("profileId", "f1e2d3c4b5a6978812345678abcdef00"),
+				entry("profileName", character.getName()),
+				entry("textures", Map.of(
+						"SKIN", Map.of("url", "http://localhost:8080/textures/0123456789abcdef", "metadata", Map.of("model", "slim")),
+						"CAPE", Map.of("url", "http://localhost:8080/textures/fedcba9876543210"))));
+	}
+
+	/**
+	 * Signing a single property value (SHA1withRSA), as done for every property of a signed response.
+	 */
+	@Benchmark
+	public List<?> properties() {
+		return PropertiesUtils.properties(signingKey, null, entry("textures", texturesProperty));
+	}
+
+	@Benchmark
+	public Map<String, Object> toCompleteResponse() {
+		return character.toCompleteResponse(signingKey, null);
+	}
+}
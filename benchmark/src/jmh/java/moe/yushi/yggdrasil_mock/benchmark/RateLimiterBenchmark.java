@@ -0,0 +1,75 @@
+package moe.yushi.yggdrasil_mock.benchmark;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import moe.yushi.yggdrasil_mock.RateLimiter;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilUser;
+
+/**
+ * {@link RateLimiter#tryAccess}, with the default limits. Most attempts are rejected, as in a brute-force attack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class RateLimiterBenchmark {
+
+	/** number of distinct keys, 1 means that all the threads contend on the same bucket */
+	@Param({ "1", "100000" })
+	public int keys;
+
+	private ConfigurableApplicationContext ctx;
+	private RateLimiter rateLimiter;
+	private YggdrasilUser[] users;
+	private InetAddress[] ips;
+
+	@Setup
+	public void setup() throws UnknownHostException {
+		ctx = Fixtures.context(c -> c.registerBean(RateLimiter.class, () -> {
+			var limiter = new RateLimiter();
+			limiter.setLimitDuration(Duration.ofMillis(300));
+			return limiter;
+		}));
+		rateLimiter = ctx.getBean(RateLimiter.class);
+		users = Fixtures.users(keys);
+		ips = new InetAddress[keys];
+		for (int i = 0; i < keys; i++) {
+			ips[i] = InetAddress.getByAddress(new byte[] { 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i });
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		ctx.close();
+	}
+
+	@Benchmark
+	public boolean tryAccessUser() {
+		return rateLimiter.tryAccess(users[ThreadLocalRandom.current().nextInt(keys)]);
+	}
+
+	@Benchmark
+	public boolean tryAccessIp() {
+		return rateLimiter.tryAccess(ips[ThreadLocalRandom.current().nextInt(keys)]);
+	}
+}
@@ -0,0 +1,111 @@
+package moe.yushi.yggdrasil_mock.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import moe.yushi.yggdrasil_mock.DatabaseImage.UserEntry;
+import moe.yushi.yggdrasil_mock.EmbeddedServer;
+
+/**
+ * Throughput of rejected requests, over HTTP against an embedded server, compared to an accepted {@code validate}.
+ * <p>
+ * The client runs in the same JVM, so only the relative numbers are meaningful.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 8, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(2)
+public class RejectedRequestBenchmark {
+
+	private static final Pattern ACCESS_TOKEN = Pattern.compile("\"accessToken\":\"([0-9a-f]+)\"");
+
+	private EmbeddedServer server;
+	private HttpClient client;
+	private HttpRequest validToken;
+	private HttpRequest invalidToken;
+	private HttpRequest invalidCredentials;
+	private HttpRequest notFound;
+
+	@Setup
+	public void setup() throws IOException, InterruptedException {
+		var user = new UserEntry();
+		user.email = "user@example.com";
+		user.password = "password";
+		server = EmbeddedServer.builder()
+				.user(user)
+				.start();
+		client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.build();
+
+		var login = client.send(post("authserver/authenticate", "{\"username\":\"user@example.com\",\"password\":\"password\"}"), BodyHandlers.ofString());
+		var matcher = ACCESS_TOKEN.matcher(login.body());
+		if (!matcher.find())
+			throw new IllegalStateException("Unable to log in: " + login.body());
+
+		validToken = post("authserver/validate", "{\"accessToken\":\"" + matcher.group(1) + "\"}");
+		invalidToken = post("authserver/validate", "{\"accessToken\":\"00000000000000000000000000000000\"}");
+		// mostly rejected by the rate limiter, as in a credential stuffing attack
+		invalidCredentials = post("authserver/authenticate", "{\"username\":\"user@example.com\",\"password\":\"wrong\"}");
+		notFound = HttpRequest.newBuilder(URI.create(server.getUrl() + "not-found")).build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.close();
+	}
+
+	private HttpRequest post(String path, String body) {
+		return HttpRequest.newBuilder(URI.create(server.getUrl() + path))
+				.header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofString(body))
+				.build();
+	}
+
+	private int send(HttpRequest request, int expectedStatus) throws IOException, InterruptedException {
+		int status = client.send(request, BodyHandlers.discarding()).statusCode();
+		if (status != expectedStatus)
+			throw new IllegalStateException("Unexpected status " + status + " for " + request.uri());
+		return status;
+	}
+
+	@Benchmark
+	public int validToken() throws IOException, InterruptedException {
+		return send(validToken, 204);
+	}
+
+	@Benchmark
+	public int invalidToken() throws IOException, InterruptedException {
+		return send(invalidToken, 403);
+	}
+
+	@Benchmark
+	public int invalidCredentials() throws IOException, InterruptedException {
+		return send(invalidCredentials, 403);
+	}
+
+	@Benchmark
+	public int notFound() throws IOException, InterruptedException {
+		return send(notFound, 404);
+	}
+}
@@ -0,0 +1,124 @@
+package moe.yushi.yggdrasil_mock.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import moe.yushi.yggdrasil_mock.DatabaseImage.CharacterEntry;
+import moe.yushi.yggdrasil_mock.DatabaseImage.UserEntry;
+import moe.yushi.yggdrasil_mock.EmbeddedServer;
+
+/**
+ * Request body decoding of {@code validate} and {@code join}, with the streaming parser of {@code SessionRoutes}
+ * ({@code functional = true}) and with the annotated controller. Over HTTP against an embedded server.
+ * <p>
+ * The bodies have a few unknown fields, one of them nested, which the parser has to skip.
+ * The client runs in the same JVM, so only the relative numbers are meaningful.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 8, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(2)
+public class SessionRoutesBenchmark {
+
+	private static final Pattern ACCESS_TOKEN = Pattern.compile("\"accessToken\":\"([0-9a-f]+)\"");
+	private static final Pattern SELECTED_PROFILE = Pattern.compile("\"selectedProfile\":\\{[^}]*\"id\":\"([0-9a-f]+)\"");
+
+	private static final String UNKNOWN_FIELDS = "\"requestUser\":true,\"agent\":{\"name\":\"Minecraft\",\"version\":1},\"extra\":[1,[2,3],{\"a\":null}]";
+
+	@Param({ "true", "false" })
+	public boolean functional;
+
+	private EmbeddedServer server;
+	private HttpClient client;
+	private HttpRequest validate;
+	private HttpRequest join;
+	private HttpRequest malformed;
+
+	@Setup
+	public void setup() throws IOException, InterruptedException {
+		var character = new CharacterEntry();
+		character.name = "player";
+		var user = new UserEntry();
+		user.email = "user@example.com";
+		user.password = "password";
+		user.characters.add(character);
+		server = EmbeddedServer.builder()
+				.user(user)
+				.property("yggdrasil.core.functional-session-endpoints", functional)
+				.property("yggdrasil.token.time-to-partially-expired", "1h")
+				.property("yggdrasil.token.time-to-fully-expired", "1h")
+				.start();
+		client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.build();
+
+		var login = client.send(post("authserver/authenticate", "{\"username\":\"user@example.com\",\"password\":\"password\"}"), BodyHandlers.ofString());
+		var accessToken = ACCESS_TOKEN.matcher(login.body());
+		var selectedProfile = SELECTED_PROFILE.matcher(login.body());
+		if (!accessToken.find() || !selectedProfile.find())
+			throw new IllegalStateException("Unable to log in: " + login.body());
+
+		validate = post("authserver/validate",
+				"{\"accessToken\":\"" + accessToken.group(1) + "\"," + UNKNOWN_FIELDS + "}");
+		join = post("sessionserver/session/minecraft/join",
+				"{\"accessToken\":\"" + accessToken.group(1) + "\",\"selectedProfile\":\"" + selectedProfile.group(1) + "\",\"serverId\":\"benchmark\"," + UNKNOWN_FIELDS + "}");
+		// a known field holding an object
+		malformed = post("authserver/validate",
+				"{\"accessToken\":{\"accessToken\":\"" + accessToken.group(1) + "\"}," + UNKNOWN_FIELDS + "}");
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.close();
+	}
+
+	private HttpRequest post(String path, String body) {
+		return HttpRequest.newBuilder(URI.create(server.getUrl() + path))
+				.header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofString(body))
+				.build();
+	}
+
+	private int send(HttpRequest request, int expectedStatus) throws IOException, InterruptedException {
+		int status = client.send(request, BodyHandlers.discarding()).statusCode();
+		if (status != expectedStatus)
+			throw new IllegalStateException("Unexpected status " + status + " for " + request.uri());
+		return status;
+	}
+
+	@Benchmark
+	public int validate() throws IOException, InterruptedException {
+		return send(validate, 204);
+	}
+
+	@Benchmark
+	public int join() throws IOException, InterruptedException {
+		return send(join, 204);
+	}
+
+	@Benchmark
+	public int malformed() throws IOException, InterruptedException {
+		return send(malformed, 400);
+	}
+}
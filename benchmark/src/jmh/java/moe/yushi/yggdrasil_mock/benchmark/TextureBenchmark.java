@@ -0,0 +1,81 @@
+package moe.yushi.yggdrasil_mock.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import moe.yushi.yggdrasil_mock.Texture;
+
+/**
+ * Texture hashing and loading. Uploads and the textures in the configuration go through {@code loadTexture}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextureBenchmark {
+
+	@Param({ Fixtures.SKIN, Fixtures.CAPE })
+	public String texture;
+
+	private ConfigurableApplicationContext ctx;
+	private Texture.Storage storage;
+	private byte[] data;
+	private BufferedImage image;
+
+	// textures are weakly referenced by the storage, this keeps the loaded one alive
+	private Texture loaded;
+
+	@Setup
+	public void setup() throws IOException {
+		ctx = Fixtures.context(c -> c.registerBean(Texture.Storage.class));
+		storage = ctx.getBean(Texture.Storage.class);
+		data = Fixtures.resource(texture);
+		image = ImageIO.read(new ByteArrayInputStream(data));
+		loaded = storage.loadTexture(new ByteArrayInputStream(data));
+	}
+
+	@TearDown
+	public void tearDown() {
+		ctx.close();
+	}
+
+	@Benchmark
+	public String computeTextureHash() {
+		return Texture.computeTextureHash(image);
+	}
+
+	/**
+	 * Decoding and hashing, the texture is already in the storage.
+	 */
+	@Benchmark
+	public Texture loadExistingTexture() throws IOException {
+		return storage.loadTexture(new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * Decoding, hashing and re-encoding into a fresh storage.
+	 */
+	@Benchmark
+	public Texture loadNewTexture() throws IOException {
+		var result = new Texture.Storage();
+		ctx.getAutowireCapableBeanFactory().autowireBean(result);
+		return result.loadTexture(new ByteArrayInputStream(data));
+	}
+}
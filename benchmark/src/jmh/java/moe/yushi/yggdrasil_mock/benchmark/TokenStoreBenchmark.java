@@ -0,0 +1,121 @@
+package moe.yushi.yggdrasil_mock.benchmark;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import moe.yushi.yggdrasil_mock.SessionAuthenticator;
+import moe.yushi.yggdrasil_mock.TokenStore;
+import moe.yushi.yggdrasil_mock.TokenStore.AvailableLevel;
+import moe.yushi.yggdrasil_mock.TokenStore.Token;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilCharacter;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilUser;
+
+/**
+ * {@link TokenStore} and {@link SessionAuthenticator}, with all the benchmark threads sharing the same instances.
+ * <p>
+ * The store is filled with one token per user beforehand. Tokens never expire during the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class TokenStoreBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int users;
+
+	private TokenStore tokenStore;
+	private SessionAuthenticator sessionAuth;
+	private YggdrasilUser[] userArray;
+	private String[] accessTokens;
+	private Token[] tokens;
+
+	@Setup
+	public void setup() {
+		tokenStore = new TokenStore();
+		tokenStore.setTimeToFullyExpired(Duration.ofDays(1));
+		tokenStore.setTimeToPartiallyExpired(Duration.ofDays(1));
+		sessionAuth = new SessionAuthenticator();
+		sessionAuth.setAuthExpireTime(Duration.ofDays(1));
+
+		userArray = Fixtures.users(users);
+		accessTokens = new String[users];
+		tokens = new Token[users];
+		for (int i = 0; i < users; i++) {
+			tokens[i] = tokenStore.acquireToken(userArray[i], null, null);
+			accessTokens[i] = tokens[i].getAccessToken();
+		}
+	}
+
+	private int randomIndex() {
+		return ThreadLocalRandom.current().nextInt(users);
+	}
+
+	@Benchmark
+	public Token acquire() {
+		return tokenStore.acquireToken(userArray[randomIndex()], null, null);
+	}
+
+	@Benchmark
+	public Optional<Token> authenticate() {
+		return tokenStore.authenticate(accessTokens[randomIndex()], null, AvailableLevel.COMPLETE);
+	}
+
+	/**
+	 * Same as {@code refresh}: the new token is acquired before the old one is consumed.
+	 */
+	@Benchmark
+	public Optional<Token> acquireAndConsume() {
+		var user = userArray[randomIndex()];
+		var token = tokenStore.acquireToken(user, null, null);
+		tokenStore.acquireToken(user, token.getClientToken(), null);
+		return tokenStore.authenticateAndConsume(token.getAccessToken(), token.getClientToken(), AvailableLevel.PARTIAL, t -> true);
+	}
+
+	/**
+	 * Logins racing with validations, as seen when many clients start at once.
+	 */
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public Token contendedAcquire() {
+		return acquire();
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public Optional<Token> contendedAuthenticate() {
+		return authenticate();
+	}
+
+	/**
+	 * A {@code join} followed by the matching {@code hasJoined}.
+	 */
+	@Benchmark
+	public Optional<YggdrasilCharacter> joinAndVerify() {
+		var random = ThreadLocalRandom.current();
+		int i = random.nextInt(users);
+		var serverId = Long.toHexString(random.nextLong());
+		sessionAuth.joinServer(tokens[i], serverId, Optional.of("127.0.0.1"));
+		return sessionAuth.verifyUser(userArray[i].getCharacters().get(0).getName(), serverId, Optional.of("127.0.0.1"));
+	}
+}
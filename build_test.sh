@@ -24,7 +24,7 @@ log(){
 
 pushd server >/dev/null
 log "Building yggdrasil server"
-gradle clean bootJar
+gradle clean test bootJar
 popd >/dev/null
 pushd test >/dev/null
 log "Initialize npm"
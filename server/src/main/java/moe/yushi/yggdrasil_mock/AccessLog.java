@@ -0,0 +1,366 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import moe.yushi.yggdrasil_mock.TokenStore.Token;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilCharacter;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilUser;
+import moe.yushi.yggdrasil_mock.exception.YggdrasilException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Access and audit log, enabled by {@code yggdrasil.access-log.enabled}.
+ * <p>
+ * Requests never wait for the log: records are put into a bounded lock-free ring buffer, which is drained by
+ * a background thread writing them in batches. Records are dropped (and counted) when the buffer is full.
+ * The file is rotated when it exceeds {@code max-file-size}, keeping {@code max-files} old files
+ * ({@code access.log.1} being the most recent one). If the file can't be written, it is reopened after a delay
+ * growing up to a minute; records are buffered (and then dropped) meanwhile.
+ * <p>
+ * One line per request, with space-separated fields ({@code -} when absent):
+ *
+ * <pre>
+ * time ip realm method path status latency(us) user character token-id error
+ * 2021-09-01T12:00:00.123Z 127.0.0.1 default POST /authserver/authenticate 200 5123 test2@example.com character1 42 -
+ * </pre>
+ *
+ * The token id is the sequence number of the token, not the token itself. The status is {@code -} if the client went away.
+ */
+@Component
+@ConditionalOnProperty(name = "yggdrasil.access-log.enabled")
+// after Realms, before everything that may reject a request
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@ConfigurationProperties(prefix = "yggdrasil.access-log")
+public class AccessLog implements WebFilter {
+
+	private static final String ATTRIBUTE = AccessLog.class.getName() + ".record";
+
+	/**
+	 * The details of a request, filled in by the handlers.
+	 */
+	public static class Record {
+		private long time;
+		private String ip;
+		private String realm;
+		private String method;
+		private String path;
+		private int status;
+		private long latency;
+		private String user;
+		private String character;
+		private long tokenId = -1;
+		private String error;
+
+		public Record user(YggdrasilUser user) {
+			this.user = user.getEmail();
+			return this;
+		}
+
+		public Record character(YggdrasilCharacter character) {
+			this.character = character.getName();
+			return this;
+		}
+
+		public Record token(Token token) {
+			this.tokenId = token.getId();
+			user(token.getUser());
+			token.getBoundCharacter().ifPresent(this::character);
+			return this;
+		}
+	}
+
+	/**
+	 * @return the record of the request, which is discarded if the log is disabled
+	 */
+	public static Record record(ServerWebExchange exchange) {
+		Record record = exchange.getAttribute(ATTRIBUTE);
+		return record == null ? new Record() : record;
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(AccessLog.class);
+
+	private Path path = Paths.get("logs/access.log");
+	private DataSize maxFileSize = DataSize.ofMegabytes(64);
+	private int maxFiles = 5;
+	private int bufferSize = 16384;
+	private Duration pollInterval = Duration.ofMillis(100);
+
+	private RingBuffer<Record> buffer;
+	private final LongAdder written = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private volatile boolean running;
+	private Thread writerThread;
+
+	@PostConstruct
+	private void start() throws IOException {
+		buffer = new RingBuffer<>(bufferSize);
+		var parent = path.toAbsolutePath().getParent();
+		if (parent != null)
+			Files.createDirectories(parent);
+		running = true;
+		writerThread = new Thread(this::writeLoop, "access-log-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		logger.info("Writing access log to {}", path);
+	}
+
+	@PreDestroy
+	private void stop() throws InterruptedException {
+		if (writerThread == null)
+			return;
+		running = false;
+		LockSupport.unpark(writerThread);
+		writerThread.join(TimeUnit.SECONDS.toMillis(5));
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		long start = System.nanoTime();
+		var record = new Record();
+		exchange.getAttributes().put(ATTRIBUTE, record);
+		return chain.filter(exchange)
+				.doOnError(e -> {
+					record.error = errorType(e);
+					record.status = errorStatus(e);
+				})
+				.doFinally(signal -> {
+					record.latency = (System.nanoTime() - start) / 1000;
+					record.time = System.currentTimeMillis();
+					var request = exchange.getRequest();
+					var address = request.getRemoteAddress();
+					record.ip = address == null ? null : address.getAddress().getHostAddress();
+					record.realm = Realm.of(exchange).getName();
+					record.method = request.getMethodValue();
+					record.path = request.getPath().pathWithinApplication().value();
+					if (signal == SignalType.CANCEL) {
+						record.status = 0;
+					} else if (record.status == 0) {
+						var status = exchange.getResponse().getRawStatusCode();
+						record.status = status == null ? 200 : status;
+					}
+					if (!buffer.offer(record))
+						dropped.increment();
+				});
+	}
+
+	private static String errorType(Throwable e) {
+		if (e instanceof YggdrasilException)
+			return ((YggdrasilException) e).getYggdrasilError();
+		return e.getClass().getSimpleName();
+	}
+
+	static int errorStatus(Throwable e) {
+		if (e instanceof YggdrasilException)
+			return ((YggdrasilException) e).getStatus().value();
+		if (e instanceof ResponseStatusException)
+			return ((ResponseStatusException) e).getRawStatusCode();
+		return 500;
+	}
+
+	// ---- Writer ----
+	private void writeLoop() {
+		var line = new StringBuilder(256);
+		Writer out = null;
+		long size = 0;
+		int failures = 0;
+		for (;;) {
+			boolean stopping = !running;
+			var record = buffer.poll();
+			try {
+				if (record == null) {
+					if (out != null) {
+						out.flush();
+						if (failures > 0) {
+							logger.info("Access log {} is being written again", path);
+							failures = 0;
+						}
+					}
+					if (stopping)
+						break;
+					LockSupport.parkNanos(pollInterval.toNanos());
+					continue;
+				}
+
+				if (out == null || size >= maxFileSize.toBytes()) {
+					if (out != null) {
+						out.close();
+						out = null;
+						rotate();
+					}
+					if (failures > 0)
+						logger.info("Reopening access log {} (attempt {})", path, failures);
+					out = new OutputStreamWriter(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND), UTF_8);
+					size = Files.size(path);
+				}
+
+				line.setLength(0);
+				format(record, line);
+				out.append(line);
+				// close enough, the fields are mostly ASCII
+				size += line.length();
+				written.increment();
+			} catch (IOException e) {
+				if (record != null)
+					dropped.increment();
+				closeQuietly(out);
+				out = null;
+				if (stopping)
+					break;
+				// meanwhile, records are dropped once the buffer is full
+				var delay = retryDelay(++failures);
+				logger.error("Unable to write access log {}, retrying in {} s", path, delay.toSeconds(), e);
+				LockSupport.parkNanos(delay.toNanos());
+			}
+		}
+		closeQuietly(out);
+	}
+
+	/**
+	 * Exponential backoff, from 1 second up to 1 minute.
+	 */
+	static Duration retryDelay(int failures) {
+		return Duration.ofSeconds(Math.min(1L << Math.min(failures - 1, 6), 60));
+	}
+
+	private void closeQuietly(@Nullable Writer out) {
+		if (out == null)
+			return;
+		try {
+			out.close();
+		} catch (IOException e) {
+			logger.warn("Unable to close access log", e);
+		}
+	}
+
+	private void rotate() throws IOException {
+		var name = path.getFileName().toString();
+		Files.deleteIfExists(path.resolveSibling(name + "." + maxFiles));
+		for (int i = maxFiles - 1; i >= 1; i--) {
+			var file = path.resolveSibling(name + "." + i);
+			if (Files.exists(file))
+				Files.move(file, path.resolveSibling(name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+		}
+		if (maxFiles > 0)
+			Files.move(path, path.resolveSibling(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+		else
+			Files.delete(path);
+	}
+
+	private static void format(Record record, StringBuilder out) {
+		out.append(Instant.ofEpochMilli(record.time)).append(' ');
+		field(out, record.ip);
+		field(out, record.realm);
+		field(out, record.method);
+		field(out, record.path);
+		if (record.status == 0)
+			out.append('-');
+		else
+			out.append(record.status);
+		out.append(' ').append(record.latency).append(' ');
+		field(out, record.user);
+		field(out, record.character);
+		if (record.tokenId == -1)
+			out.append('-');
+		else
+			out.append(record.tokenId);
+		out.append(' ');
+		if (record.error == null)
+			out.append('-');
+		else
+			escape(out, record.error);
+		out.append('\n');
+	}
+
+	private static void field(StringBuilder out, @Nullable String value) {
+		if (value == null || value.isEmpty())
+			out.append('-');
+		else
+			escape(out, value);
+		out.append(' ');
+	}
+
+	private static void escape(StringBuilder out, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			// keep one record per line, and fields separated by spaces
+			out.append(c <= ' ' ? '_' : c);
+		}
+	}
+	// --------
+
+	public long getWrittenCount() {
+		return written.sum();
+	}
+
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public void setPath(Path path) {
+		this.path = path;
+	}
+
+	public DataSize getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	public void setMaxFileSize(DataSize maxFileSize) {
+		this.maxFileSize = maxFileSize;
+	}
+
+	public int getMaxFiles() {
+		return maxFiles;
+	}
+
+	public void setMaxFiles(int maxFiles) {
+		this.maxFiles = maxFiles;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public Duration getPollInterval() {
+		return pollInterval;
+	}
+
+	public void setPollInterval(Duration pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+}
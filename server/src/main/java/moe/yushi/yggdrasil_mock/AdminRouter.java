@@ -0,0 +1,423 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Map.entry;
+import static java.util.Map.ofEntries;
+import static java.util.stream.Collectors.toList;
+import static moe.yushi.yggdrasil_mock.UUIDUtils.toUUID;
+import static moe.yushi.yggdrasil_mock.UUIDUtils.unsign;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.newIllegalArgumentException;
+import static org.springframework.http.HttpStatus.NO_CONTENT;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.PreDestroy;
+import javax.validation.Valid;
+import javax.validation.constraints.NotBlank;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.ModelType;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilCharacter;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilUser;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Management API, available under {@code /admin/} when {@code yggdrasil.admin.token} is set.
+ * Requests must carry {@code Authorization: Bearer <token>}.
+ * <p>
+ * Only the configured users (not those from the database image or the generator) can be managed.
+ * The users are those of the realm the request is made to (see {@link Realms}), but {@code reload} always applies to the default one,
+ * and the {@link FaultInjector} rules to all of them.
+ * Every request is applied atomically.
+ */
+@RestController
+public class AdminRouter {
+
+	static final String PATH_PREFIX = "/admin/";
+
+	@Component
+	public static class AuthenticationFilter implements WebFilter {
+
+		private @Value("${yggdrasil.admin.token:}") String token;
+
+		@Override
+		public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+			if (!exchange.getRequest().getPath().pathWithinApplication().value().startsWith(PATH_PREFIX))
+				return chain.filter(exchange);
+
+			if (token.isEmpty())
+				return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND));
+
+			var header = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+			if (header == null || !header.startsWith("Bearer ")
+					|| !MessageDigest.isEqual(header.substring("Bearer ".length()).trim().getBytes(UTF_8), token.getBytes(UTF_8)))
+				return Mono.error(new ResponseStatusException(HttpStatus.UNAUTHORIZED));
+
+			return chain.filter(exchange);
+		}
+	}
+
+	private @Autowired DatabaseReloader reloader;
+	private @Autowired FaultInjector faultInjector;
+
+	private final AtomicReference<Recording> recording = new AtomicReference<>();
+
+	@PreDestroy
+	private void closeRecording() {
+		var current = recording.getAndSet(null);
+		if (current != null)
+			current.close();
+	}
+
+	@GetMapping("/admin/users/{email}")
+	public Mono<Map<?, ?>> getUser(@PathVariable String email, Realm realm) {
+		return offload(() -> toResponse(realm.getDatabase().findUserByEmail(email)
+				.orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND))));
+	}
+
+	@PostMapping("/admin/users")
+	@ResponseStatus(NO_CONTENT)
+	public Mono<Void> createUsers(@RequestBody Flux<UserRequest> req, Realm realm) {
+		// streamed, so that large imports aren't subject to the codec's buffer limit
+		return req.collectList()
+				.publishOn(Schedulers.boundedElastic())
+				.doOnNext(users -> realm.getDatabase().modify(editor -> {
+					for (var userReq : users) {
+						var user = new YggdrasilUser();
+						if (userReq.id != null)
+							user.setId(toUUID(userReq.id));
+						user.setEmail(userReq.email);
+						user.setPassword(userReq.password);
+						if (userReq.characters != null)
+							user.setCharacters(userReq.characters.stream()
+									.map(AdminRouter::newCharacter)
+									.collect(toList()));
+						editor.addUser(user);
+					}
+					return null;
+				})).then();
+	}
+
+	@PatchMapping("/admin/users/{email}")
+	@ResponseStatus(NO_CONTENT)
+	public Mono<Void> updateUser(@PathVariable String email, @RequestBody @Valid UpdateUserRequest req, Realm realm) {
+		return offload(() -> realm.getDatabase().modify(editor -> {
+			editor.setPassword(findUser(editor, email), req.password);
+			return null;
+		}));
+	}
+
+	@DeleteMapping("/admin/users/{email}")
+	@ResponseStatus(NO_CONTENT)
+	public Mono<Void> deleteUser(@PathVariable String email, Realm realm) {
+		return offload(() -> {
+			var user = realm.getDatabase().modify(editor -> {
+				var it = findUser(editor, email);
+				editor.removeUser(it);
+				return it;
+			});
+			realm.getTokenStore().revokeAll(user);
+			return null;
+		});
+	}
+
+	@PostMapping("/admin/users/{email}/characters")
+	@ResponseStatus(NO_CONTENT)
+	public Mono<Void> createCharacter(@PathVariable String email, @RequestBody @Valid CharacterRequest req, Realm realm) {
+		return offload(() -> realm.getDatabase().modify(editor -> {
+			editor.addCharacter(findUser(editor, email), newCharacter(req));
+			return null;
+		}));
+	}
+
+	@PatchMapping("/admin/characters/{name}")
+	@ResponseStatus(NO_CONTENT)
+	public Mono<Void> updateCharacter(@PathVariable String name, @RequestBody UpdateCharacterRequest req, Realm realm) {
+		return offload(() -> realm.getDatabase().modify(editor -> {
+			var character = findCharacter(editor, name);
+			if (req.name != null)
+				editor.renameCharacter(character, req.name);
+			if (req.model != null) {
+				var model = toModelType(req.model);
+				editor.defer(() -> character.setModel(model));
+			}
+			return null;
+		}));
+	}
+
+	@DeleteMapping("/admin/characters/{name}")
+	@ResponseStatus(NO_CONTENT)
+	public Mono<Void> deleteCharacter(@PathVariable String name, Realm realm) {
+		return offload(() -> realm.getDatabase().modify(editor -> {
+			editor.removeCharacter(findCharacter(editor, name));
+			return null;
+		}));
+	}
+
+	@PostMapping("/admin/reload")
+	public Mono<Map<?, ?>> reload() {
+		// reads the file and loads the textures, which may be fetched over HTTP
+		return Mono.fromCallable(reloader::reload)
+				.<Map<?, ?>> map(time -> ofEntries(
+						entry("time", time)))
+				.subscribeOn(Schedulers.boundedElastic());
+	}
+
+	@GetMapping("/admin/faults")
+	public List<?> getFaults() {
+		return faultInjector.getRules().stream()
+				.map(AdminRouter::toResponse)
+				.collect(toList());
+	}
+
+	/**
+	 * Replaces all the fault rules, an empty list removes them.
+	 */
+	@PutMapping("/admin/faults")
+	@ResponseStatus(NO_CONTENT)
+	public void setFaults(@RequestBody List<FaultRuleRequest> req) {
+		faultInjector.setRules(req.stream()
+				.map(AdminRouter::newFaultRule)
+				.collect(toList()));
+	}
+
+	@DeleteMapping("/admin/faults")
+	@ResponseStatus(NO_CONTENT)
+	public void deleteFaults() {
+		faultInjector.setRules(List.of());
+	}
+
+	/**
+	 * Starts a flight recording.
+	 *
+	 * @param settings
+	 *            the JFR configuration to use, usually {@code default} (low overhead) or {@code profile}
+	 */
+	@PostMapping("/admin/recording/start")
+	@ResponseStatus(NO_CONTENT)
+	public void startRecording(@RequestParam(defaultValue = "default") String settings) throws IOException, ParseException {
+		Configuration configuration;
+		try {
+			configuration = Configuration.getConfiguration(settings);
+		} catch (NoSuchFileException e) {
+			throw newIllegalArgumentException("Unknown settings: " + settings);
+		}
+		var newRecording = new Recording(configuration);
+		newRecording.setName("yggdrasil-mock");
+		if (!recording.compareAndSet(null, newRecording)) {
+			newRecording.close();
+			throw new ResponseStatusException(HttpStatus.CONFLICT, "A recording is already running");
+		}
+		newRecording.start();
+	}
+
+	/**
+	 * Stops the running flight recording, and returns it as a {@code .jfr} file.
+	 */
+	@PostMapping("/admin/recording/stop")
+	public Mono<ResponseEntity<byte[]>> stopRecording() {
+		var current = recording.getAndSet(null);
+		if (current == null)
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No recording is running");
+
+		return Mono.fromCallable(() -> {
+			try (current) {
+				current.stop();
+				byte[] data;
+				try (var in = current.getStream(null, null)) {
+					data = in == null ? new byte[0] : in.readAllBytes();
+				}
+				return ResponseEntity.ok()
+						.contentType(MediaType.APPLICATION_OCTET_STREAM)
+						.header("Content-Disposition", "attachment; filename=\"yggdrasil-mock.jfr\"")
+						.body(data);
+			}
+		}).subscribeOn(Schedulers.boundedElastic());
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	public void onIllegalArgument(IllegalArgumentException e) {
+		var message = new StringBuilder(String.valueOf(e.getMessage()));
+		for (var cause = e.getCause(); cause != null; cause = cause.getCause()) {
+			message.append(": ").append(cause.getMessage());
+		}
+		throw newIllegalArgumentException(message.toString());
+	}
+
+	// ---- Helper methods ----
+	/**
+	 * Database modifications are serialized, and may have to wait for a large import or reload.
+	 */
+	private static <T> Mono<T> offload(Callable<T> task) {
+		return Mono.fromCallable(task).subscribeOn(Schedulers.boundedElastic());
+	}
+
+	private static YggdrasilUser findUser(YggdrasilDatabase.Editor editor, String email) {
+		return editor.findUserByEmail(email)
+				.orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+	}
+
+	private static YggdrasilCharacter findCharacter(YggdrasilDatabase.Editor editor, String name) {
+		return editor.findCharacterByName(name)
+				.orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+	}
+
+	private static YggdrasilCharacter newCharacter(CharacterRequest req) {
+		var character = new YggdrasilCharacter();
+		if (req.uuid != null)
+			character.setUuid(toUUID(req.uuid));
+		character.setName(req.name);
+		if (req.model != null)
+			character.setModel(toModelType(req.model));
+		return character;
+	}
+
+	private static ModelType toModelType(String model) {
+		return ModelType.valueOf(model.toUpperCase());
+	}
+
+	private static FaultInjector.Rule newFaultRule(FaultRuleRequest req) {
+		var rule = new FaultInjector.Rule();
+		rule.setPath(req.path);
+		if (req.latency != null) {
+			var latency = new FaultInjector.Latency();
+			if (req.latency.distribution != null)
+				latency.setDistribution(toEnum(FaultInjector.Distribution.class, req.latency.distribution));
+			if (req.latency.delay != null)
+				latency.setDelay(DurationStyle.detectAndParse(req.latency.delay));
+			if (req.latency.min != null)
+				latency.setMin(DurationStyle.detectAndParse(req.latency.min));
+			if (req.latency.max != null)
+				latency.setMax(DurationStyle.detectAndParse(req.latency.max));
+			if (req.latency.sigma != null)
+				latency.setSigma(req.latency.sigma);
+			rule.setLatency(latency);
+		}
+		if (req.errorRate != null)
+			rule.setErrorRate(req.errorRate);
+		if (req.error != null)
+			rule.setError(toEnum(FaultInjector.Fault.class, req.error));
+		if (req.bandwidth != null)
+			rule.setBandwidth(DataSize.parse(req.bandwidth));
+		return rule;
+	}
+
+	/**
+	 * @param value
+	 *            as in the configuration, e.g. {@code service-unavailable}
+	 */
+	private static <T extends Enum<T>> T toEnum(Class<T> type, String value) {
+		return Enum.valueOf(type, value.toUpperCase().replace('-', '_'));
+	}
+
+	private static String fromEnum(Enum<?> value) {
+		return value.name().toLowerCase().replace('_', '-');
+	}
+
+	private static Map<?, ?> toResponse(YggdrasilUser user) {
+		return ofEntries(
+				entry("id", unsign(user.getId())),
+				entry("email", user.getEmail()),
+				entry("characters", user.getCharacters().stream()
+						.map(character -> ofEntries(
+								entry("id", unsign(character.getUuid())),
+								entry("name", character.getName()),
+								entry("model", character.getModel().name().toLowerCase())))
+						.collect(toList())));
+	}
+
+	private static Map<?, ?> toResponse(FaultInjector.Rule rule) {
+		var response = new LinkedHashMap<String, Object>();
+		response.put("path", rule.getPath());
+		var latency = rule.getLatency();
+		if (latency != null) {
+			var latencyResponse = new LinkedHashMap<String, Object>();
+			latencyResponse.put("distribution", fromEnum(latency.getDistribution()));
+			latencyResponse.put("delay", DurationStyle.SIMPLE.print(latency.getDelay()));
+			latencyResponse.put("min", DurationStyle.SIMPLE.print(latency.getMin()));
+			if (latency.getMax() != null)
+				latencyResponse.put("max", DurationStyle.SIMPLE.print(latency.getMax()));
+			latencyResponse.put("sigma", latency.getSigma());
+			response.put("latency", latencyResponse);
+		}
+		response.put("errorRate", rule.getErrorRate());
+		response.put("error", fromEnum(rule.getError()));
+		if (rule.getBandwidth() != null)
+			response.put("bandwidth", rule.getBandwidth().toString());
+		return response;
+	}
+	// --------
+
+	// ---- Requests ----
+	public static class UserRequest {
+		public @Nullable String id;
+		public String email;
+		public String password;
+		public @Nullable List<CharacterRequest> characters;
+	}
+
+	public static class UpdateUserRequest {
+		public @NotBlank String password;
+	}
+
+	public static class CharacterRequest {
+		public @Nullable String uuid;
+		public @NotBlank String name;
+		public @Nullable String model;
+	}
+
+	public static class UpdateCharacterRequest {
+		public @Nullable String name;
+		public @Nullable String model;
+	}
+
+	public static class FaultRuleRequest {
+		public String path;
+		public @Nullable LatencyRequest latency;
+		public @Nullable Double errorRate;
+		public @Nullable String error;
+		public @Nullable String bandwidth;
+	}
+
+	public static class LatencyRequest {
+		public @Nullable String distribution;
+		public @Nullable String delay;
+		public @Nullable String min;
+		public @Nullable String max;
+		public @Nullable Double sigma;
+	}
+	// --------
+}
@@ -0,0 +1,228 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Limits the number of concurrent requests of each class, and rejects the excess right away with a 429.
+ * <p>
+ * The limit of each class adapts to its latency (AIMD): it grows slowly while the latency stays under the target,
+ * and is cut down when the target is exceeded. A class exceeding its target also cuts down the limits of
+ * the classes with a lower priority, so that they are shed first. Requests not belonging to any class
+ * (metadata, textures, event streams, management...) are always admitted.
+ * <p>
+ * Disabled by default, enabled by {@code yggdrasil.admission.enabled}.
+ */
+@Component
+@ConditionalOnProperty(name = "yggdrasil.admission.enabled")
+// after Realms, which may change the context path, AccessLog, TrafficCapture and FaultInjector
+@Order(Ordered.HIGHEST_PRECEDENCE + 4)
+@ConfigurationProperties(prefix = "yggdrasil.admission")
+public class AdmissionController implements WebFilter {
+
+	/**
+	 * Request classes, from the highest priority to the lowest.
+	 */
+	public static enum RequestClass {
+		/** joining servers, and looking up the joined players */
+		SESSION,
+		/** operations on existing tokens */
+		VALIDATE,
+		/** password authentication */
+		LOGIN,
+		/** texture uploads and removals */
+		UPLOAD,
+		/** profile queries, by name or by UUID, which may be signed */
+		PROFILE;
+	}
+
+	private static final RequestClass[] CLASSES = RequestClass.values();
+
+	private static final byte[] REJECTED_BODY = ("{\"error\":\"" + HttpStatus.TOO_MANY_REQUESTS.getReasonPhrase()
+			+ "\",\"errorMessage\":\"" + HttpStatus.TOO_MANY_REQUESTS.value() + " " + HttpStatus.TOO_MANY_REQUESTS.getReasonPhrase() + "\"}")
+					.getBytes(UTF_8);
+
+	private class Limiter {
+		final long latencyTarget;
+		final AtomicInteger inflight = new AtomicInteger();
+		final AtomicLong lastDecrease = new AtomicLong(System.nanoTime());
+		final LongAdder rejected = new LongAdder();
+
+		// concurrent updates may be lost, which doesn't matter for a heuristic
+		volatile double limit = initialLimit;
+
+		Limiter(Duration latencyTarget) {
+			this.latencyTarget = latencyTarget.toNanos();
+		}
+
+		boolean tryAcquire() {
+			for (;;) {
+				int current = inflight.get();
+				if (current >= (int) limit) {
+					rejected.increment();
+					return false;
+				}
+				if (inflight.compareAndSet(current, current + 1))
+					return true;
+			}
+		}
+
+		void release() {
+			inflight.decrementAndGet();
+		}
+
+		void increase() {
+			double current = limit;
+			// only grow when the limit is actually being used
+			if (inflight.get() >= current / 2)
+				limit = min(maxLimit, current + 1 / current);
+		}
+
+		void decrease(long now) {
+			// at most once per latency target, to let the previous decrease take effect
+			long last = lastDecrease.get();
+			if (now - last >= latencyTarget && lastDecrease.compareAndSet(last, now))
+				limit = max(minLimit, limit * backoffRatio);
+		}
+	}
+
+	private int initialLimit = 100;
+	private int minLimit = 4;
+	private int maxLimit = 1000;
+	private double backoffRatio = 0.9;
+	private Map<RequestClass, Duration> latencyTargets = new EnumMap<>(Map.of(
+			RequestClass.SESSION, Duration.ofMillis(50),
+			RequestClass.VALIDATE, Duration.ofMillis(50),
+			RequestClass.LOGIN, Duration.ofMillis(500),
+			RequestClass.UPLOAD, Duration.ofSeconds(1),
+			RequestClass.PROFILE, Duration.ofSeconds(1)));
+
+	private final Map<RequestClass, Limiter> limiters = new EnumMap<>(RequestClass.class);
+
+	@PostConstruct
+	private void init() {
+		for (var requestClass : CLASSES) {
+			limiters.put(requestClass, new Limiter(latencyTargets.get(requestClass)));
+		}
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		var requestClass = classify(exchange);
+		if (requestClass == null)
+			return chain.filter(exchange);
+
+		var limiter = limiters.get(requestClass);
+		if (!limiter.tryAcquire())
+			return reject(exchange);
+
+		long start = System.nanoTime();
+		return chain.filter(exchange)
+				.doFinally(signal -> {
+					limiter.release();
+					long now = System.nanoTime();
+					if (now - start > limiter.latencyTarget) {
+						for (int i = requestClass.ordinal(); i < CLASSES.length; i++) {
+							limiters.get(CLASSES[i]).decrease(now);
+						}
+					} else {
+						limiter.increase();
+					}
+				});
+	}
+
+	private static RequestClass classify(ServerWebExchange exchange) {
+		var path = exchange.getRequest().getPath().pathWithinApplication().value();
+		var method = exchange.getRequest().getMethod();
+		// not the event stream, whose latency means nothing
+		if (path.equals("/sessionserver/session/minecraft/join") || path.equals("/sessionserver/session/minecraft/hasJoined"))
+			return RequestClass.SESSION;
+		if (path.equals("/authserver/validate") || path.equals("/authserver/invalidate") || path.equals("/authserver/refresh"))
+			return RequestClass.VALIDATE;
+		if (path.equals("/authserver/authenticate") || path.equals("/authserver/signout"))
+			return RequestClass.LOGIN;
+		if (path.startsWith("/api/user/profile/") && (method == HttpMethod.PUT || method == HttpMethod.DELETE))
+			return RequestClass.UPLOAD;
+		if (path.startsWith("/sessionserver/session/minecraft/profile/") || path.equals("/sessionserver/session/minecraft/profiles")
+				|| path.equals("/api/profiles/minecraft"))
+			return RequestClass.PROFILE;
+		return null;
+	}
+
+	private static Mono<Void> reject(ServerWebExchange exchange) {
+		var response = exchange.getResponse();
+		response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+		response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+		response.getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+		return response.writeWith(Mono.just(response.bufferFactory().wrap(REJECTED_BODY)));
+	}
+
+	public int getCurrentLimit(RequestClass requestClass) {
+		return (int) limiters.get(requestClass).limit;
+	}
+
+	public int getInflight(RequestClass requestClass) {
+		return limiters.get(requestClass).inflight.get();
+	}
+
+	public long getRejectedCount(RequestClass requestClass) {
+		return limiters.get(requestClass).rejected.sum();
+	}
+
+	public int getInitialLimit() {
+		return initialLimit;
+	}
+
+	public void setInitialLimit(int initialLimit) {
+		this.initialLimit = initialLimit;
+	}
+
+	public int getMinLimit() {
+		return minLimit;
+	}
+
+	public void setMinLimit(int minLimit) {
+		this.minLimit = minLimit;
+	}
+
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	public void setMaxLimit(int maxLimit) {
+		this.maxLimit = maxLimit;
+	}
+
+	public double getBackoffRatio() {
+		return backoffRatio;
+	}
+
+	public void setBackoffRatio(double backoffRatio) {
+		this.backoffRatio = backoffRatio;
+	}
+
+	public Map<RequestClass, Duration> getLatencyTargets() {
+		return latencyTargets;
+	}
+}
@@ -0,0 +1,157 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.springframework.http.HttpMethod;
+import org.springframework.lang.Nullable;
+
+/**
+ * A request recorded by {@link TrafficCapture}, and replayed by {@link TrafficReplay}.
+ * <p>
+ * Secrets are not recorded: passwords are removed from the bodies, and access tokens, client tokens and serverIds
+ * are replaced by ordinals (the same value always gets the same ordinal, starting from 1), so that the replay
+ * can substitute its own values. The {@code ip} parameter of {@code hasJoined} is removed as well.
+ * <p>
+ * A capture file is a header ({@link #MAGIC}, {@link #VERSION}, the start time in epoch milliseconds),
+ * followed by the requests in the order they completed. Integers are written as varints.
+ */
+final class CapturedRequest {
+
+	static final int MAGIC = 0x59474350; // "YGCP"
+	static final int VERSION = 1;
+
+	private static final HttpMethod[] METHODS = HttpMethod.values();
+
+	/** Arrival time, in microseconds since the start of the capture. */
+	long arrival;
+	HttpMethod method;
+	/** Raw path, including the prefix of the realm, if any. */
+	String path;
+	/** Decoded query parameters, serverIds being ordinals. */
+	List<Map.Entry<String, String>> query = new ArrayList<>();
+	/** Ordinal of the access token of the {@code Authorization} header, 0 if none. */
+	int bearerToken;
+	@Nullable
+	String contentType;
+	/** JSON bodies have their tokens and serverIds replaced by ordinals (as numbers), and no password. */
+	@Nullable
+	byte[] body;
+
+	int status;
+	/** Server-side latency, in microseconds. */
+	long latency;
+	/** Ordinals of the tokens in the response of {@code authenticate} and {@code refresh}, 0 if none. */
+	int issuedAccessToken;
+	int issuedClientToken;
+
+	static void writeHeader(DataOutput out, long startTime) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(startTime);
+	}
+
+	/**
+	 * @return the start time of the capture
+	 */
+	static long readHeader(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a capture file");
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported capture version: " + version);
+		return in.readLong();
+	}
+
+	void write(DataOutput out) throws IOException {
+		writeVarLong(out, arrival);
+		out.writeByte(method.ordinal());
+		writeString(out, path);
+		writeVarLong(out, query.size());
+		for (var param : query) {
+			writeString(out, param.getKey());
+			writeString(out, param.getValue());
+		}
+		writeVarLong(out, bearerToken);
+		writeString(out, contentType == null ? "" : contentType);
+		if (body == null) {
+			writeVarLong(out, 0);
+		} else {
+			writeVarLong(out, body.length + 1);
+			out.write(body);
+		}
+		writeVarLong(out, status);
+		writeVarLong(out, latency);
+		writeVarLong(out, issuedAccessToken);
+		writeVarLong(out, issuedClientToken);
+	}
+
+	/**
+	 * @return the next request, or null at the end of the file
+	 */
+	@Nullable
+	static CapturedRequest read(DataInput in) throws IOException {
+		var request = new CapturedRequest();
+		try {
+			request.arrival = readVarLong(in);
+		} catch (EOFException e) {
+			return null;
+		}
+		request.method = METHODS[in.readUnsignedByte()];
+		request.path = readString(in);
+		for (long n = readVarLong(in); n > 0; n--) {
+			request.query.add(Map.entry(readString(in), readString(in)));
+		}
+		request.bearerToken = (int) readVarLong(in);
+		var contentType = readString(in);
+		request.contentType = contentType.isEmpty() ? null : contentType;
+		int bodyLength = (int) readVarLong(in);
+		if (bodyLength > 0) {
+			request.body = new byte[bodyLength - 1];
+			in.readFully(request.body);
+		}
+		request.status = (int) readVarLong(in);
+		request.latency = readVarLong(in);
+		request.issuedAccessToken = (int) readVarLong(in);
+		request.issuedClientToken = (int) readVarLong(in);
+		return request;
+	}
+
+	// ---- Encoding ----
+	private static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException {
+		var bytes = value.getBytes(UTF_8);
+		writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		var bytes = new byte[(int) readVarLong(in)];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+	// --------
+}
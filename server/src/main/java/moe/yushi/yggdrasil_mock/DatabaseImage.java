@@ -0,0 +1,465 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.springframework.lang.Nullable;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.ModelType;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.TextureType;
+
+/**
+ * A precompiled, read-only user database.
+ * <p>
+ * The image is memory-mapped and queried in place, so only the users that are actually looked up
+ * are ever turned into objects. Layout (all integers are big-endian):
+ *
+ * <pre>
+ * header      magic, version, user count, character count, (offset, length) of each section
+ * users       fixed-size user records, sorted by email
+ * characters  fixed-size character records, grouped by owner
+ * strings     length-prefixed UTF-8 strings, referenced by offset
+ * indexes     open-addressing hash tables (email, user id, character uuid, character name),
+ *             each slot holds a record index plus one, or zero if empty
+ * </pre>
+ */
+public final class DatabaseImage implements Closeable {
+
+	public static class UserEntry {
+		public UUID id;
+		public String email;
+		public String password;
+		public List<CharacterEntry> characters = new ArrayList<>();
+	}
+
+	public static class CharacterEntry {
+		public UUID uuid;
+		public String name;
+		public ModelType model = ModelType.STEVE;
+		public String[] textures = new String[TEXTURE_TYPES.length];
+		public List<TextureType> uploadableTextures = new ArrayList<>();
+	}
+
+	private static final int MAGIC = 0x59474442; // "YGDB"
+	private static final int VERSION = 1;
+
+	private static final TextureType[] TEXTURE_TYPES = TextureType.values();
+	private static final ModelType[] MODEL_TYPES = ModelType.values();
+
+	private static final int SECTION_USERS = 0;
+	private static final int SECTION_CHARACTERS = 1;
+	private static final int SECTION_STRINGS = 2;
+	private static final int SECTION_EMAIL_INDEX = 3;
+	private static final int SECTION_USER_ID_INDEX = 4;
+	private static final int SECTION_UUID_INDEX = 5;
+	private static final int SECTION_NAME_INDEX = 6;
+	private static final int SECTIONS_COUNT = 7;
+
+	private static final int HEADER_SIZE = 16 + SECTIONS_COUNT * 16;
+
+	// user record: id (16), email (4), password (4), first character (4), characters count (4)
+	private static final int USER_RECORD_SIZE = 32;
+	private static final int USER_EMAIL = 16;
+	private static final int USER_PASSWORD = 20;
+	private static final int USER_FIRST_CHARACTER = 24;
+	private static final int USER_CHARACTERS_COUNT = 28;
+
+	// character record: uuid (16), name (4), owner (4), model (1), uploadable textures mask (1), padding (2), texture urls (4 each)
+	private static final int CHARACTER_NAME = 16;
+	private static final int CHARACTER_OWNER = 20;
+	private static final int CHARACTER_MODEL = 24;
+	private static final int CHARACTER_UPLOADABLE = 25;
+	private static final int CHARACTER_TEXTURES = 28;
+	private static final int CHARACTER_RECORD_SIZE = CHARACTER_TEXTURES + 4 * TEXTURE_TYPES.length;
+
+	private static final int NO_STRING = -1;
+
+	private final FileChannel channel;
+	private final int usersCount;
+	private final int charactersCount;
+	private final ByteBuffer users;
+	private final ByteBuffer characters;
+	private final ByteBuffer strings;
+	private final ByteBuffer emailIndex;
+	private final ByteBuffer userIdIndex;
+	private final ByteBuffer uuidIndex;
+	private final ByteBuffer nameIndex;
+
+	private DatabaseImage(FileChannel channel) throws IOException {
+		this.channel = channel;
+		var header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) == -1)
+				throw new IOException("Truncated database image");
+		}
+		header.flip();
+		if (header.getInt() != MAGIC)
+			throw new IOException("Not a database image");
+		int version = header.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported database image version " + version);
+		usersCount = header.getInt();
+		charactersCount = header.getInt();
+
+		var sections = new ByteBuffer[SECTIONS_COUNT];
+		for (int i = 0; i < SECTIONS_COUNT; i++) {
+			long offset = header.getLong();
+			long length = header.getLong();
+			if (length > Integer.MAX_VALUE || offset + length > channel.size())
+				throw new IOException("Corrupted database image");
+			sections[i] = channel.map(MapMode.READ_ONLY, offset, length);
+		}
+		users = sections[SECTION_USERS];
+		characters = sections[SECTION_CHARACTERS];
+		strings = sections[SECTION_STRINGS];
+		emailIndex = sections[SECTION_EMAIL_INDEX];
+		userIdIndex = sections[SECTION_USER_ID_INDEX];
+		uuidIndex = sections[SECTION_UUID_INDEX];
+		nameIndex = sections[SECTION_NAME_INDEX];
+	}
+
+	public static DatabaseImage open(Path path) throws IOException {
+		var channel = FileChannel.open(path, READ);
+		try {
+			return new DatabaseImage(channel);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public int getUsersCount() {
+		return usersCount;
+	}
+
+	public int getCharactersCount() {
+		return charactersCount;
+	}
+
+	// ---- Lookups ----
+	// All of them return the index of the record, or -1 if not found.
+
+	public int findUserByEmail(String email) {
+		var key = email.getBytes(UTF_8);
+		var mask = emailIndex.capacity() / 4 - 1;
+		for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+			int user = emailIndex.getInt(slot * 4) - 1;
+			if (user == -1 || stringEquals(users.getInt(user * USER_RECORD_SIZE + USER_EMAIL), key))
+				return user;
+		}
+	}
+
+	public int findUserById(UUID id) {
+		var mask = userIdIndex.capacity() / 4 - 1;
+		for (int slot = hash(id) & mask;; slot = (slot + 1) & mask) {
+			int user = userIdIndex.getInt(slot * 4) - 1;
+			if (user == -1 || uuidEquals(users, user * USER_RECORD_SIZE, id))
+				return user;
+		}
+	}
+
+	public int findCharacterByUUID(UUID uuid) {
+		var mask = uuidIndex.capacity() / 4 - 1;
+		for (int slot = hash(uuid) & mask;; slot = (slot + 1) & mask) {
+			int character = uuidIndex.getInt(slot * 4) - 1;
+			if (character == -1 || uuidEquals(characters, character * CHARACTER_RECORD_SIZE, uuid))
+				return character;
+		}
+	}
+
+	public int findCharacterByName(String name) {
+		var key = name.getBytes(UTF_8);
+		var mask = nameIndex.capacity() / 4 - 1;
+		for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+			int character = nameIndex.getInt(slot * 4) - 1;
+			if (character == -1 || stringEquals(characters.getInt(character * CHARACTER_RECORD_SIZE + CHARACTER_NAME), key))
+				return character;
+		}
+	}
+
+	public int getCharacterOwner(int character) {
+		return characters.getInt(character * CHARACTER_RECORD_SIZE + CHARACTER_OWNER);
+	}
+
+	/**
+	 * @return the position of the character in its owner's character list
+	 */
+	public int getCharacterPosition(int character) {
+		return character - users.getInt(getCharacterOwner(character) * USER_RECORD_SIZE + USER_FIRST_CHARACTER);
+	}
+
+	public UserEntry readUser(int index) {
+		int base = index * USER_RECORD_SIZE;
+		var user = new UserEntry();
+		user.id = new UUID(users.getLong(base), users.getLong(base + 8));
+		user.email = readString(users.getInt(base + USER_EMAIL));
+		user.password = readString(users.getInt(base + USER_PASSWORD));
+		int first = users.getInt(base + USER_FIRST_CHARACTER);
+		int count = users.getInt(base + USER_CHARACTERS_COUNT);
+		for (int i = first; i < first + count; i++) {
+			user.characters.add(readCharacter(i));
+		}
+		return user;
+	}
+
+	private CharacterEntry readCharacter(int index) {
+		int base = index * CHARACTER_RECORD_SIZE;
+		var character = new CharacterEntry();
+		character.uuid = new UUID(characters.getLong(base), characters.getLong(base + 8));
+		character.name = readString(characters.getInt(base + CHARACTER_NAME));
+		character.model = MODEL_TYPES[characters.get(base + CHARACTER_MODEL)];
+		int uploadable = characters.get(base + CHARACTER_UPLOADABLE);
+		for (int i = 0; i < TEXTURE_TYPES.length; i++) {
+			character.textures[i] = readString(characters.getInt(base + CHARACTER_TEXTURES + i * 4));
+			if ((uploadable & (1 << i)) != 0)
+				character.uploadableTextures.add(TEXTURE_TYPES[i]);
+		}
+		return character;
+	}
+
+	/**
+	 * @return the distinct texture urls referred to by the characters
+	 */
+	public Set<String> readTextureUrls() {
+		var offsets = new HashSet<Integer>();
+		for (int i = 0; i < charactersCount; i++) {
+			int base = i * CHARACTER_RECORD_SIZE + CHARACTER_TEXTURES;
+			for (int j = 0; j < TEXTURE_TYPES.length; j++) {
+				int offset = characters.getInt(base + j * 4);
+				if (offset != NO_STRING)
+					offsets.add(offset);
+			}
+		}
+		var urls = new LinkedHashSet<String>();
+		for (var offset : offsets)
+			urls.add(readString(offset));
+		return urls;
+	}
+
+	@Nullable
+	private String readString(int offset) {
+		if (offset == NO_STRING)
+			return null;
+		var bytes = new byte[strings.getInt(offset)];
+		strings.duplicate().position(offset + 4).get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private boolean stringEquals(int offset, byte[] key) {
+		if (strings.getInt(offset) != key.length)
+			return false;
+		for (int i = 0; i < key.length; i++) {
+			if (strings.get(offset + 4 + i) != key[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean uuidEquals(ByteBuffer records, int base, UUID uuid) {
+		return records.getLong(base) == uuid.getMostSignificantBits()
+				&& records.getLong(base + 8) == uuid.getLeastSignificantBits();
+	}
+	// --------
+
+	// ---- Hashing ----
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private static int hash(byte[] key) {
+		int h = 1;
+		for (byte b : key) {
+			h = 31 * h + b;
+		}
+		return mix(h);
+	}
+
+	private static int hash(UUID uuid) {
+		return mix(31 * Long.hashCode(uuid.getMostSignificantBits()) + Long.hashCode(uuid.getLeastSignificantBits()));
+	}
+
+	private static int[] newIndex(int count) {
+		int capacity = Integer.highestOneBit(Math.max(2, count) * 2 - 1) << 1;
+		return new int[capacity];
+	}
+
+	private static void insert(int[] index, int hash, int record) {
+		int mask = index.length - 1;
+		int slot = hash & mask;
+		while (index[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		index[slot] = record + 1;
+	}
+	// --------
+
+	// ---- Writer ----
+	public static void write(List<UserEntry> input, Path output) throws IOException {
+		var users = new ArrayList<>(input);
+		users.sort(Comparator.comparing(user -> user.email));
+
+		var emails = new HashSet<String>();
+		var ids = new HashSet<UUID>();
+		var uuids = new HashSet<UUID>();
+		var names = new HashSet<String>();
+		int charactersCount = 0;
+		for (var user : users) {
+			try {
+				if (user.email == null) throw new IllegalArgumentException("email is missing");
+				if (user.password == null || user.password.isEmpty()) throw new IllegalArgumentException("password is missing");
+				if (user.id == null) throw new IllegalArgumentException("id is missing");
+				if (!ids.add(user.id)) throw new IllegalArgumentException("id conflict");
+				if (!emails.add(user.email)) throw new IllegalArgumentException("email conflict");
+				for (var character : user.characters) {
+					try {
+						if (character.name == null) throw new IllegalArgumentException("name is missing");
+						if (character.uuid == null) throw new IllegalArgumentException("uuid is missing");
+						if (!uuids.add(character.uuid)) throw new IllegalArgumentException("uuid conflict");
+						if (!names.add(character.name)) throw new IllegalArgumentException("name conflict");
+					} catch (IllegalArgumentException e) {
+						throw new IllegalArgumentException("error while processing character " + character.name, e);
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("error while processing user " + user.email, e);
+			}
+			charactersCount += user.characters.size();
+		}
+
+		var pool = new StringPool();
+		var usersSection = ByteBuffer.allocate(users.size() * USER_RECORD_SIZE);
+		var charactersSection = ByteBuffer.allocate(charactersCount * CHARACTER_RECORD_SIZE);
+		var emailIndex = newIndex(users.size());
+		var userIdIndex = newIndex(users.size());
+		var uuidIndex = newIndex(charactersCount);
+		var nameIndex = newIndex(charactersCount);
+
+		int characterIndex = 0;
+		for (int userIndex = 0; userIndex < users.size(); userIndex++) {
+			var user = users.get(userIndex);
+			usersSection.putLong(user.id.getMostSignificantBits());
+			usersSection.putLong(user.id.getLeastSignificantBits());
+			usersSection.putInt(pool.add(user.email, false));
+			usersSection.putInt(pool.add(user.password, false));
+			usersSection.putInt(characterIndex);
+			usersSection.putInt(user.characters.size());
+			insert(emailIndex, hash(user.email.getBytes(UTF_8)), userIndex);
+			insert(userIdIndex, hash(user.id), userIndex);
+
+			for (var character : user.characters) {
+				int uploadable = 0;
+				for (var type : character.uploadableTextures) {
+					uploadable |= 1 << type.ordinal();
+				}
+				charactersSection.putLong(character.uuid.getMostSignificantBits());
+				charactersSection.putLong(character.uuid.getLeastSignificantBits());
+				charactersSection.putInt(pool.add(character.name, false));
+				charactersSection.putInt(userIndex);
+				charactersSection.put((byte) character.model.ordinal());
+				charactersSection.put((byte) uploadable);
+				charactersSection.putShort((short) 0);
+				for (int i = 0; i < TEXTURE_TYPES.length; i++) {
+					// texture urls are usually shared by many characters
+					charactersSection.putInt(character.textures[i] == null ? NO_STRING : pool.add(character.textures[i], true));
+				}
+				insert(uuidIndex, hash(character.uuid), characterIndex);
+				insert(nameIndex, hash(character.name.getBytes(UTF_8)), characterIndex);
+				characterIndex++;
+			}
+		}
+
+		var sections = new ByteBuffer[SECTIONS_COUNT];
+		sections[SECTION_USERS] = usersSection.flip();
+		sections[SECTION_CHARACTERS] = charactersSection.flip();
+		sections[SECTION_STRINGS] = ByteBuffer.wrap(pool.buf.toByteArray());
+		sections[SECTION_EMAIL_INDEX] = toBuffer(emailIndex);
+		sections[SECTION_USER_ID_INDEX] = toBuffer(userIdIndex);
+		sections[SECTION_UUID_INDEX] = toBuffer(uuidIndex);
+		sections[SECTION_NAME_INDEX] = toBuffer(nameIndex);
+
+		var header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(users.size());
+		header.putInt(charactersCount);
+		long offset = HEADER_SIZE;
+		for (var section : sections) {
+			header.putLong(offset);
+			header.putLong(section.remaining());
+			offset += section.remaining();
+		}
+		header.flip();
+
+		try (var channel = FileChannel.open(output, CREATE, WRITE, TRUNCATE_EXISTING)) {
+			writeFully(channel, header);
+			for (var section : sections) {
+				writeFully(channel, section);
+			}
+		}
+	}
+
+	private static ByteBuffer toBuffer(int[] index) {
+		var buf = ByteBuffer.allocate(index.length * 4);
+		buf.asIntBuffer().put(index);
+		return buf;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+	}
+
+	private static class StringPool {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		Map<String, Integer> shared = new HashMap<>();
+
+		int add(String str, boolean dedup) {
+			if (dedup) {
+				var existent = shared.get(str);
+				if (existent != null)
+					return existent;
+			}
+			int offset = buf.size();
+			var bytes = str.getBytes(UTF_8);
+			if ((long) offset + 4 + bytes.length > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("too many strings for a single database image");
+			buf.write(bytes.length >>> 24);
+			buf.write(bytes.length >>> 16);
+			buf.write(bytes.length >>> 8);
+			buf.write(bytes.length);
+			buf.writeBytes(bytes);
+			if (dedup)
+				shared.put(str, offset);
+			return offset;
+		}
+	}
+	// --------
+}
@@ -0,0 +1,165 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.text.MessageFormat.format;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.yaml.snakeyaml.Yaml;
+import moe.yushi.yggdrasil_mock.DatabaseImage.CharacterEntry;
+import moe.yushi.yggdrasil_mock.DatabaseImage.UserEntry;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.ModelType;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.TextureType;
+
+/**
+ * Compiles a user list into a {@link DatabaseImage}.
+ * <p>
+ * Usage: {@code compile-database <input.yaml|input.csv> <output>}
+ * <p>
+ * A YAML input is either a configuration file (users are read from {@code yggdrasil.database.users})
+ * or a bare list of users, in the same format as the configuration.
+ * <p>
+ * A CSV input has one line per character, and the following columns:
+ * {@code email,password,id,character,uuid,model,skin,cape,elytra,uploadable-textures}.
+ * Lines with the same email belong to the same user. The character columns may be left empty
+ * for users without characters. Uploadable textures are separated by {@code |}. Quoting is not supported.
+ */
+public final class DatabaseImageCompiler {
+	private DatabaseImageCompiler() {}
+
+	public static int run(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: compile-database <input.yaml|input.csv> <output>");
+			return 1;
+		}
+		var input = Paths.get(args[0]);
+		var output = Paths.get(args[1]);
+		try {
+			long start = System.nanoTime();
+			var users = input.getFileName().toString().endsWith(".csv") ? readCsv(input) : readYaml(input);
+			DatabaseImage.write(users, output);
+			System.err.println(format("Compiled {0} users into {1} in {2} ms",
+					users.size(), output, (System.nanoTime() - start) / 1_000_000));
+			return 0;
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.println(format("Unable to compile {0}: {1}", input, e));
+			return 1;
+		}
+	}
+
+	// ---- YAML ----
+	public static List<UserEntry> readYaml(Path input) throws IOException {
+		Object root;
+		try (var reader = Files.newBufferedReader(input, UTF_8)) {
+			root = new Yaml().load(reader);
+		}
+		if (root instanceof Map) {
+			root = getPath(root, "yggdrasil", "database", "users");
+		}
+		if (!(root instanceof List))
+			throw new IllegalArgumentException("no users found");
+
+		var users = new ArrayList<UserEntry>();
+		for (var element : (List<?>) root) {
+			var user = new UserEntry();
+			user.id = toUUIDOrRandom(getPath(element, "id"));
+			user.email = toStringOrNull(getPath(element, "email"));
+			user.password = toStringOrNull(getPath(element, "password"));
+			var characters = getPath(element, "characters");
+			if (characters instanceof List) {
+				for (var characterElement : (List<?>) characters) {
+					var character = new CharacterEntry();
+					character.uuid = toUUIDOrRandom(getPath(characterElement, "uuid"));
+					character.name = toStringOrNull(getPath(characterElement, "name"));
+					var model = getPath(characterElement, "model");
+					if (model != null)
+						character.model = ModelType.valueOf(model.toString().toUpperCase());
+					var textures = getPath(characterElement, "textures");
+					if (textures instanceof Map) {
+						((Map<?, ?>) textures).forEach((type, url) -> character.textures[toTextureType(type).ordinal()] = url.toString());
+					}
+					var uploadable = getPath(characterElement, "uploadable-textures");
+					if (uploadable instanceof List) {
+						((List<?>) uploadable).forEach(type -> character.uploadableTextures.add(toTextureType(type)));
+					}
+					user.characters.add(character);
+				}
+			}
+			users.add(user);
+		}
+		return users;
+	}
+
+	static Object getPath(Object node, String... path) {
+		for (var key : path) {
+			if (!(node instanceof Map))
+				return null;
+			node = ((Map<?, ?>) node).get(key);
+		}
+		return node;
+	}
+	// --------
+
+	// ---- CSV ----
+	public static List<UserEntry> readCsv(Path input) throws IOException {
+		var users = new LinkedHashMap<String, UserEntry>();
+		try (var lines = Files.lines(input, UTF_8)) {
+			lines.skip(1) // header
+					.filter(line -> !line.isBlank())
+					.forEach(line -> {
+						var columns = line.split(",", -1);
+						if (columns.length != 10)
+							throw new IllegalArgumentException("bad line: " + line);
+
+						var user = users.computeIfAbsent(columns[0], email -> {
+							var newUser = new UserEntry();
+							newUser.email = email;
+							newUser.password = columns[1];
+							newUser.id = toUUIDOrRandom(columns[2]);
+							return newUser;
+						});
+						if (columns[3].isEmpty())
+							return;
+
+						var character = new CharacterEntry();
+						character.name = columns[3];
+						character.uuid = toUUIDOrRandom(columns[4]);
+						if (!columns[5].isEmpty())
+							character.model = ModelType.valueOf(columns[5].toUpperCase());
+						for (var type : TextureType.values()) {
+							var url = columns[6 + type.ordinal()];
+							if (!url.isEmpty())
+								character.textures[type.ordinal()] = url;
+						}
+						if (!columns[9].isEmpty()) {
+							for (var type : columns[9].split("\\|")) {
+								character.uploadableTextures.add(toTextureType(type));
+							}
+						}
+						user.characters.add(character);
+					});
+		}
+		return new ArrayList<>(users.values());
+	}
+	// --------
+
+	private static String toStringOrNull(Object value) {
+		return value == null ? null : value.toString();
+	}
+
+	private static UUID toUUIDOrRandom(Object value) {
+		if (value == null || value.toString().isEmpty())
+			return UUID.randomUUID();
+		return UUIDUtils.toUUID(value.toString());
+	}
+
+	private static TextureType toTextureType(Object value) {
+		return TextureType.valueOf(value.toString().toUpperCase());
+	}
+}
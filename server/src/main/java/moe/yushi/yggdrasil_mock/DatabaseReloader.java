@@ -0,0 +1,145 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.List;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.bind.PropertySourcesPlaceholdersResolver;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Component;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilUser;
+
+/**
+ * Reloads the users from the configuration file, without restarting the server.
+ */
+@Component
+@ConfigurationProperties(prefix = "yggdrasil.database.reload")
+public class DatabaseReloader {
+
+	private static final String USERS_PROPERTY = "yggdrasil.database.users";
+
+	private final Logger logger = LoggerFactory.getLogger(DatabaseReloader.class);
+
+	private @Autowired YggdrasilDatabase database;
+	private @Autowired TokenStore tokenStore;
+	private @Autowired TextureURLConverter textureURLConverter;
+
+	private Path path = Paths.get("application.yaml");
+	private boolean watch = false;
+	private Duration watchDelay = Duration.ofMillis(500);
+
+	private WatchService watchService;
+
+	@PostConstruct
+	private void startWatching() throws IOException {
+		if (!watch)
+			return;
+
+		var file = path.toAbsolutePath();
+		watchService = file.getFileSystem().newWatchService();
+		file.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+
+		var thread = new Thread(() -> {
+			try {
+				for (;;) {
+					var key = watchService.take();
+					boolean changed = key.pollEvents().stream()
+							.anyMatch(event -> file.getFileName().equals(event.context()));
+					key.reset();
+					if (changed) {
+						// editors tend to write a file several times in a row
+						Thread.sleep(watchDelay.toMillis());
+						while ((key = watchService.poll()) != null) {
+							key.pollEvents();
+							key.reset();
+						}
+						try {
+							reload();
+						} catch (Exception e) {
+							logger.warn("Unable to reload users from " + path, e);
+						}
+					}
+				}
+			} catch (ClosedWatchServiceException | InterruptedException e) {
+				// shutting down
+			}
+		}, "database-reloader");
+		thread.setDaemon(true);
+		thread.start();
+		logger.info("Watching {} for changes", path);
+	}
+
+	@PreDestroy
+	private void stopWatching() throws IOException {
+		if (watchService != null)
+			watchService.close();
+	}
+
+	/**
+	 * Parses the configuration file and replaces the configured users.
+	 * Requests are served from the old users while the new ones are being loaded.
+	 *
+	 * @return the time spent, in milliseconds
+	 */
+	public long reload() throws IOException {
+		long start = System.nanoTime();
+
+		var propertySources = new MutablePropertySources();
+		new YamlPropertySourceLoader().load("reload", new FileSystemResource(path))
+				.forEach(propertySources::addLast);
+
+		var conversionService = new ApplicationConversionService();
+		conversionService.addConverter(textureURLConverter);
+		var binder = new Binder(ConfigurationPropertySources.from(propertySources), new PropertySourcesPlaceholdersResolver(propertySources), conversionService);
+		var users = binder.bind(USERS_PROPERTY, Bindable.listOf(YggdrasilUser.class))
+				.orElseGet(List::of);
+
+		var removed = database.replaceUsers(users);
+		removed.forEach(tokenStore::revokeAll);
+
+		long time = (System.nanoTime() - start) / 1_000_000;
+		logger.info("Reloaded {} users from {} in {} ms ({} removed)", users.size(), path, time, removed.size());
+		return time;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public void setPath(Path path) {
+		this.path = path;
+	}
+
+	public boolean isWatch() {
+		return watch;
+	}
+
+	public void setWatch(boolean watch) {
+		this.watch = watch;
+	}
+
+	public Duration getWatchDelay() {
+		return watchDelay;
+	}
+
+	public void setWatchDelay(Duration watchDelay) {
+		this.watchDelay = watchDelay;
+	}
+}
@@ -0,0 +1,216 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.util.stream.Collectors.toList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.logging.LoggingApplicationListener;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.ClassPathResource;
+import moe.yushi.yggdrasil_mock.DatabaseImage.UserEntry;
+
+/**
+ * Runs the server in the current JVM, e.g. for test suites.
+ * <p>
+ * Unlike {@link Main}, nothing is read from or written to the working directory:
+ * the settings are the defaults (as in {@code default-application.yaml}, without its users),
+ * overridden by the ones given to the {@link Builder}. The server listens on a random port,
+ * and beans are initialized lazily.
+ * <p>
+ * Like in the standalone server, the access log, traffic capture, admission control and warmup
+ * are only created when enabled, which they aren't by default. The fault injector is always there,
+ * since it does nothing until faults are set through the admin API, which may be what a test suite wants.
+ * <p>
+ * Instances are independent from each other, except that they share the same signature key unless one is given,
+ * since generating it takes seconds.
+ *
+ * <pre>
+ * try (var server = EmbeddedServer.builder()
+ * 		.user(user)
+ * 		.property("yggdrasil.token.time-to-fully-expired", "1m")
+ * 		.start()) {
+ * 	var url = server.getUrl();
+ * 	...
+ * }
+ * </pre>
+ */
+public final class EmbeddedServer implements AutoCloseable {
+
+	private static final String DEFAULT_CONFIG = "default-application.yaml";
+	private static final String USERS_PREFIX = "yggdrasil.database.users[";
+	// same as Main, may be missing
+	private static final String[] BUILD_PROPERTIES = { "/git.properties", "/META-INF/build-info.properties" };
+
+	private static volatile KeyPair sharedKeyPair;
+
+	private static KeyPair sharedKeyPair() {
+		if (sharedKeyPair == null) {
+			synchronized (EmbeddedServer.class) {
+				if (sharedKeyPair == null)
+					sharedKeyPair = KeyUtils.generateKey();
+			}
+		}
+		return sharedKeyPair;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static class Builder {
+		private final List<UserEntry> users = new ArrayList<>();
+		private final Map<String, Object> properties = new HashMap<>();
+		private KeyPair keyPair;
+
+		private Builder() {}
+
+		/**
+		 * @param user
+		 *            textures are given as URLs, which may use the {@code classpath:} scheme
+		 */
+		public Builder user(UserEntry user) {
+			users.add(user);
+			return this;
+		}
+
+		public Builder users(Collection<UserEntry> users) {
+			this.users.addAll(users);
+			return this;
+		}
+
+		/**
+		 * Sets a configuration property, e.g. {@code yggdrasil.token.time-to-fully-expired}.
+		 * {@code server.port} defaults to 0 (a random port), and {@code yggdrasil.core.url} to the address of this server.
+		 */
+		public Builder property(String key, Object value) {
+			properties.put(key, value);
+			return this;
+		}
+
+		public Builder properties(Map<String, ?> properties) {
+			this.properties.putAll(properties);
+			return this;
+		}
+
+		/**
+		 * The key used to sign profile properties. By default, a key is generated once and shared by all the instances.
+		 */
+		public Builder keyPair(KeyPair keyPair) {
+			this.keyPair = keyPair;
+			return this;
+		}
+
+		public EmbeddedServer start() {
+			var keyPair = this.keyPair;
+			var settings = new HashMap<String, Object>();
+			settings.put("server.port", 0);
+			settings.putAll(properties);
+
+			var app = new SpringApplication(YggdrasilMockServer.class);
+			app.setBannerMode(Banner.Mode.OFF);
+			app.setLogStartupInfo(false);
+			app.setLazyInitialization(true);
+			// leave the logging configuration of the host application alone
+			app.setListeners(app.getListeners().stream()
+					.filter(listener -> !(listener instanceof LoggingApplicationListener))
+					.collect(toList()));
+			app.setDefaultProperties(defaultProperties());
+			app.addInitializers(ctx -> {
+				ctx.getEnvironment().getPropertySources().addFirst(new MapPropertySource("embedded", settings));
+				// the bean is lazy, the shared key is only generated when it's actually needed
+				((GenericApplicationContext) ctx).registerBean(YggdrasilMockServer.PROVIDED_KEY_PAIR, KeyPair.class, () -> keyPair == null ? sharedKeyPair() : keyPair);
+			});
+			var ctx = app.run();
+
+			try {
+				var server = new EmbeddedServer(ctx);
+				if (!properties.containsKey("yggdrasil.core.url"))
+					ctx.getBean(YggdrasilMockServer.class).setUrl(server.getUrl());
+				var database = ctx.getBean(YggdrasilDatabase.class);
+				var newUsers = users.stream()
+						.map(database::newUser)
+						.collect(toList());
+				database.modify(editor -> {
+					newUsers.forEach(editor::addUser);
+					return null;
+				});
+				return server;
+			} catch (RuntimeException e) {
+				ctx.close();
+				throw e;
+			}
+		}
+
+		private static Map<String, Object> defaultProperties() {
+			var result = new HashMap<String, Object>();
+			try {
+				for (var location : BUILD_PROPERTIES) {
+					try (var in = EmbeddedServer.class.getResourceAsStream(location)) {
+						if (in == null)
+							continue;
+						var properties = new Properties();
+						properties.load(in);
+						properties.forEach((key, value) -> result.put(key.toString(), value));
+					}
+				}
+				for (var source : new YamlPropertySourceLoader().load(DEFAULT_CONFIG, new ClassPathResource(DEFAULT_CONFIG))) {
+					for (var key : ((EnumerablePropertySource<?>) source).getPropertyNames()) {
+						if (!key.startsWith(USERS_PREFIX))
+							result.put(key, source.getProperty(key));
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			result.putIfAbsent("build.name", "yggdrasil-mock-server");
+			result.putIfAbsent("git.commit.id", "unknown");
+			// don't pick up an application.yaml lying around
+			result.put("spring.config.location", "optional:classpath:/embedded-application.yaml");
+			return result;
+		}
+	}
+
+	private final ConfigurableApplicationContext ctx;
+	private final int port;
+
+	private EmbeddedServer(ConfigurableApplicationContext ctx) {
+		this.ctx = ctx;
+		this.port = ((WebServerApplicationContext) ctx).getWebServer().getPort();
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return the root URL of the API, ending with a slash
+	 */
+	public String getUrl() {
+		return "http://localhost:" + port + "/";
+	}
+
+	/**
+	 * Gives access to the components of the server, e.g. {@link YggdrasilDatabase} or {@link TokenStore}.
+	 */
+	public <T> T getBean(Class<T> type) {
+		return ctx.getBean(type);
+	}
+
+	@Override
+	public void close() {
+		ctx.close();
+	}
+}
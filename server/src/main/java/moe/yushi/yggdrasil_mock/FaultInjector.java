@@ -0,0 +1,375 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_access_denied;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_invalid_credentials;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_invalid_token;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.newForbiddenOperationException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import moe.yushi.yggdrasil_mock.exception.YggdrasilException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Makes the server slow or flaky on purpose, to test how clients cope with it.
+ * <p>
+ * Each rule of {@code yggdrasil.faults.rules} (or set through {@code /admin/faults}) applies to the requests whose path
+ * (within the realm) matches its {@code path} pattern; the first matching rule wins. A rule may delay the request
+ * according to a latency distribution, fail it with a given error at a given rate, and limit the bandwidth
+ * of its response. Delays are timers, they don't hold any thread.
+ * <p>
+ * The admin API is never affected, whatever the rules, so that they can always be changed back.
+ * <p>
+ * Injected delays are counted by the access log, but not by the metrics nor by the admission controller.
+ */
+@Component
+// after the filters observing what the client sees, before AdmissionController, to which delays would look like overload
+@Order(Ordered.HIGHEST_PRECEDENCE + 3)
+@ConfigurationProperties(prefix = "yggdrasil.faults")
+public class FaultInjector implements WebFilter {
+
+	public static enum Distribution {
+		/** always {@code delay} */
+		FIXED,
+		/** between {@code min} and {@code max} */
+		UNIFORM,
+		/** median {@code delay} and shape {@code sigma}, capped at {@code max} if set */
+		LOGNORMAL;
+	}
+
+	public static enum Fault {
+		INVALID_TOKEN(newForbiddenOperationException(m_invalid_token)),
+		INVALID_CREDENTIALS(newForbiddenOperationException(m_invalid_credentials)),
+		ACCESS_DENIED(newForbiddenOperationException(m_access_denied)),
+		TOO_MANY_REQUESTS(HttpStatus.TOO_MANY_REQUESTS),
+		INTERNAL_SERVER_ERROR(HttpStatus.INTERNAL_SERVER_ERROR),
+		BAD_GATEWAY(HttpStatus.BAD_GATEWAY),
+		SERVICE_UNAVAILABLE(HttpStatus.SERVICE_UNAVAILABLE),
+		GATEWAY_TIMEOUT(HttpStatus.GATEWAY_TIMEOUT);
+
+		final HttpStatus status;
+		final byte[] body;
+
+		Fault(YggdrasilException e) {
+			this.status = e.getStatus();
+			this.body = e.getBody();
+		}
+
+		Fault(HttpStatus status) {
+			this.status = status;
+			this.body = YggdrasilException.encodeBody(status.getReasonPhrase(), status.value() + " " + status.getReasonPhrase());
+		}
+	}
+
+	public static class Latency {
+		private Distribution distribution = Distribution.FIXED;
+		private Duration delay = Duration.ZERO;
+		private Duration min = Duration.ZERO;
+		private Duration max;
+		private double sigma = 0.5;
+
+		public Distribution getDistribution() {
+			return distribution;
+		}
+
+		public void setDistribution(Distribution distribution) {
+			this.distribution = distribution;
+		}
+
+		public Duration getDelay() {
+			return delay;
+		}
+
+		public void setDelay(Duration delay) {
+			this.delay = delay;
+		}
+
+		public Duration getMin() {
+			return min;
+		}
+
+		public void setMin(Duration min) {
+			this.min = min;
+		}
+
+		public Duration getMax() {
+			return max;
+		}
+
+		public void setMax(Duration max) {
+			this.max = max;
+		}
+
+		public double getSigma() {
+			return sigma;
+		}
+
+		public void setSigma(double sigma) {
+			this.sigma = sigma;
+		}
+	}
+
+	public static class Rule {
+		private String path;
+		private Latency latency;
+		private double errorRate;
+		private Fault error = Fault.SERVICE_UNAVAILABLE;
+		/** per response */
+		private DataSize bandwidth;
+
+		public String getPath() {
+			return path;
+		}
+
+		public void setPath(String path) {
+			this.path = path;
+		}
+
+		public Latency getLatency() {
+			return latency;
+		}
+
+		public void setLatency(Latency latency) {
+			this.latency = latency;
+		}
+
+		public double getErrorRate() {
+			return errorRate;
+		}
+
+		public void setErrorRate(double errorRate) {
+			this.errorRate = errorRate;
+		}
+
+		public Fault getError() {
+			return error;
+		}
+
+		public void setError(Fault error) {
+			this.error = error;
+		}
+
+		public DataSize getBandwidth() {
+			return bandwidth;
+		}
+
+		public void setBandwidth(DataSize bandwidth) {
+			this.bandwidth = bandwidth;
+		}
+	}
+
+	/**
+	 * A validated {@link Rule}, in nanoseconds and bytes per second.
+	 */
+	private static class CompiledRule {
+		final PathPattern pattern;
+		@Nullable
+		final Distribution distribution;
+		final long delay;
+		final long min;
+		final long max;
+		final double sigma;
+		final double errorRate;
+		final Fault error;
+		final long bandwidth;
+
+		CompiledRule(Rule rule) {
+			if (rule.path == null || rule.path.isEmpty())
+				throw new IllegalArgumentException("path is required");
+			if (!(rule.errorRate >= 0 && rule.errorRate <= 1))
+				throw new IllegalArgumentException("error-rate must be between 0 and 1: " + rule.errorRate);
+			if (rule.error == null)
+				throw new IllegalArgumentException("error is required");
+			if (rule.bandwidth != null && rule.bandwidth.toBytes() <= 0)
+				throw new IllegalArgumentException("bandwidth must be positive: " + rule.bandwidth);
+			this.pattern = PathPatternParser.defaultInstance.parse(rule.path);
+			this.errorRate = rule.errorRate;
+			this.error = rule.error;
+			this.bandwidth = rule.bandwidth == null ? 0 : rule.bandwidth.toBytes();
+
+			var latency = rule.latency;
+			if (latency == null) {
+				this.distribution = null;
+				this.delay = this.min = this.max = 0;
+				this.sigma = 0;
+				return;
+			}
+			if (latency.distribution == null)
+				throw new IllegalArgumentException("distribution is required");
+			this.distribution = latency.distribution;
+			this.delay = nanos(latency.delay);
+			this.min = nanos(latency.min);
+			this.max = latency.max == null ? Long.MAX_VALUE : nanos(latency.max);
+			this.sigma = latency.sigma;
+			if (distribution == Distribution.UNIFORM && (latency.max == null || min > max))
+				throw new IllegalArgumentException("uniform latency needs min <= max");
+			if (distribution == Distribution.LOGNORMAL && (delay <= 0 || sigma < 0))
+				throw new IllegalArgumentException("lognormal latency needs a positive delay (median) and a non-negative sigma");
+		}
+
+		private static long nanos(@Nullable Duration duration) {
+			if (duration == null)
+				return 0;
+			if (duration.isNegative())
+				throw new IllegalArgumentException("Negative duration: " + duration);
+			return duration.toNanos();
+		}
+
+		long sampleDelay() {
+			if (distribution == null)
+				return 0;
+			var random = ThreadLocalRandom.current();
+			switch (distribution) {
+				case FIXED:
+					return delay;
+				case UNIFORM:
+					return min == max ? min : random.nextLong(min, max + 1);
+				case LOGNORMAL:
+					return (long) min(max, delay * Math.exp(sigma * random.nextGaussian()));
+				default:
+					throw new IllegalStateException(String.valueOf(distribution));
+			}
+		}
+	}
+
+	private List<Rule> rules = new ArrayList<>();
+
+	private volatile List<CompiledRule> compiledRules = List.of();
+
+	private final LongAdder delayed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder throttled = new LongAdder();
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		var current = compiledRules;
+		if (current.isEmpty())
+			return chain.filter(exchange);
+
+		var path = exchange.getRequest().getPath().pathWithinApplication();
+		if (path.value().startsWith(AdminRouter.PATH_PREFIX))
+			return chain.filter(exchange);
+		CompiledRule rule = null;
+		for (var it : current) {
+			if (it.pattern.matches(path)) {
+				rule = it;
+				break;
+			}
+		}
+		if (rule == null)
+			return chain.filter(exchange);
+
+		long delay = rule.sampleDelay();
+		if (delay <= 0)
+			return apply(rule, exchange, chain);
+		delayed.increment();
+		var matched = rule;
+		return Mono.delay(Duration.ofNanos(delay))
+				.then(Mono.defer(() -> apply(matched, exchange, chain)));
+	}
+
+	private Mono<Void> apply(CompiledRule rule, ServerWebExchange exchange, WebFilterChain chain) {
+		if (rule.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < rule.errorRate) {
+			failed.increment();
+			return writeError(exchange, rule.error);
+		}
+		if (rule.bandwidth > 0) {
+			throttled.increment();
+			return chain.filter(exchange.mutate().response(throttle(exchange, rule.bandwidth)).build());
+		}
+		return chain.filter(exchange);
+	}
+
+	private static Mono<Void> writeError(ServerWebExchange exchange, Fault fault) {
+		var response = exchange.getResponse();
+		response.setStatusCode(fault.status);
+		response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+		return response.writeWith(Mono.just(response.bufferFactory().wrap(fault.body)));
+	}
+
+	private static ServerHttpResponseDecorator throttle(ServerWebExchange exchange, long bytesPerSecond) {
+		var response = exchange.getResponse();
+		// 20 chunks per second
+		int chunkSize = (int) max(1, min(Integer.MAX_VALUE, bytesPerSecond / 20));
+		return new ServerHttpResponseDecorator(response) {
+			@Override
+			public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+				return super.writeWith(Flux.from(body)
+						.concatMap(buffer -> slowDown(buffer, response.bufferFactory(), chunkSize, bytesPerSecond)));
+			}
+		};
+	}
+
+	private static Flux<DataBuffer> slowDown(DataBuffer buffer, DataBufferFactory factory, int chunkSize, long bytesPerSecond) {
+		// copied, so that nothing is left to release if the response is cancelled while waiting
+		var data = new byte[buffer.readableByteCount()];
+		buffer.read(data);
+		DataBufferUtils.release(buffer);
+		return Flux.range(0, (data.length + chunkSize - 1) / chunkSize)
+				.concatMap(i -> {
+					int offset = i * chunkSize;
+					int length = min(chunkSize, data.length - offset);
+					return Mono.delay(Duration.ofNanos(length * 1_000_000_000L / bytesPerSecond))
+							.map(tick -> factory.wrap(ByteBuffer.wrap(data, offset, length)));
+				});
+	}
+
+	public long getDelayedCount() {
+		return delayed.sum();
+	}
+
+	public long getFailedCount() {
+		return failed.sum();
+	}
+
+	public long getThrottledCount() {
+		return throttled.sum();
+	}
+
+	public List<Rule> getRules() {
+		return rules;
+	}
+
+	/**
+	 * Replaces all the rules, atomically.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a rule is invalid, in which case the rules are left unchanged
+	 */
+	public synchronized void setRules(List<Rule> rules) {
+		var compiled = new ArrayList<CompiledRule>(rules.size());
+		for (var rule : rules) {
+			try {
+				compiled.add(new CompiledRule(rule));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Invalid fault rule for " + rule.path + ": " + e.getMessage());
+			}
+		}
+		this.rules = List.copyOf(rules);
+		this.compiledRules = List.copyOf(compiled);
+	}
+}
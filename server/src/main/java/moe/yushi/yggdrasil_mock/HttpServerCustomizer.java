@@ -0,0 +1,173 @@
+package moe.yushi.yggdrasil_mock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.stereotype.Component;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.LoopResources;
+
+/**
+ * Connection settings not covered by {@code server.*}.
+ * <p>
+ * HTTP/2 and compression are configured with the standard properties:
+ * {@code server.http2.enabled} (h2c on plain HTTP, h2 over ALPN when {@code server.ssl} is set)
+ * and {@code server.compression}.
+ * <p>
+ * The native epoll transport is used when available (Linux), otherwise NIO. With epoll, several accept loops
+ * ({@code acceptors}) may listen on the same port with {@code SO_REUSEPORT}, the kernel spreading the new connections
+ * among them: the first one is the server started by Spring Boot, the others are bound to the same configuration
+ * once it has started. They share {@code event-loop-threads} threads (by default, the number of CPUs, at least 4).
+ */
+@Component
+@ConfigurationProperties(prefix = "yggdrasil.http")
+public class HttpServerCustomizer implements NettyServerCustomizer, SmartLifecycle {
+
+	private final Logger logger = LoggerFactory.getLogger(HttpServerCustomizer.class);
+
+	private @Autowired ApplicationContext applicationContext;
+
+	private Duration idleTimeout = Duration.ofSeconds(60);
+	private boolean tcpKeepAlive = true;
+	private boolean nativeTransport = true;
+	private int eventLoopThreads = 0;
+	private int acceptors = 1;
+
+	private LoopResources loops;
+	private HttpServer configured;
+	private int acceptorCount = 1;
+	private final List<DisposableServer> extraAcceptors = new ArrayList<>();
+
+	@Override
+	public HttpServer apply(HttpServer server) {
+		boolean epoll = nativeTransport && Epoll.isAvailable();
+		if (nativeTransport && !epoll)
+			logger.info("Native transport unavailable, using NIO: {}", String.valueOf(Epoll.unavailabilityCause()));
+		acceptorCount = acceptors;
+		if (acceptorCount > 1 && !epoll) {
+			logger.warn("Multiple acceptors need the native epoll transport, using a single one");
+			acceptorCount = 1;
+		}
+
+		if (!nativeTransport || eventLoopThreads > 0 || acceptorCount > 1) {
+			// otherwise the default, shared resources are used
+			int workers = eventLoopThreads > 0 ? eventLoopThreads : LoopResources.DEFAULT_IO_WORKER_COUNT;
+			loops = LoopResources.create("yggdrasil-http", acceptorCount, workers, true);
+			server = server.runOn(loops, epoll);
+		}
+		if (acceptorCount > 1)
+			server = server.option(EpollChannelOption.SO_REUSEPORT, true);
+
+		configured = server
+				// HttpServer.idleTimeout() doesn't work with h2c in this version of reactor-netty,
+				// so this is done at the TCP level: a connection is closed after idleTimeout without any traffic
+				.doOnChannelInit((observer, channel, remoteAddress) -> channel.pipeline()
+						.addFirst("yggdrasil.idleTimeout", new IdleStateHandler(0, 0, idleTimeout.toMillis(), TimeUnit.MILLISECONDS) {
+							@Override
+							protected void channelIdle(ChannelHandlerContext ctx, IdleStateEvent evt) {
+								ctx.close();
+							}
+						}))
+				.childOption(ChannelOption.SO_KEEPALIVE, tcpKeepAlive)
+				.childOption(ChannelOption.TCP_NODELAY, true);
+		return configured;
+	}
+
+	// ---- Extra acceptors ----
+	@Override
+	public void start() {
+		if (acceptorCount <= 1)
+			return;
+		int port = ((WebServerApplicationContext) applicationContext).getWebServer().getPort();
+		var handler = new ReactorHttpHandlerAdapter(applicationContext.getBean(HttpHandler.class));
+		for (int i = 1; i < acceptorCount; i++) {
+			extraAcceptors.add(configured.port(port).handle(handler).bindNow());
+		}
+		logger.info("{} accept loops listening on port {}", acceptorCount, port);
+	}
+
+	@Override
+	public void stop() {
+		for (var server : extraAcceptors) {
+			server.disposeNow();
+		}
+		extraAcceptors.clear();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return !extraAcceptors.isEmpty();
+	}
+
+	@Override
+	public int getPhase() {
+		// after the web server has started, before it stops
+		return Integer.MAX_VALUE;
+	}
+
+	@PreDestroy
+	private void disposeLoops() {
+		if (loops != null)
+			loops.disposeLater().block(Duration.ofSeconds(10));
+	}
+	// --------
+
+	public Duration getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public void setIdleTimeout(Duration idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public boolean isTcpKeepAlive() {
+		return tcpKeepAlive;
+	}
+
+	public void setTcpKeepAlive(boolean tcpKeepAlive) {
+		this.tcpKeepAlive = tcpKeepAlive;
+	}
+
+	public boolean isNativeTransport() {
+		return nativeTransport;
+	}
+
+	public void setNativeTransport(boolean nativeTransport) {
+		this.nativeTransport = nativeTransport;
+	}
+
+	public int getEventLoopThreads() {
+		return eventLoopThreads;
+	}
+
+	public void setEventLoopThreads(int eventLoopThreads) {
+		this.eventLoopThreads = eventLoopThreads;
+	}
+
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	public void setAcceptors(int acceptors) {
+		this.acceptors = acceptors;
+	}
+}
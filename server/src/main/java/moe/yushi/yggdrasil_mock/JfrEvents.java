@@ -0,0 +1,84 @@
+package moe.yushi.yggdrasil_mock;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder events emitted on the hot paths.
+ * They cost next to nothing unless a recording is running (see {@code /admin/recording}).
+ */
+public final class JfrEvents {
+	private JfrEvents() {}
+
+	private static final String CATEGORY = "Yggdrasil";
+
+	@Name("moe.yushi.yggdrasil_mock.TokenAuthentication")
+	@Label("Token Authentication")
+	@Category(CATEGORY)
+	public static class TokenAuthentication extends Event {
+		@Label("Available Level")
+		public String availableLevel;
+
+		@Label("Outcome")
+		public String outcome;
+	}
+
+	@Name("moe.yushi.yggdrasil_mock.Signature")
+	@Label("Property Signature")
+	@Category(CATEGORY)
+	public static class Signature extends Event {
+		@Label("Data Size")
+		@DataAmount
+		public int dataSize;
+
+		@Label("Signature Size")
+		@DataAmount
+		public int signatureSize;
+	}
+
+	@Name("moe.yushi.yggdrasil_mock.TextureDecode")
+	@Label("Texture Decode")
+	@Category(CATEGORY)
+	public static class TextureDecode extends Event {
+		@Label("Width")
+		public int width;
+
+		@Label("Height")
+		public int height;
+	}
+
+	@Name("moe.yushi.yggdrasil_mock.TextureHash")
+	@Label("Texture Hash")
+	@Category(CATEGORY)
+	public static class TextureHash extends Event {
+		@Label("Width")
+		public int width;
+
+		@Label("Height")
+		public int height;
+	}
+
+	@Name("moe.yushi.yggdrasil_mock.TextureEncode")
+	@Label("Texture Encode")
+	@Category(CATEGORY)
+	public static class TextureEncode extends Event {
+		@Label("Size")
+		@DataAmount
+		public int size;
+	}
+
+	@Name("moe.yushi.yggdrasil_mock.JsonSerialization")
+	@Label("JSON Serialization")
+	@Category(CATEGORY)
+	public static class JsonSerialization extends Event {
+		@Label("Type")
+		public String type;
+
+		@Label("Size")
+		@DataAmount
+		public int size;
+	}
+}
@@ -0,0 +1,667 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.text.MessageFormat.format;
+import static java.util.stream.Collectors.toList;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.lang.Nullable;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.yaml.snakeyaml.Yaml;
+import com.fasterxml.jackson.databind.JsonNode;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Drives login and join flows against a running server, and reports the latency of each step.
+ * <p>
+ * Usage: {@code load-test [--option=value]...}, see {@link #USAGE}.
+ * <p>
+ * Flows are started at a fixed rate, whether the previous ones have completed or not. The latency of a flow is measured
+ * from the time it was scheduled to start, so a server (or client) falling behind shows up in it.
+ * Users are taken from the configuration file: the generated users if the generator is enabled,
+ * otherwise the users having a plain text password and a single character.
+ * The flows and the users they use only depend on the seed.
+ * <p>
+ * If the server under test limits password attempts by IP, it should run
+ * with {@code yggdrasil.rate-limit.ip-limit-duration: 0}, its default.
+ */
+public final class LoadGenerator {
+
+	private static final String USAGE = String.join("\n",
+			"Usage: load-test [--option=value]...",
+			"  --url=http://localhost:8080/    server to test",
+			"  --config=./application.yaml     where the users are read from",
+			"  --rate=100                      flows started per second",
+			"  --duration=60s                  measurement duration, after the warmup",
+			"  --warmup=10s",
+			"  --mix=login:1                   relative weights of the flows:",
+			"                                    login:  authenticate, join, hasJoined, profile",
+			"                                    rejoin: validate (or authenticate), join, hasJoined",
+			"                                    lookup: query (by name), profile",
+			"  --seed=0",
+			"  --concurrency=1000              max flows in flight, the others wait",
+			"  --connections=500",
+			"  --h2c                           use HTTP/2 over cleartext",
+			"  --slo=login.p99=500ms,...       latency objectives, for steps and flows",
+			"  --max-error-rate=0.001",
+			"  --histograms=<dir>              write the latency distribution of each step (.hgrm)",
+			"Exits with 2 if an objective is missed.");
+
+	private static final Duration TICK = Duration.ofMillis(1);
+	private static final Duration REPORT_INTERVAL = Duration.ofSeconds(5);
+
+	private static enum Flow {
+		LOGIN, REJOIN, LOOKUP;
+	}
+
+	private static class Options {
+		String url = "http://localhost:8080/";
+		Path config = Paths.get("./application.yaml");
+		double rate = 100;
+		Duration duration = Duration.ofSeconds(60);
+		Duration warmup = Duration.ofSeconds(10);
+		Map<Flow, Integer> mix = new EnumMap<>(Map.of(Flow.LOGIN, 1));
+		long seed = 0;
+		int concurrency = 1000;
+		int connections = 500;
+		boolean h2c = false;
+		List<Objective> objectives = new ArrayList<>();
+		double maxErrorRate = 0.001;
+		Path histograms;
+
+		static Options parse(String[] args) {
+			var options = new Options();
+			for (var arg : args) {
+				if (arg.equals("--h2c")) {
+					options.h2c = true;
+					continue;
+				}
+				int eq = arg.indexOf('=');
+				if (!arg.startsWith("--") || eq == -1)
+					throw new IllegalArgumentException("Invalid option: " + arg);
+				var key = arg.substring(2, eq);
+				var value = arg.substring(eq + 1);
+				switch (key) {
+					case "url":
+						options.url = value;
+						break;
+					case "config":
+						options.config = Paths.get(value);
+						break;
+					case "rate":
+						options.rate = Double.parseDouble(value);
+						break;
+					case "duration":
+						options.duration = DurationStyle.detectAndParse(value);
+						break;
+					case "warmup":
+						options.warmup = DurationStyle.detectAndParse(value);
+						break;
+					case "mix":
+						options.mix.clear();
+						for (var entry : value.split(",")) {
+							var parts = entry.split(":");
+							if (parts.length != 2)
+								throw new IllegalArgumentException("Invalid mix: " + entry);
+							options.mix.put(Flow.valueOf(parts[0].toUpperCase()), Integer.parseInt(parts[1]));
+						}
+						break;
+					case "seed":
+						options.seed = Long.parseLong(value);
+						break;
+					case "concurrency":
+						options.concurrency = Integer.parseInt(value);
+						break;
+					case "connections":
+						options.connections = Integer.parseInt(value);
+						break;
+					case "slo":
+						for (var entry : value.split(",")) {
+							options.objectives.add(Objective.parse(entry));
+						}
+						break;
+					case "max-error-rate":
+						options.maxErrorRate = Double.parseDouble(value);
+						break;
+					case "histograms":
+						options.histograms = Paths.get(value);
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown option: " + key);
+				}
+			}
+			if (options.rate <= 0)
+				throw new IllegalArgumentException("rate must be positive");
+			if (options.mix.values().stream().mapToInt(Integer::intValue).sum() <= 0)
+				throw new IllegalArgumentException("mix must contain a positive weight");
+			return options;
+		}
+	}
+
+	/**
+	 * {@code <step or flow>.p<percentile>=<duration>}, e.g. {@code join.p99.9=100ms}
+	 */
+	private static class Objective {
+		String name;
+		double percentile;
+		Duration threshold;
+
+		static Objective parse(String value) {
+			int eq = value.indexOf('=');
+			int dot = value.lastIndexOf(".p", eq);
+			if (eq == -1 || dot == -1)
+				throw new IllegalArgumentException("Invalid objective: " + value);
+			var objective = new Objective();
+			objective.name = value.substring(0, dot);
+			objective.percentile = Double.parseDouble(value.substring(dot + 2, eq));
+			objective.threshold = DurationStyle.detectAndParse(value.substring(eq + 1));
+			return objective;
+		}
+	}
+
+	/**
+	 * The users that can be logged in, with an index in {@code [0, count)}.
+	 */
+	private static class Users {
+		int count;
+		IntFunction<String> email;
+		IntFunction<String> password;
+		IntFunction<String> characterName;
+
+		static Users load(Path config) throws IOException {
+			var users = new Users();
+			var generator = readGenerator(readConfig(config));
+			if (generator != null) {
+				users.count = generator.getCount();
+				users.email = generator::email;
+				users.password = generator::password;
+				users.characterName = generator::characterName;
+
+			} else {
+				var entries = DatabaseImageCompiler.readYaml(config).stream()
+						.filter(user -> user.password != null && !user.password.startsWith("{"))
+						.filter(user -> user.characters.size() == 1)
+						.collect(toList());
+				users.count = entries.size();
+				users.email = n -> entries.get(n).email;
+				users.password = n -> entries.get(n).password;
+				users.characterName = n -> entries.get(n).characters.get(0).name;
+			}
+			if (users.count == 0)
+				throw new IllegalArgumentException("no users with a plain text password and a single character");
+			return users;
+		}
+	}
+
+	static Object readConfig(Path config) throws IOException {
+		if (!Files.exists(config))
+			throw new FileNotFoundException(config.toString());
+		try (var reader = Files.newBufferedReader(config, UTF_8)) {
+			return new Yaml().load(reader);
+		}
+	}
+
+	/**
+	 * @return the user generator of the configuration, or null if it's not enabled
+	 */
+	@Nullable
+	static UserGenerator readGenerator(Object config) {
+		var generatorConfig = DatabaseImageCompiler.getPath(config, "yggdrasil", "database", "generator");
+		if (!(generatorConfig instanceof Map) || !Boolean.TRUE.equals(((Map<?, ?>) generatorConfig).get("enabled")))
+			return null;
+		var properties = (Map<?, ?>) generatorConfig;
+		var generator = new UserGenerator();
+		if (properties.get("count") != null)
+			generator.setCount(((Number) properties.get("count")).intValue());
+		if (properties.get("email") != null)
+			generator.setEmail(properties.get("email").toString());
+		if (properties.get("password") != null)
+			generator.setPassword(properties.get("password").toString());
+		if (properties.get("character-name") != null)
+			generator.setCharacterName(properties.get("character-name").toString());
+		return generator;
+	}
+
+	/**
+	 * Latencies of a step or a flow. Recorded from any thread, collected by {@link LoadGenerator#collect()}.
+	 */
+	private static class Stats {
+		final String name;
+		final Recorder recorder = new Recorder(3);
+		final LongAdder errors = new LongAdder();
+		volatile String lastError;
+
+		final Histogram total = new Histogram(3);
+		long totalErrors;
+		Histogram interval;
+
+		Stats(String name) {
+			this.name = name;
+		}
+
+		void record(long nanos) {
+			recorder.recordValue(nanos);
+		}
+
+		void recordError(Throwable e) {
+			errors.increment();
+			lastError = e.toString();
+		}
+	}
+
+	private static class Session {
+		String accessToken;
+		String clientToken;
+		String profileId;
+	}
+
+	public static int run(String[] args) {
+		if (List.of(args).contains("--help")) {
+			System.err.println(USAGE);
+			return 0;
+		}
+
+		Options options;
+		try {
+			options = Options.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return 1;
+		}
+
+		// not started by Spring Boot, which would have configured this
+		LoggingSystem.get(LoadGenerator.class.getClassLoader()).setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.WARN);
+
+		Users users;
+		try {
+			users = Users.load(options.config);
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.println(format("Unable to read users from {0}: {1}", options.config, e));
+			return 1;
+		}
+		return new LoadGenerator(options, users).execute();
+	}
+
+	private final Options options;
+	private final Users users;
+	private final WebClient client;
+	private final ConnectionProvider connectionProvider;
+
+	private final Stats authenticate = new Stats("authenticate");
+	private final Stats validate = new Stats("validate");
+	private final Stats join = new Stats("join");
+	private final Stats hasJoined = new Stats("hasJoined");
+	private final Stats query = new Stats("query");
+	private final Stats profile = new Stats("profile");
+	private final Map<Flow, Stats> flows = new EnumMap<>(Flow.class);
+	private final Map<String, Stats> allStats = new LinkedHashMap<>();
+
+	// only accessed by the scheduling thread
+	private final SplittableRandom random;
+	private final Flow[] weightedFlows;
+	private long scheduled;
+
+	private final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+
+	private final LongAdder notStarted = new LongAdder();
+
+	private long start;
+	private long end;
+	private long measurementStart;
+	private boolean measuring;
+
+	private LoadGenerator(Options options, Users users) {
+		this.options = options;
+		this.users = users;
+
+		var flowList = new ArrayList<Flow>();
+		options.mix.forEach((flow, weight) -> {
+			for (int i = 0; i < weight; i++)
+				flowList.add(flow);
+		});
+		weightedFlows = flowList.toArray(Flow[]::new);
+		random = new SplittableRandom(options.seed);
+
+		for (var stats : List.of(authenticate, validate, join, hasJoined, query, profile))
+			allStats.put(stats.name, stats);
+		for (var flow : Flow.values()) {
+			var stats = new Stats(flow.name().toLowerCase());
+			flows.put(flow, stats);
+			allStats.put(stats.name, stats);
+		}
+
+		connectionProvider = ConnectionProvider.builder("load-test")
+				.maxConnections(options.connections)
+				.pendingAcquireMaxCount(-1)
+				.build();
+		var httpClient = HttpClient.create(connectionProvider);
+		if (options.h2c)
+			httpClient = httpClient.protocol(HttpProtocol.H2C);
+		client = WebClient.builder()
+				.baseUrl(options.url)
+				.clientConnector(new ReactorClientHttpConnector(httpClient))
+				.build();
+	}
+
+	private int execute() {
+		System.err.println(format("{0} users, {1} flows/s, warmup {2}s, duration {3}s",
+				users.count, options.rate, options.warmup.toSeconds(), options.duration.toSeconds()));
+
+		start = System.nanoTime();
+		end = start + options.warmup.plus(options.duration).toNanos();
+		var warmup = Mono.delay(options.warmup)
+				.subscribe(x -> startMeasurement());
+		var reporter = Flux.interval(REPORT_INTERVAL, REPORT_INTERVAL)
+				.subscribe(tick -> {
+					collect();
+					printProgress();
+				});
+
+		Flux.interval(TICK)
+				.onBackpressureDrop()
+				.takeWhile(tick -> System.nanoTime() < end)
+				.concatMapIterable(tick -> dueFlows())
+				.flatMap(this::runFlow, options.concurrency)
+				.blockLast();
+
+		warmup.dispose();
+		reporter.dispose();
+		collect();
+		connectionProvider.disposeLater().block();
+
+		printReport(System.out);
+		if (options.histograms != null) {
+			try {
+				writeHistograms(options.histograms);
+			} catch (IOException e) {
+				System.err.println(format("Unable to write histograms to {0}: {1}", options.histograms, e));
+			}
+		}
+		return checkObjectives() ? 0 : 2;
+	}
+
+	// ---- Flows ----
+	private static class ScheduledFlow {
+		long scheduledAt;
+		SplittableRandom random;
+	}
+
+	private List<ScheduledFlow> dueFlows() {
+		long now = System.nanoTime();
+		long due = (long) ((now - start) / 1e9 * options.rate);
+		var result = new ArrayList<ScheduledFlow>();
+		for (; scheduled < due; scheduled++) {
+			var flow = new ScheduledFlow();
+			flow.scheduledAt = start + (long) (scheduled * 1e9 / options.rate);
+			flow.random = random.split();
+			result.add(flow);
+		}
+		return result;
+	}
+
+	private Mono<Void> runFlow(ScheduledFlow scheduled) {
+		if (System.nanoTime() - end > 0) {
+			// the run is over, and the flow has been waiting for its turn: the server can't keep up
+			notStarted.increment();
+			return Mono.empty();
+		}
+
+		var random = scheduled.random;
+		var flow = weightedFlows[random.nextInt(weightedFlows.length)];
+		int n = random.nextInt(users.count);
+		var serverId = Long.toHexString(random.nextLong());
+
+		Mono<?> steps;
+		switch (flow) {
+			case LOGIN:
+				steps = login(n)
+						.flatMap(session -> joinAndVerify(n, session, serverId))
+						.flatMap(this::profile);
+				break;
+			case REJOIN:
+				steps = validateOrLogin(n)
+						.flatMap(session -> joinAndVerify(n, session, serverId));
+				break;
+			case LOOKUP:
+				steps = query(n).flatMap(this::profile);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown flow: " + flow);
+		}
+
+		var stats = flows.get(flow);
+		return steps
+				.doOnSuccess(result -> stats.record(System.nanoTime() - scheduled.scheduledAt))
+				.doOnError(stats::recordError)
+				.onErrorResume(e -> Mono.empty())
+				.then();
+	}
+
+	private Mono<Session> login(int n) {
+		var body = new LinkedHashMap<String, Object>();
+		body.put("agent", Map.of("name", "Minecraft", "version", 1));
+		body.put("username", users.email.apply(n));
+		body.put("password", users.password.apply(n));
+		return timed(authenticate, client.post()
+				.uri("/authserver/authenticate")
+				.bodyValue(body)
+				.retrieve()
+				.bodyToMono(JsonNode.class))
+						.map(response -> {
+							var session = new Session();
+							session.accessToken = response.path("accessToken").asText();
+							session.clientToken = response.path("clientToken").asText();
+							session.profileId = response.path("selectedProfile").path("id").asText(null);
+							if (session.profileId == null)
+								throw new IllegalStateException("No profile selected for " + users.email.apply(n));
+							sessions.put(n, session);
+							return session;
+						});
+	}
+
+	private Mono<Session> validateOrLogin(int n) {
+		var session = sessions.get(n);
+		if (session == null)
+			return login(n);
+		return timed(validate, client.post()
+				.uri("/authserver/validate")
+				.bodyValue(Map.of("accessToken", session.accessToken, "clientToken", session.clientToken))
+				.retrieve()
+				.toBodilessEntity()
+				.map(response -> true)
+				// the token has expired, which is a valid answer
+				.onErrorResume(WebClientResponseException.Forbidden.class, e -> Mono.just(false)))
+						.flatMap(valid -> valid ? Mono.just(session) : login(n));
+	}
+
+	/**
+	 * @return the id of the profile
+	 */
+	private Mono<String> joinAndVerify(int n, Session session, String serverId) {
+		var joinRequest = client.post()
+				.uri("/sessionserver/session/minecraft/join")
+				.bodyValue(Map.of("accessToken", session.accessToken, "selectedProfile", session.profileId, "serverId", serverId))
+				.retrieve()
+				.toBodilessEntity();
+		var hasJoinedRequest = client.get()
+				.uri("/sessionserver/session/minecraft/hasJoined?username={username}&serverId={serverId}", users.characterName.apply(n), serverId)
+				.retrieve()
+				.toEntity(JsonNode.class)
+				.map(response -> requireBody(response).path("id").asText());
+		return timed(join, joinRequest)
+				.then(timed(hasJoined, hasJoinedRequest));
+	}
+
+	/**
+	 * @return the id of the profile
+	 */
+	private Mono<String> query(int n) {
+		return timed(query, client.post()
+				.uri("/api/profiles/minecraft")
+				.bodyValue(List.of(users.characterName.apply(n)))
+				.retrieve()
+				.bodyToMono(JsonNode.class)
+				.map(response -> {
+					if (response.size() != 1)
+						throw new IllegalStateException("Profile not found: " + users.characterName.apply(n));
+					return response.get(0).path("id").asText();
+				}));
+	}
+
+	private Mono<JsonNode> profile(String profileId) {
+		return timed(profile, client.get()
+				.uri("/sessionserver/session/minecraft/profile/{uuid}?unsigned=false", profileId)
+				.retrieve()
+				.toEntity(JsonNode.class)
+				.map(LoadGenerator::requireBody));
+	}
+
+	private static <T> T requireBody(ResponseEntity<T> response) {
+		if (response.getStatusCode() != HttpStatus.OK || response.getBody() == null)
+			throw new IllegalStateException("Expected a profile, got " + response.getStatusCode());
+		return response.getBody();
+	}
+
+	private static <T> Mono<T> timed(Stats stats, Mono<T> request) {
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			return request
+					.doOnSuccess(result -> stats.record(System.nanoTime() - start))
+					.doOnError(stats::recordError);
+		});
+	}
+	// --------
+
+	// ---- Reporting ----
+	private synchronized void startMeasurement() {
+		// everything recorded so far belongs to the warmup
+		for (var stats : allStats.values()) {
+			stats.recorder.reset();
+			stats.errors.reset();
+		}
+		measuring = true;
+		measurementStart = System.nanoTime();
+	}
+
+	private synchronized void collect() {
+		for (var stats : allStats.values()) {
+			stats.interval = stats.recorder.getIntervalHistogram(stats.interval);
+			long errors = stats.errors.sumThenReset();
+			if (measuring) {
+				stats.total.add(stats.interval);
+				stats.totalErrors += errors;
+			}
+		}
+	}
+
+	private synchronized void printProgress() {
+		var line = new StringBuilder(format("[{0}s]", (System.nanoTime() - start) / 1_000_000_000L));
+		if (!measuring)
+			line.append(" (warmup)");
+		for (var stats : flows.values()) {
+			if (stats.interval.getTotalCount() == 0)
+				continue;
+			line.append(format(" {0}: {1}/s, p99 {2} ms;",
+					stats.name,
+					stats.interval.getTotalCount() / REPORT_INTERVAL.toSeconds(),
+					toMillis(stats.interval.getValueAtPercentile(99))));
+		}
+		System.err.println(line);
+	}
+
+	private void printReport(PrintStream out) {
+		double seconds = (System.nanoTime() - measurementStart) / 1e9;
+		out.println(String.format("%-14s %9s %8s %10s %9s %9s %9s %9s %9s",
+				"", "count", "errors", "rate/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+		for (var stats : allStats.values()) {
+			var h = stats.total;
+			if (h.getTotalCount() == 0 && stats.totalErrors == 0)
+				continue;
+			out.println(String.format("%-14s %9d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f",
+					stats.name, h.getTotalCount(), stats.totalErrors, h.getTotalCount() / seconds,
+					toMillis(h.getValueAtPercentile(50)), toMillis(h.getValueAtPercentile(90)),
+					toMillis(h.getValueAtPercentile(99)), toMillis(h.getValueAtPercentile(99.9)),
+					toMillis(h.getMaxValue())));
+			if (stats.lastError != null)
+				out.println("  last error: " + stats.lastError);
+		}
+	}
+
+	private void writeHistograms(Path dir) throws IOException {
+		Files.createDirectories(dir);
+		for (var stats : allStats.values()) {
+			if (stats.total.getTotalCount() == 0)
+				continue;
+			try (var out = new PrintStream(Files.newOutputStream(dir.resolve(stats.name + ".hgrm")), false, UTF_8)) {
+				stats.total.outputPercentileDistribution(out, 1e6);
+			}
+		}
+	}
+
+	private boolean checkObjectives() {
+		boolean met = true;
+		long count = 0;
+		long errors = 0;
+		for (var stats : flows.values()) {
+			count += stats.total.getTotalCount();
+			errors += stats.totalErrors;
+		}
+		if (notStarted.sum() > 0) {
+			System.err.println(format("{0} flows could not be started in time", notStarted.sum()));
+			errors += notStarted.sum();
+		}
+		double errorRate = count + errors == 0 ? 1 : (double) errors / (count + errors);
+		if (errorRate > options.maxErrorRate) {
+			System.err.println(format("Objective missed: error rate {0,number,#.####} > {1}", errorRate, options.maxErrorRate));
+			met = false;
+		}
+		for (var objective : options.objectives) {
+			var stats = allStats.get(objective.name);
+			if (stats == null || stats.total.getTotalCount() == 0) {
+				System.err.println(format("Objective missed: no samples for {0}", objective.name));
+				met = false;
+				continue;
+			}
+			long value = stats.total.getValueAtPercentile(objective.percentile);
+			if (value > objective.threshold.toNanos()) {
+				System.err.println(format("Objective missed: {0} p{1} = {2} ms > {3} ms",
+						objective.name, objective.percentile, toMillis(value), objective.threshold.toMillis()));
+				met = false;
+			}
+		}
+		return met;
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / 1e6;
+	}
+	// --------
+}
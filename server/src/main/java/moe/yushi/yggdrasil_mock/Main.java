@@ -1,10 +1,14 @@
 package moe.yushi.yggdrasil_mock;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.text.MessageFormat.format;
+import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Properties;
 import org.springframework.boot.SpringApplication;
 
@@ -15,6 +19,19 @@ public final class Main {
 	private static final String DEFAULT_CONFIG_PATH = "/default-application.yaml";
 
 	public static void main(String[] args) {
+		if (args.length > 0 && "compile-database".equals(args[0])) {
+			System.exit(DatabaseImageCompiler.run(Arrays.copyOfRange(args, 1, args.length)));
+		}
+		if (args.length > 0 && "load-test".equals(args[0])) {
+			System.exit(LoadGenerator.run(Arrays.copyOfRange(args, 1, args.length)));
+		}
+		if (args.length > 0 && "replay".equals(args[0])) {
+			System.exit(TrafficReplay.run(Arrays.copyOfRange(args, 1, args.length)));
+		}
+		if (args.length > 0 && "hash-password".equals(args[0])) {
+			System.exit(hashPassword(Arrays.copyOfRange(args, 1, args.length)));
+		}
+
 		if (!Files.exists(Paths.get(CONFIG_PATH))) {
 			try (var in = YggdrasilMockServer.class.getResourceAsStream(DEFAULT_CONFIG_PATH)) {
 				if (in == null)
@@ -34,6 +51,41 @@ public final class Main {
 		app.run(args);
 	}
 
+	/**
+	 * Reads the password from the console, or from the standard input if there is none,
+	 * rather than from the arguments, which would be visible in the process list and the shell history.
+	 */
+	private static int hashPassword(String[] args) {
+		if (args.length != 0) {
+			System.err.println("Usage: hash-password (the password is read from the console, or from the standard input)");
+			return 1;
+		}
+		String password;
+		var console = System.console();
+		if (console != null) {
+			var typed = console.readPassword("Password: ");
+			var repeated = typed == null ? null : console.readPassword("Repeat password: ");
+			if (repeated != null && !Arrays.equals(typed, repeated)) {
+				System.err.println("The passwords don't match");
+				return 1;
+			}
+			password = repeated == null ? null : new String(typed);
+		} else {
+			try {
+				password = new BufferedReader(new InputStreamReader(System.in, UTF_8)).readLine();
+			} catch (IOException e) {
+				System.err.println(format("Unable to read the password: {0}", e));
+				return 1;
+			}
+		}
+		if (password == null || password.isEmpty()) {
+			System.err.println("No password given");
+			return 1;
+		}
+		System.out.println(PasswordVerifier.hash(password));
+		return 0;
+	}
+
 	private static Properties getDefaultProperties() {
 		var properties = new Properties();
 		tryLoadProperties("/git.properties", properties);
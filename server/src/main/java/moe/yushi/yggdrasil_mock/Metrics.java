@@ -0,0 +1,301 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_access_denied;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_invalid_credentials;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_invalid_profile;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_invalid_token;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_profile_not_found;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_token_already_assigned;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpMethod;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import moe.yushi.yggdrasil_mock.AdmissionController.RequestClass;
+import moe.yushi.yggdrasil_mock.exception.YggdrasilException;
+import reactor.core.publisher.Mono;
+
+/**
+ * Collects metrics, and renders them in the Prometheus text format.
+ * <p>
+ * Recording never allocates: latencies go to HdrHistogram {@link Recorder}s, counters are {@link LongAdder}s,
+ * and everything else is read from the components when scraped.
+ */
+@Component
+public class Metrics {
+
+	private static final long MAX_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+	// upper bounds of the histogram buckets, in seconds
+	private static final double[] BUCKETS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+	private static final String REASON_OTHER = "other";
+	private static final Map<String, String> ERROR_REASONS = Map.of(
+			m_invalid_token, "invalid_token",
+			m_invalid_credentials, "invalid_credentials",
+			m_access_denied, "access_denied",
+			m_token_already_assigned, "token_already_assigned",
+			m_profile_not_found, "profile_not_found",
+			m_invalid_profile, "invalid_profile");
+
+	/**
+	 * A latency histogram.
+	 */
+	public static class Latency {
+		private final Recorder recorder = new Recorder(1_000, MAX_LATENCY, 2);
+		private final LongAdder sum = new LongAdder();
+
+		// only accessed while scraping
+		private final Histogram total = new Histogram(1_000, MAX_LATENCY, 2);
+		private Histogram interval;
+
+		public void record(long nanos) {
+			nanos = min(max(nanos, 0), MAX_LATENCY);
+			recorder.recordValue(nanos);
+			sum.add(nanos);
+		}
+
+		private void collect() {
+			interval = recorder.getIntervalHistogram(interval);
+			total.add(interval);
+		}
+	}
+
+	private static class ErrorCounter {
+		final String error;
+		final String reason;
+		final LongAdder count = new LongAdder();
+
+		ErrorCounter(String error, String reason) {
+			this.error = error;
+			this.reason = reason;
+		}
+	}
+
+	/**
+	 * Records the latency of every request, and the errors raised by the handlers.
+	 */
+	@Component
+	public static class RecordingFilter implements WebFilter {
+
+		private @Autowired Metrics metrics;
+
+		@Override
+		public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+			long start = System.nanoTime();
+			return chain.filter(exchange)
+					.doOnError(metrics::recordError)
+					.doFinally(signal -> metrics.recordRequest(exchange, System.nanoTime() - start));
+		}
+	}
+
+	private @Autowired Realms realms;
+	private @Autowired Texture.Storage texturesStorage;
+	private @Autowired RateLimiter rateLimiter;
+	// only present when enabled
+	private @Autowired(required = false) @Nullable AdmissionController admissionController;
+	private @Autowired(required = false) @Nullable AccessLog accessLog;
+	private @Autowired(required = false) @Nullable TrafficCapture trafficCapture;
+	private @Autowired FaultInjector faultInjector;
+
+	// indexed by HttpMethod.ordinal()
+	private final Map<PathPattern, AtomicReferenceArray<Latency>> endpoints = new ConcurrentHashMap<>();
+	// keyed by the message for the known errors, and by the error type for the rest
+	private final Map<String, ErrorCounter> errors = new ConcurrentHashMap<>();
+	private final LongAdder rateLimited = new LongAdder();
+	private final Latency signatureLatency = new Latency();
+
+	public void recordRequest(ServerWebExchange exchange, long nanos) {
+		var pattern = exchange.<PathPattern> getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		var method = exchange.getRequest().getMethod();
+		if (pattern == null || method == null)
+			// not handled by any endpoint
+			return;
+
+		var latencies = endpoints.get(pattern);
+		if (latencies == null)
+			latencies = endpoints.computeIfAbsent(pattern, k -> new AtomicReferenceArray<>(HttpMethod.values().length));
+		var latency = latencies.get(method.ordinal());
+		if (latency == null) {
+			latencies.compareAndSet(method.ordinal(), null, new Latency());
+			latency = latencies.get(method.ordinal());
+		}
+		latency.record(nanos);
+	}
+
+	public void recordError(Throwable e) {
+		if (!(e instanceof YggdrasilException))
+			return;
+		var ex = (YggdrasilException) e;
+		var reason = ERROR_REASONS.get(ex.getYggdrasilMessage());
+		var key = reason == null ? ex.getYggdrasilError() : ex.getYggdrasilMessage();
+
+		var counter = errors.get(key);
+		if (counter == null)
+			counter = errors.computeIfAbsent(key, k -> new ErrorCounter(ex.getYggdrasilError(), reason == null ? REASON_OTHER : reason));
+		counter.count.increment();
+	}
+
+	public void recordRateLimited() {
+		rateLimited.increment();
+	}
+
+	/**
+	 * @return where to record the signatures made for a request to the realm,
+	 *         or null for a realm which isn't served, such as the one of {@link Warmup}
+	 */
+	@Nullable
+	public Latency signatureLatency(Realm realm) {
+		return realms.getRealm(realm.getName()).orElse(null) == realm ? signatureLatency : null;
+	}
+
+	public synchronized String scrape() {
+		var out = new StringBuilder();
+
+		header(out, "yggdrasil_http_request_duration_seconds", "histogram", "Latency of the requests, by endpoint.");
+		endpoints.forEach((pattern, latencies) -> {
+			for (var method : HttpMethod.values()) {
+				var latency = latencies.get(method.ordinal());
+				if (latency != null)
+					histogram(out, "yggdrasil_http_request_duration_seconds",
+							"method=\"" + method + "\",endpoint=\"" + pattern.getPatternString() + "\"", latency);
+			}
+		});
+
+		header(out, "yggdrasil_errors_total", "counter", "Yggdrasil errors returned to the clients.");
+		errors.values().forEach(counter -> sample(out, "yggdrasil_errors_total",
+				"error=\"" + counter.error + "\",reason=\"" + counter.reason + "\"", counter.count.sum()));
+
+		header(out, "yggdrasil_rate_limited_total", "counter", "Password authentications rejected by the rate limiter.");
+		sample(out, "yggdrasil_rate_limited_total", null, rateLimited.sum());
+
+		header(out, "yggdrasil_rate_limit_buckets", "gauge", "Number of rate limiter buckets in memory.");
+		sample(out, "yggdrasil_rate_limit_buckets", null, rateLimiter.bucketsCount());
+
+		if (admissionController != null) {
+			header(out, "yggdrasil_admission_limit", "gauge", "Current concurrency limit, by request class.");
+			for (var requestClass : RequestClass.values()) {
+				sample(out, "yggdrasil_admission_limit", classLabel(requestClass), admissionController.getCurrentLimit(requestClass));
+			}
+
+			header(out, "yggdrasil_admission_inflight", "gauge", "Requests being processed, by request class.");
+			for (var requestClass : RequestClass.values()) {
+				sample(out, "yggdrasil_admission_inflight", classLabel(requestClass), admissionController.getInflight(requestClass));
+			}
+
+			header(out, "yggdrasil_admission_rejected_total", "counter", "Requests rejected by the admission controller, by request class.");
+			for (var requestClass : RequestClass.values()) {
+				sample(out, "yggdrasil_admission_rejected_total", classLabel(requestClass), admissionController.getRejectedCount(requestClass));
+			}
+		}
+
+		if (accessLog != null) {
+			header(out, "yggdrasil_access_log_records_total", "counter", "Access log records, by outcome.");
+			sample(out, "yggdrasil_access_log_records_total", "outcome=\"written\"", accessLog.getWrittenCount());
+			sample(out, "yggdrasil_access_log_records_total", "outcome=\"dropped\"", accessLog.getDroppedCount());
+		}
+
+		if (trafficCapture != null) {
+			header(out, "yggdrasil_capture_requests_total", "counter", "Captured requests, by outcome.");
+			sample(out, "yggdrasil_capture_requests_total", "outcome=\"written\"", trafficCapture.getWrittenCount());
+			sample(out, "yggdrasil_capture_requests_total", "outcome=\"dropped\"", trafficCapture.getDroppedCount());
+		}
+
+		header(out, "yggdrasil_faults_injected_total", "counter", "Requests affected by the fault injector, by fault.");
+		sample(out, "yggdrasil_faults_injected_total", "fault=\"delay\"", faultInjector.getDelayedCount());
+		sample(out, "yggdrasil_faults_injected_total", "fault=\"error\"", faultInjector.getFailedCount());
+		sample(out, "yggdrasil_faults_injected_total", "fault=\"throttle\"", faultInjector.getThrottledCount());
+
+		header(out, "yggdrasil_signature_duration_seconds", "histogram", "Time spent on signing properties.");
+		histogram(out, "yggdrasil_signature_duration_seconds", null, signatureLatency);
+
+		var allRealms = realms.getRealms();
+
+		header(out, "yggdrasil_users", "gauge", "Number of users, by realm.");
+		for (var realm : allRealms) {
+			sample(out, "yggdrasil_users", realmLabel(realm), realm.getDatabase().getUsersCount());
+		}
+
+		header(out, "yggdrasil_tokens", "gauge", "Number of stored tokens, by realm.");
+		for (var realm : allRealms) {
+			sample(out, "yggdrasil_tokens", realmLabel(realm), realm.getTokenStore().tokensCount());
+		}
+
+		header(out, "yggdrasil_token_evictions_total", "counter", "Tokens evicted because the store is full, by realm.");
+		for (var realm : allRealms) {
+			sample(out, "yggdrasil_token_evictions_total", realmLabel(realm), realm.getTokenStore().evictionsCount());
+		}
+
+		header(out, "yggdrasil_pending_authentications", "gauge", "Number of pending server joins, by realm.");
+		for (var realm : allRealms) {
+			sample(out, "yggdrasil_pending_authentications", realmLabel(realm), realm.getSessionAuthenticator().pendingAuthenticationsCount());
+		}
+
+		header(out, "yggdrasil_textures", "gauge", "Number of textures in memory.");
+		sample(out, "yggdrasil_textures", null, texturesStorage.texturesCount());
+
+		header(out, "yggdrasil_textures_bytes", "gauge", "Size of the textures in memory.");
+		sample(out, "yggdrasil_textures_bytes", null, texturesStorage.texturesBytes());
+
+		return out.toString();
+	}
+
+	// ---- Exposition format ----
+	private static String classLabel(RequestClass requestClass) {
+		return "class=\"" + requestClass.name().toLowerCase() + "\"";
+	}
+
+	private static String realmLabel(Realm realm) {
+		return "realm=\"" + escape(realm.getName()) + "\"";
+	}
+
+	private static String escape(String labelValue) {
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static void header(StringBuilder out, String name, String type, String help) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder out, String name, String labels, long value) {
+		sampleName(out, name, labels).append(value).append('\n');
+	}
+
+	private static void sample(StringBuilder out, String name, String labels, double value) {
+		sampleName(out, name, labels).append(value).append('\n');
+	}
+
+	private static StringBuilder sampleName(StringBuilder out, String name, String labels) {
+		out.append(name);
+		if (labels != null)
+			out.append('{').append(labels).append('}');
+		return out.append(' ');
+	}
+
+	private static void histogram(StringBuilder out, String name, String labels, Latency latency) {
+		latency.collect();
+		var prefix = labels == null ? "" : labels + ",";
+		for (var bucket : BUCKETS) {
+			sample(out, name + "_bucket", prefix + "le=\"" + bucket + "\"",
+					latency.total.getCountBetweenValues(0, (long) (bucket * 1e9)));
+		}
+		sample(out, name + "_bucket", prefix + "le=\"+Inf\"", latency.total.getTotalCount());
+		sample(out, name + "_sum", labels, latency.sum.sum() / 1e9);
+		sample(out, name + "_count", labels, latency.total.getTotalCount());
+	}
+	// --------
+}
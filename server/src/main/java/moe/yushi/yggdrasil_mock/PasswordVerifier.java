@@ -0,0 +1,149 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilUser;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Verifies passwords against the stored ones.
+ * <p>
+ * A stored password is either plaintext, or a hash prefixed by its algorithm,
+ * such as <code>{bcrypt}$2a$10$...</code> or <code>{pbkdf2}...</code>.
+ * Hashes are verified on a dedicated bounded pool, so that the KDF never runs on the event loop.
+ */
+@Component
+@ConfigurationProperties(prefix = "yggdrasil.password")
+public class PasswordVerifier {
+
+	private static final DelegatingPasswordEncoder encoder = (DelegatingPasswordEncoder) PasswordEncoderFactories.createDelegatingPasswordEncoder();
+
+	static {
+		// passwords without an {id} prefix are stored in plaintext
+		encoder.setDefaultPasswordEncoderForMatches(new PasswordEncoder() {
+			@Override
+			public String encode(CharSequence rawPassword) {
+				return rawPassword.toString();
+			}
+
+			@Override
+			public boolean matches(CharSequence rawPassword, String encodedPassword) {
+				return MessageDigest.isEqual(rawPassword.toString().getBytes(UTF_8), encodedPassword.getBytes(UTF_8));
+			}
+		});
+	}
+
+	private static class VerifiedPassword {
+		String storedPassword;
+		byte[] digest;
+	}
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int queueSize = 1024;
+	private Duration cacheDuration = Duration.ofSeconds(30);
+
+	private final byte[] cacheSalt = new byte[32];
+	private Scheduler scheduler;
+	private Cache<YggdrasilUser, VerifiedPassword> verified;
+
+	public PasswordVerifier() {
+		new SecureRandom().nextBytes(cacheSalt);
+	}
+
+	@PostConstruct
+	private void init() {
+		scheduler = Schedulers.newBoundedElastic(threads, queueSize, "password-verifier");
+		verified = CacheBuilder.newBuilder()
+				.weakKeys()
+				.expireAfterWrite(cacheDuration)
+				.build();
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		scheduler.dispose();
+	}
+
+	public static boolean isHashed(String storedPassword) {
+		return storedPassword.startsWith("{");
+	}
+
+	public Mono<Boolean> verify(YggdrasilUser user, String password) {
+		var storedPassword = user.getPassword();
+		if (!isHashed(storedPassword))
+			return Mono.just(encoder.matches(password, storedPassword));
+
+		var digest = digest(password);
+		var cached = verified.getIfPresent(user);
+		if (cached != null && cached.storedPassword == storedPassword && MessageDigest.isEqual(cached.digest, digest))
+			// launchers tend to retry a lot, don't run the KDF again
+			return Mono.just(true);
+
+		return Mono.fromCallable(() -> encoder.matches(password, storedPassword))
+				.subscribeOn(scheduler)
+				.onErrorMap(RejectedExecutionException.class, e -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, null, e))
+				.doOnNext(matches -> {
+					if (matches) {
+						var entry = new VerifiedPassword();
+						entry.storedPassword = storedPassword;
+						entry.digest = digest;
+						verified.put(user, entry);
+					}
+				});
+	}
+
+	public static String hash(String password) {
+		return encoder.encode(password);
+	}
+
+	private byte[] digest(String password) {
+		try {
+			var digest = MessageDigest.getInstance("SHA-256");
+			digest.update(cacheSalt);
+			return digest.digest(password.getBytes(UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	public Duration getCacheDuration() {
+		return cacheDuration;
+	}
+
+	public void setCacheDuration(Duration cacheDuration) {
+		this.cacheDuration = cacheDuration;
+	}
+}
@@ -0,0 +1,324 @@
+package moe.yushi.yggdrasil_mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import org.springframework.lang.Nullable;
+
+/**
+ * An immutable hash map (hash array mapped trie), whose versions share their structure:
+ * changing an entry copies only the nodes on its path, O(log32 n).
+ * <p>
+ * Changes are made through a {@link Transient}, which modifies in place the nodes it has already copied,
+ * so that a batch of changes costs about the same as with a {@link java.util.HashMap}.
+ * Keys and values must not be null.
+ */
+final class PersistentMap<K, V> {
+
+	private static final int BITS = 5;
+	private static final Object[] NO_ENTRIES = {};
+
+	private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(new Node(null, 0, NO_ENTRIES, false), 0);
+
+	/**
+	 * A node of the trie. {@code entries} holds key-value pairs, a null key meaning that the value is a child node.
+	 * <p>
+	 * Below the last level, keys sharing the same hash are stored in a collision node, whose pairs are in no particular order.
+	 */
+	private static final class Node {
+		// the transient which may modify this node in place, if it's still editing
+		@Nullable
+		final Object owner;
+		int bitmap;
+		Object[] entries;
+		final boolean collision;
+
+		Node(@Nullable Object owner, int bitmap, Object[] entries, boolean collision) {
+			this.owner = owner;
+			this.bitmap = bitmap;
+			this.entries = entries;
+			this.collision = collision;
+		}
+
+		boolean isEmpty() {
+			return entries.length == 0;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K, V> PersistentMap<K, V> empty() {
+		return (PersistentMap<K, V>) EMPTY;
+	}
+
+	private final Node root;
+	private final int size;
+
+	private PersistentMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	@Nullable
+	public V get(Object key) {
+		return find(root, key);
+	}
+
+	public void forEach(BiConsumer<? super K, ? super V> action) {
+		forEach(root, action);
+	}
+
+	/**
+	 * @return a copy of the values, in no particular order
+	 */
+	public List<V> values() {
+		var values = new ArrayList<V>(size);
+		forEach((key, value) -> values.add(value));
+		return Collections.unmodifiableList(values);
+	}
+
+	/**
+	 * @return a transient starting from this version, which is left unchanged
+	 */
+	public Transient<K, V> edit() {
+		return new Transient<>(root, size);
+	}
+
+	/**
+	 * A mutable version of the map, to be used by a single thread. Once {@link #build()} has been called,
+	 * the nodes it has created become immutable, and it can no longer be used.
+	 */
+	public static final class Transient<K, V> {
+		@Nullable
+		private Object owner = new Object();
+		private Node root;
+		private int size;
+
+		// results of the last change
+		@Nullable
+		private Object previous;
+		private boolean sizeChanged;
+
+		private Transient(Node root, int size) {
+			this.root = root;
+			this.size = size;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		@Nullable
+		public V get(Object key) {
+			return find(root, key);
+		}
+
+		/**
+		 * @return the previous value, or null if there was none
+		 */
+		@Nullable
+		@SuppressWarnings("unchecked")
+		public V put(K key, V value) {
+			ensureEditable();
+			previous = null;
+			sizeChanged = false;
+			root = put(root, 0, key.hashCode(), key, value);
+			if (sizeChanged)
+				size++;
+			return (V) previous;
+		}
+
+		/**
+		 * @return the removed value, or null if there was none
+		 */
+		@Nullable
+		@SuppressWarnings("unchecked")
+		public V remove(Object key) {
+			ensureEditable();
+			previous = null;
+			sizeChanged = false;
+			root = remove(root, 0, key.hashCode(), key);
+			if (sizeChanged)
+				size--;
+			return (V) previous;
+		}
+
+		public PersistentMap<K, V> build() {
+			ensureEditable();
+			owner = null;
+			return new PersistentMap<>(root, size);
+		}
+
+		private void ensureEditable() {
+			if (owner == null)
+				throw new IllegalStateException("Already built");
+		}
+
+		// ---- Trie operations ----
+		private Node put(Node node, int shift, int hash, Object key, Object value) {
+			if (node.collision) {
+				for (int i = 0; i < node.entries.length; i += 2) {
+					if (key.equals(node.entries[i])) {
+						previous = node.entries[i + 1];
+						return previous == value ? node : set(node, i + 1, value);
+					}
+				}
+				sizeChanged = true;
+				return insert(node, 0, node.entries.length, key, value);
+			}
+
+			int bit = bit(hash, shift);
+			int i = index(node.bitmap, bit);
+			if ((node.bitmap & bit) == 0) {
+				sizeChanged = true;
+				return insert(node, bit, i, key, value);
+			}
+			var existingKey = node.entries[i];
+			var existingValue = node.entries[i + 1];
+			if (existingKey == null) {
+				var child = (Node) existingValue;
+				var newChild = put(child, shift + BITS, hash, key, value);
+				return newChild == child ? node : set(node, i + 1, newChild);
+			}
+			if (key.equals(existingKey)) {
+				previous = existingValue;
+				return previous == value ? node : set(node, i + 1, value);
+			}
+			sizeChanged = true;
+			var child = pair(shift + BITS, existingKey.hashCode(), existingKey, existingValue, hash, key, value);
+			var result = editable(node);
+			result.entries[i] = null;
+			result.entries[i + 1] = child;
+			return result;
+		}
+
+		private Node remove(Node node, int shift, int hash, Object key) {
+			if (node.collision) {
+				for (int i = 0; i < node.entries.length; i += 2) {
+					if (key.equals(node.entries[i])) {
+						previous = node.entries[i + 1];
+						sizeChanged = true;
+						return delete(node, 0, i);
+					}
+				}
+				return node;
+			}
+
+			int bit = bit(hash, shift);
+			if ((node.bitmap & bit) == 0)
+				return node;
+			int i = index(node.bitmap, bit);
+			var existingKey = node.entries[i];
+			if (existingKey == null) {
+				var child = (Node) node.entries[i + 1];
+				var newChild = remove(child, shift + BITS, hash, key);
+				if (newChild.isEmpty())
+					return delete(node, bit, i);
+				return newChild == child ? node : set(node, i + 1, newChild);
+			}
+			if (!key.equals(existingKey))
+				return node;
+			previous = node.entries[i + 1];
+			sizeChanged = true;
+			return delete(node, bit, i);
+		}
+
+		private Node pair(int shift, int hash1, Object key1, Object value1, int hash2, Object key2, Object value2) {
+			if (shift >= Integer.SIZE)
+				return new Node(owner, 0, new Object[] { key1, value1, key2, value2 }, true);
+			int bit1 = bit(hash1, shift);
+			int bit2 = bit(hash2, shift);
+			if (bit1 == bit2)
+				return new Node(owner, bit1, new Object[] { null, pair(shift + BITS, hash1, key1, value1, hash2, key2, value2) }, false);
+			return Integer.compareUnsigned(bit1, bit2) < 0
+					? new Node(owner, bit1 | bit2, new Object[] { key1, value1, key2, value2 }, false)
+					: new Node(owner, bit1 | bit2, new Object[] { key2, value2, key1, value1 }, false);
+		}
+
+		private Node editable(Node node) {
+			if (node.owner == owner)
+				return node;
+			return new Node(owner, node.bitmap, node.entries.clone(), node.collision);
+		}
+
+		private Node set(Node node, int i, Object value) {
+			var result = editable(node);
+			result.entries[i] = value;
+			return result;
+		}
+
+		private Node insert(Node node, int bit, int i, Object key, Object value) {
+			var entries = new Object[node.entries.length + 2];
+			System.arraycopy(node.entries, 0, entries, 0, i);
+			entries[i] = key;
+			entries[i + 1] = value;
+			System.arraycopy(node.entries, i, entries, i + 2, node.entries.length - i);
+			var result = editable(node);
+			result.bitmap |= bit;
+			result.entries = entries;
+			return result;
+		}
+
+		private Node delete(Node node, int bit, int i) {
+			var entries = node.entries.length == 2 ? NO_ENTRIES : new Object[node.entries.length - 2];
+			System.arraycopy(node.entries, 0, entries, 0, i);
+			System.arraycopy(node.entries, i + 2, entries, i, node.entries.length - i - 2);
+			var result = editable(node);
+			result.bitmap &= ~bit;
+			result.entries = entries;
+			return result;
+		}
+		// --------
+	}
+
+	// ---- Helper methods ----
+	private static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & 0x1f);
+	}
+
+	private static int index(int bitmap, int bit) {
+		return 2 * Integer.bitCount(bitmap & (bit - 1));
+	}
+
+	@Nullable
+	@SuppressWarnings("unchecked")
+	private static <V> V find(Node node, Object key) {
+		int hash = key.hashCode();
+		for (int shift = 0;; shift += BITS) {
+			if (node.collision) {
+				for (int i = 0; i < node.entries.length; i += 2) {
+					if (key.equals(node.entries[i]))
+						return (V) node.entries[i + 1];
+				}
+				return null;
+			}
+			int bit = bit(hash, shift);
+			if ((node.bitmap & bit) == 0)
+				return null;
+			int i = index(node.bitmap, bit);
+			var existingKey = node.entries[i];
+			if (existingKey == null) {
+				node = (Node) node.entries[i + 1];
+			} else {
+				return key.equals(existingKey) ? (V) node.entries[i + 1] : null;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K, V> void forEach(Node node, BiConsumer<? super K, ? super V> action) {
+		for (int i = 0; i < node.entries.length; i += 2) {
+			var key = node.entries[i];
+			if (key == null) {
+				forEach((Node) node.entries[i + 1], action);
+			} else {
+				action.accept((K) key, (V) node.entries[i + 1]);
+			}
+		}
+	}
+	// --------
+}
@@ -4,8 +4,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Map.ofEntries;
 import static java.util.stream.Collectors.toList;
 import java.security.GeneralSecurityException;
-import java.security.KeyPair;
-import java.security.PublicKey;
+import java.security.PrivateKey;
 import java.security.SecureRandom;
 import java.security.Signature;
 import java.util.Base64;
@@ -13,19 +12,15 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.stream.Stream;
+import org.springframework.lang.Nullable;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import moe.yushi.yggdrasil_mock.Metrics.Latency;
 
 public final class PropertiesUtils {
 	private PropertiesUtils() {}
 
-	private static KeyPair keyPair;
-	private static ObjectMapper objectMapper;
-
-	static {
-		keyPair = KeyUtils.generateKey();
-		objectMapper = new ObjectMapper();
-	}
+	private static ObjectMapper objectMapper = new ObjectMapper();
 
 	@SafeVarargs
 	public static String base64Encoded(Entry<String, Object>... entries) {
@@ -41,36 +36,49 @@ public final class PropertiesUtils {
 
 	@SafeVarargs
 	public static List<?> properties(Entry<String, String>... entries) {
-		return properties(false, entries);
+		return properties(null, null, entries);
 	}
 
+	/**
+	 * @param signingKey
+	 *            the values are signed if it's not null
+	 * @param signatureLatency
+	 *            where the time spent on signing is recorded, if it's not null
+	 */
 	@SafeVarargs
-	public static List<?> properties(boolean sign, Entry<String, String>... entries) {
+	public static List<?> properties(@Nullable PrivateKey signingKey, @Nullable Latency signatureLatency, Entry<String, String>... entries) {
 		return Stream.of(entries)
 				.map(entry -> {
 					var property = new LinkedHashMap<>();
 					property.put("name", entry.getKey());
 					property.put("value", entry.getValue());
-					if (sign) {
-						property.put("signature", sign(entry.getValue()));
+					if (signingKey != null) {
+						property.put("signature", sign(signingKey, signatureLatency, entry.getValue()));
 					}
 					return property;
 				})
 				.collect(toList());
 	}
 
-	public static PublicKey getSignaturePublicKey() {
-		return keyPair.getPublic();
-	}
-
-	private static String sign(String data) {
+	private static String sign(PrivateKey key, @Nullable Latency latency, String data) {
+		long start = System.nanoTime();
+		var event = new JfrEvents.Signature();
+		event.begin();
 		try {
 			var signature = Signature.getInstance("SHA1withRSA");
-			signature.initSign(keyPair.getPrivate(), new SecureRandom());
-			signature.update(data.getBytes(UTF_8));
-			return Base64.getEncoder().encodeToString(signature.sign());
+			signature.initSign(key, new SecureRandom());
+			var bytes = data.getBytes(UTF_8);
+			signature.update(bytes);
+			var signed = signature.sign();
+			event.dataSize = bytes.length;
+			event.signatureSize = signed.length;
+			event.commit();
+			return Base64.getEncoder().encodeToString(signed);
 		} catch (GeneralSecurityException e) {
 			throw new RuntimeException(e);
+		} finally {
+			if (latency != null)
+				latency.record(System.nanoTime() - start);
 		}
 	}
 }
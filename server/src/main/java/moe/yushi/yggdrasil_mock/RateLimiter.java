@@ -1,44 +1,126 @@
 package moe.yushi.yggdrasil_mock;
 
+import static java.lang.Math.max;
+import java.net.InetAddress;
 import java.time.Duration;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilUser;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
 
+/**
+ * Token bucket rate limiter, keyed by user and by client IP.
+ * <p>
+ * A bucket holds up to {@code burst} attempts, and gets one back every {@code limitDuration}.
+ * Each bucket is a single {@link AtomicLong} (the time at which it will be full again, as in GCRA),
+ * updated with CAS, so that attempts for different keys never contend.
+ * Full buckets carry no information and are evicted periodically. The number of buckets is bounded as well,
+ * the least recently used ones are evicted first.
+ * <p>
+ * Limiting by IP is off by default: behind a reverse proxy, every client has the address of the proxy,
+ * and would therefore share a single bucket.
+ */
 @Component
 @ConfigurationProperties(prefix = "yggdrasil.rate-limit")
 public class RateLimiter {
 
-	private Map<YggdrasilUser, AtomicLong> timings = new ConcurrentHashMap<>();
+	private static final Duration EVICTION_INTERVAL = Duration.ofSeconds(30);
 
-	private Duration limitDuration;
+	private static class Buckets<K> {
+		final ConcurrentLinkedHashMap<K, AtomicLong> fullAt;
+		final long interval;
+		final long tolerance;
 
-	public boolean tryAccess(YggdrasilUser key) {
-		AtomicLong lastAccess = timings.get(key);
-		long now = System.currentTimeMillis();
-
-		if (lastAccess == null) {
-			// if putIfAbsent() returns a non-null value,
-			// which means another thread who is also trying to access this key
-			// has put an AtomicLong into the map between our last get() call and this putIfAbsent() call,
-			// this access must be rate-limited, as the duration between two calls is really a short time
-			// (and the value of the AtomicLong is within the duration).
-			return timings.putIfAbsent(key, new AtomicLong(now)) == null;
+		Buckets(int maxEntries, Duration limitDuration, int burst) {
+			fullAt = new ConcurrentLinkedHashMap.Builder<K, AtomicLong>()
+					.maximumWeightedCapacity(maxEntries)
+					.build();
+			interval = limitDuration.toNanos();
+			tolerance = interval * max(burst, 1);
+		}
+
+		boolean tryAccess(K key) {
+			if (interval <= 0)
+				return true;
+
+			long now = System.nanoTime();
+			var state = fullAt.get(key);
+			if (state == null) {
+				state = new AtomicLong(now);
+				var existent = fullAt.putIfAbsent(key, state);
+				if (existent != null)
+					state = existent;
+			}
+
+			for (;;) {
+				long current = state.get();
+				long next = max(current, now) + interval;
+				if (next - now > tolerance)
+					return false;
+				if (state.compareAndSet(current, next))
+					return true;
+			}
 		}
 
-		long lastAccessTime = lastAccess.get();
-		if (now - lastAccessTime > limitDuration.toMillis()) {
-			// same as above
-			// if the CAS operation fails, this access must be rate-limited.
-			return lastAccess.compareAndSet(lastAccessTime, now);
-		} else {
-			return false;
+		void evictIdle() {
+			long now = System.nanoTime();
+			fullAt.forEach((key, state) -> {
+				if (state.get() - now <= 0)
+					fullAt.remove(key, state);
+			});
 		}
 	}
 
+	private Duration limitDuration;
+	private int burst = 1;
+	private Duration ipLimitDuration = Duration.ZERO;
+	private int ipBurst = 20;
+	private int maxEntries = 100_000;
+
+	private Buckets<YggdrasilUser> users;
+	private Buckets<InetAddress> ips;
+	private Disposable evictionTask;
+
+	@PostConstruct
+	private void init() {
+		users = new Buckets<>(maxEntries, limitDuration, burst);
+		ips = new Buckets<>(maxEntries, ipLimitDuration, ipBurst);
+		evictionTask = Schedulers.parallel().schedulePeriodically(() -> {
+			users.evictIdle();
+			ips.evictIdle();
+		}, EVICTION_INTERVAL.toMillis(), EVICTION_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		evictionTask.dispose();
+	}
+
+	public boolean tryAccess(YggdrasilUser key) {
+		return users.tryAccess(key);
+	}
+
+	public boolean tryAccess(InetAddress key) {
+		return ips.tryAccess(key);
+	}
+
+	/**
+	 * Drops the bucket of the given user, as if it were full.
+	 */
+	void forget(YggdrasilUser user) {
+		users.fullAt.remove(user);
+	}
+
+	public int bucketsCount() {
+		return users.fullAt.size() + ips.fullAt.size();
+	}
+
 	public Duration getLimitDuration() {
 		return limitDuration;
 	}
@@ -46,4 +128,36 @@ public class RateLimiter {
 	public void setLimitDuration(Duration limitDuration) {
 		this.limitDuration = limitDuration;
 	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	public void setBurst(int burst) {
+		this.burst = burst;
+	}
+
+	public Duration getIpLimitDuration() {
+		return ipLimitDuration;
+	}
+
+	public void setIpLimitDuration(Duration ipLimitDuration) {
+		this.ipLimitDuration = ipLimitDuration;
+	}
+
+	public int getIpBurst() {
+		return ipBurst;
+	}
+
+	public void setIpBurst(int ipBurst) {
+		this.ipBurst = ipBurst;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
 }
@@ -0,0 +1,54 @@
+package moe.yushi.yggdrasil_mock;
+
+import org.springframework.web.server.ServerWebExchange;
+
+/**
+ * An isolated set of users, tokens and pending authentications, with its own metadata.
+ *
+ * @see Realms
+ */
+public class Realm {
+
+	static final String ATTRIBUTE = Realm.class.getName();
+
+	/**
+	 * @return the realm selected for the request by {@link Realms}
+	 */
+	public static Realm of(ServerWebExchange exchange) {
+		return exchange.getRequiredAttribute(ATTRIBUTE);
+	}
+
+	private final String name;
+	private final YggdrasilDatabase database;
+	private final TokenStore tokenStore;
+	private final SessionAuthenticator sessionAuthenticator;
+	private final ServerMeta meta;
+
+	Realm(String name, YggdrasilDatabase database, TokenStore tokenStore, SessionAuthenticator sessionAuthenticator, ServerMeta meta) {
+		this.name = name;
+		this.database = database;
+		this.tokenStore = tokenStore;
+		this.sessionAuthenticator = sessionAuthenticator;
+		this.meta = meta;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public YggdrasilDatabase getDatabase() {
+		return database;
+	}
+
+	public TokenStore getTokenStore() {
+		return tokenStore;
+	}
+
+	public SessionAuthenticator getSessionAuthenticator() {
+		return sessionAuthenticator;
+	}
+
+	public ServerMeta getMeta() {
+		return meta;
+	}
+}
@@ -0,0 +1,245 @@
+package moe.yushi.yggdrasil_mock;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.bind.PropertySourcesPlaceholdersResolver;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilUser;
+import reactor.core.publisher.Mono;
+
+/**
+ * Serves several isolated {@link Realm}s from the same server.
+ * <p>
+ * Extra realms are configured under {@code yggdrasil.realms.<name>}, and selected by the {@code Host} header
+ * or by a path prefix, which then becomes the context path of the request (e.g. {@code http://localhost:8080/qa/}
+ * is the API root of the realm whose {@code path} is {@code /qa}). Other requests are served by the default realm,
+ * made of the beans of the context.
+ * <p>
+ * The {@code database}, {@code token} and {@code session} settings of a realm are the same as under {@code yggdrasil};
+ * the token and session ones default to those of the default realm. Textures, the signature key,
+ * rate limits and admission control are shared by all realms.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class Realms implements WebFilter {
+
+	public static final String DEFAULT = "default";
+
+	private static final String PROPERTY_PREFIX = "yggdrasil.realms";
+
+	public static class RealmProperties {
+		private String path;
+		private List<String> hosts = List.of();
+		private String serverName;
+
+		public String getPath() {
+			return path;
+		}
+
+		public void setPath(String path) {
+			this.path = path;
+		}
+
+		public List<String> getHosts() {
+			return hosts;
+		}
+
+		public void setHosts(List<String> hosts) {
+			this.hosts = hosts;
+		}
+
+		public String getServerName() {
+			return serverName;
+		}
+
+		public void setServerName(String serverName) {
+			this.serverName = serverName;
+		}
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(Realms.class);
+
+	private @Autowired ApplicationContext ctx;
+	private @Autowired ConfigurableEnvironment environment;
+	private @Autowired TextureURLConverter textureURLConverter;
+	private @Autowired YggdrasilDatabase database;
+	private @Autowired TokenStore tokenStore;
+	private @Autowired SessionAuthenticator sessionAuth;
+	private @Autowired ServerMeta meta;
+
+	private Realm defaultRealm;
+	private final Map<String, Realm> realms = new LinkedHashMap<>();
+	private final Map<String, Realm> path2realm = new HashMap<>();
+	private final Map<String, Realm> host2realm = new HashMap<>();
+
+	@PostConstruct
+	private void createRealms() throws IOException {
+		defaultRealm = new Realm(DEFAULT, database, tokenStore, sessionAuth, meta);
+		realms.put(DEFAULT, defaultRealm);
+
+		var binder = binder();
+		var configs = binder.bind(PROPERTY_PREFIX, Bindable.mapOf(String.class, RealmProperties.class))
+				.orElseGet(Map::of);
+		if (configs.isEmpty())
+			return;
+
+		long start = System.nanoTime();
+		for (var entry : configs.entrySet()) {
+			var name = entry.getKey();
+			var config = entry.getValue();
+			if (realms.containsKey(name))
+				throw new IllegalArgumentException("Duplicate realm: " + name);
+			if (config.path == null && config.hosts.isEmpty())
+				throw new IllegalArgumentException("Realm " + name + " has neither a path nor a host");
+
+			var realm = createRealm(name, config, binder);
+			realms.put(name, realm);
+			if (config.path != null) {
+				var path = normalizePath(name, config.path);
+				if (path2realm.putIfAbsent(path, realm) != null)
+					throw new IllegalArgumentException("Duplicate realm path: " + path);
+			}
+			for (var host : config.hosts) {
+				if (host2realm.putIfAbsent(host.toLowerCase(Locale.ROOT), realm) != null)
+					throw new IllegalArgumentException("Duplicate realm host: " + host);
+			}
+		}
+		logger.info("Created {} realms in {} ms", configs.size(), (System.nanoTime() - start) / 1_000_000);
+	}
+
+	private Realm createRealm(String name, RealmProperties config, Binder binder) throws IOException {
+		var prefix = PROPERTY_PREFIX + "." + name;
+
+		var realmDatabase = new YggdrasilDatabase();
+		ctx.getAutowireCapableBeanFactory().autowireBean(realmDatabase);
+		binder.bind(prefix + ".database", Bindable.ofInstance(realmDatabase));
+		realmDatabase.buildDatabase();
+
+		var realmTokenStore = new TokenStore();
+		binder.bind("yggdrasil.token", Bindable.ofInstance(realmTokenStore));
+		binder.bind(prefix + ".token", Bindable.ofInstance(realmTokenStore));
+
+		var realmSessionAuth = new SessionAuthenticator();
+		binder.bind("yggdrasil.session", Bindable.ofInstance(realmSessionAuth));
+		binder.bind(prefix + ".session", Bindable.ofInstance(realmSessionAuth));
+
+		return new Realm(name, realmDatabase, realmTokenStore, realmSessionAuth, createMeta(config.serverName == null ? name : config.serverName));
+	}
+
+	/**
+	 * Creates a realm which is not served, having the given users, and the token and session settings of the default realm.
+	 * Nothing refers to it once the caller drops it.
+	 */
+	Realm createDetachedRealm(String name, List<YggdrasilUser> users) throws IOException {
+		var binder = binder();
+
+		var realmDatabase = new YggdrasilDatabase();
+		ctx.getAutowireCapableBeanFactory().autowireBean(realmDatabase);
+		realmDatabase.setUsers(users);
+		realmDatabase.buildDatabase();
+
+		var realmTokenStore = new TokenStore();
+		binder.bind("yggdrasil.token", Bindable.ofInstance(realmTokenStore));
+
+		var realmSessionAuth = new SessionAuthenticator();
+		binder.bind("yggdrasil.session", Bindable.ofInstance(realmSessionAuth));
+
+		return new Realm(name, realmDatabase, realmTokenStore, realmSessionAuth, createMeta(name));
+	}
+
+	private Binder binder() {
+		var conversionService = new ApplicationConversionService();
+		conversionService.addConverter(textureURLConverter);
+		return new Binder(ConfigurationPropertySources.get(environment), new PropertySourcesPlaceholdersResolver(environment), conversionService);
+	}
+
+	private ServerMeta createMeta(String serverName) {
+		var realmMeta = new ServerMeta();
+		realmMeta.setSignaturePublickey(meta.getSignaturePublickey());
+		realmMeta.setSkinDomains(meta.getSkinDomains());
+		var metadata = new LinkedHashMap<>(meta.getMeta());
+		metadata.put("serverName", serverName);
+		realmMeta.setMeta(metadata);
+		return realmMeta;
+	}
+
+	private static String normalizePath(String name, String path) {
+		var result = path.startsWith("/") ? path : "/" + path;
+		if (result.endsWith("/"))
+			result = result.substring(0, result.length() - 1);
+		if (result.isEmpty() || result.indexOf('/', 1) != -1)
+			throw new IllegalArgumentException("The path of realm " + name + " must be a single segment: " + path);
+		return result;
+	}
+
+	@PreDestroy
+	private void closeRealms() throws IOException {
+		for (var realm : realms.values()) {
+			if (realm != defaultRealm)
+				realm.getDatabase().closeImage();
+		}
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		var realm = defaultRealm;
+		if (!host2realm.isEmpty()) {
+			var host = exchange.getRequest().getHeaders().getHost();
+			if (host != null)
+				realm = host2realm.getOrDefault(host.getHostString().toLowerCase(Locale.ROOT), realm);
+		}
+		if (realm == defaultRealm && !path2realm.isEmpty()) {
+			var request = exchange.getRequest();
+			var path = request.getPath().pathWithinApplication().value();
+			int end = path.indexOf('/', 1);
+			var prefix = end == -1 ? path : path.substring(0, end);
+			var found = path2realm.get(prefix);
+			if (found != null) {
+				realm = found;
+				var contextPath = request.getPath().contextPath().value() + prefix;
+				exchange = exchange.mutate()
+						.request(request.mutate().contextPath(contextPath).build())
+						.build();
+			}
+		}
+		exchange.getAttributes().put(Realm.ATTRIBUTE, realm);
+		return chain.filter(exchange);
+	}
+
+	public Realm getDefaultRealm() {
+		return defaultRealm;
+	}
+
+	public Optional<Realm> getRealm(String name) {
+		return Optional.ofNullable(realms.get(name));
+	}
+
+	/**
+	 * @return all the realms, the default one first
+	 */
+	public Collection<Realm> getRealms() {
+		return realms.values();
+	}
+}
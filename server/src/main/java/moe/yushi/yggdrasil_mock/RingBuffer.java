@@ -0,0 +1,58 @@
+package moe.yushi.yggdrasil_mock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.springframework.lang.Nullable;
+
+/**
+ * Bounded multi-producer single-consumer queue (D. Vyukov's algorithm): every slot carries a sequence number
+ * telling whether it's ready to be written or read.
+ */
+class RingBuffer<E> {
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	// only accessed by the consumer
+	private long head;
+
+	RingBuffer(int capacity) {
+		if (Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+		mask = capacity - 1;
+		elements = new AtomicReferenceArray<>(capacity);
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	boolean offer(E element) {
+		for (;;) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long available = sequences.get(index) - position;
+			if (available < 0)
+				// the consumer hasn't read the slot from the previous round yet
+				return false;
+			if (available == 0 && tail.compareAndSet(position, position + 1)) {
+				elements.lazySet(index, element);
+				sequences.lazySet(index, position + 1);
+				return true;
+			}
+		}
+	}
+
+	@Nullable
+	E poll() {
+		int index = (int) head & mask;
+		if (sequences.get(index) != head + 1)
+			return null;
+		var element = elements.get(index);
+		elements.lazySet(index, null);
+		sequences.lazySet(index, head + mask + 1);
+		head++;
+		return element;
+	}
+}
@@ -10,6 +10,7 @@ import static moe.yushi.yggdrasil_mock.UUIDUtils.toUUID;
 import static moe.yushi.yggdrasil_mock.UUIDUtils.unsign;
 import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_access_denied;
 import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_invalid_credentials;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_invalid_profile;
 import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_invalid_token;
 import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_profile_not_found;
 import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_token_already_assigned;
@@ -18,17 +19,24 @@ import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.newIllegalAr
 import static org.springframework.http.CacheControl.maxAge;
 import static org.springframework.http.HttpStatus.NO_CONTENT;
 import static org.springframework.http.MediaType.IMAGE_PNG;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
 import static org.springframework.http.ResponseEntity.noContent;
 import static org.springframework.http.ResponseEntity.notFound;
 import static org.springframework.http.ResponseEntity.ok;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Predicate;
-import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.validation.Valid;
 import javax.validation.ValidationException;
 import javax.validation.constraints.NotBlank;
@@ -36,8 +44,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.lang.Nullable;
 import org.springframework.validation.annotation.Validated;
@@ -54,84 +66,114 @@ import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebInputException;
+import org.springframework.web.server.UnsupportedMediaTypeStatusException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
 import moe.yushi.yggdrasil_mock.TokenStore.AvailableLevel;
 import moe.yushi.yggdrasil_mock.TokenStore.Token;
 import moe.yushi.yggdrasil_mock.YggdrasilDatabase.ModelType;
 import moe.yushi.yggdrasil_mock.YggdrasilDatabase.TextureType;
 import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilCharacter;
 import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilUser;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 @Validated
 @RestController
 public class Router {
 
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
 	private final Logger logger = LoggerFactory.getLogger(Router.class);
 
-	private @Autowired ServerMeta meta;
 	private @Autowired RateLimiter rateLimiter;
-	private @Autowired YggdrasilDatabase database;
-	private @Autowired TokenStore tokenStore;
-	private @Autowired SessionAuthenticator sessionAuth;
+	private @Autowired PasswordVerifier passwordVerifier;
 	private @Autowired Texture.Storage texturesStorage;
+	private @Autowired Metrics metrics;
+	private @Autowired KeyPair signatureKeyPair;
 	private @Value("${yggdrasil.core.login-with-character-name}") boolean loginWithCharacterName;
+	private @Value("${yggdrasil.core.profiles-query-limit:10}") int profilesQueryLimit;
+	private @Value("${yggdrasil.core.profiles-batch-limit:100}") int profilesBatchLimit;
+	private @Value("${yggdrasil.core.profiles-signing-threads:0}") int profilesSigningThreads;
+	private @Value("${yggdrasil.session.join-events-servers-limit:100}") int joinEventsServersLimit;
+	private @Value("${yggdrasil.session.join-events-heartbeat:15s}") Duration joinEventsHeartbeat;
+
+	// for batch requests, whose signatures (~16 ms each) would hold the parallel scheduler and delay its timers
+	private Scheduler signingScheduler;
+
+	@PostConstruct
+	private void init() {
+		int threads = profilesSigningThreads > 0 ? profilesSigningThreads : Runtime.getRuntime().availableProcessors();
+		signingScheduler = Schedulers.newBoundedElastic(threads, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "profile-signer");
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		signingScheduler.dispose();
+	}
 
 	@GetMapping("/")
-	public ServerMeta root() {
-		return meta;
+	public ServerMeta root(Realm realm) {
+		return realm.getMeta();
 	}
 
 	@GetMapping("/status")
-	public Map<?, ?> status() {
+	public Map<?, ?> status(Realm realm) {
 		return ofEntries(
-				entry("user.count", database.getUsers().size()),
-				entry("token.count", tokenStore.tokensCount()),
-				entry("pendingAuthentication.count", sessionAuth.pendingAuthenticationsCount()));
+				entry("user.count", realm.getDatabase().getUsersCount()),
+				entry("token.count", realm.getTokenStore().tokensCount()),
+				entry("pendingAuthentication.count", realm.getSessionAuthenticator().pendingAuthenticationsCount()));
+	}
+
+	@GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4")
+	public String metrics() {
+		return metrics.scrape();
 	}
 
 	@PostMapping("/authserver/authenticate")
-	public Map<?, ?> authenticate(@RequestBody @Valid LoginRequest req) {
-		YggdrasilUser user;
-		YggdrasilCharacter character = null;
-		if (loginWithCharacterName) {
-			character = database.findCharacterByName(req.username).orElse(null);
-		}
-		if (character == null) {
-			user = passwordAuthenticated(req.username, req.password);
-		} else {
-			user = passwordAuthenticated(character.getOwner().getEmail(), req.password);
-		}
+	public Mono<Map<?, ?>> authenticate(@RequestBody @Valid LoginRequest req, ServerHttpRequest http, Realm realm, AccessLog.Record record) {
+		var character = loginWithCharacterName ? realm.getDatabase().findCharacterByName(req.username) : Optional.<YggdrasilCharacter> empty();
+		var username = character.map(it -> it.getOwner().getEmail()).orElse(req.username);
 
 		if (req.clientToken == null)
 			req.clientToken = randomUnsignedUUID();
 
-		var token = tokenStore.acquireToken(user, req.clientToken, character);
-
-		var response = new LinkedHashMap<>();
-		response.put("accessToken", token.getAccessToken());
-		response.put("clientToken", token.getClientToken());
-		response.put("availableProfiles",
-				user.getCharacters().stream()
-						.map(YggdrasilCharacter::toSimpleResponse)
-						.collect(toList()));
-		token.getBoundCharacter().ifPresent(
-				it -> response.put("selectedProfile", it.toSimpleResponse()));
-
-		if (req.requestUser)
-			response.put("user", user.toResponse());
-
-		return response;
+		return passwordAuthenticated(realm, username, req.password, http, record).map(user -> {
+			var token = realm.getTokenStore().acquireToken(user, req.clientToken, character.orElse(null));
+			record.token(token);
+
+			var response = new LinkedHashMap<>();
+			response.put("accessToken", token.getAccessToken());
+			response.put("clientToken", token.getClientToken());
+			response.put("availableProfiles",
+					user.getCharacters().stream()
+							.map(YggdrasilCharacter::toSimpleResponse)
+							.collect(toList()));
+			token.getBoundCharacter().ifPresent(
+					it -> response.put("selectedProfile", it.toSimpleResponse()));
+
+			if (req.requestUser)
+				response.put("user", user.toResponse());
+
+			return response;
+		});
 	}
 
 	@PostMapping("/authserver/refresh")
-	public Map<?, ?> refresh(@RequestBody @Valid RefreshRequest req) {
+	public Map<?, ?> refresh(@RequestBody @Valid RefreshRequest req, Realm realm, AccessLog.Record record) {
 		var characterToSelect = req.selectedProfile == null ? null
-				: database.findCharacterByUUID(toUUID(req.selectedProfile.id))
+				: realm.getDatabase().findCharacterByUUID(toUUID(req.selectedProfile.id))
 						.orElseThrow(() -> newIllegalArgumentException(m_profile_not_found));
 
 		if (characterToSelect != null && !characterToSelect.getName().equals(req.selectedProfile.name))
 			throw newIllegalArgumentException(m_profile_not_found);
 
-		var oldToken = authenticateAndConsume(req.accessToken, req.clientToken, AvailableLevel.PARTIAL,
+		var oldToken = authenticateAndConsume(realm, req.accessToken, req.clientToken, AvailableLevel.PARTIAL,
 				token -> {
 					if (characterToSelect != null) {
 						if (token.getBoundCharacter().isPresent())
@@ -143,8 +185,9 @@ public class Router {
 					return true;
 				});
 
-		var newToken = tokenStore.acquireToken(oldToken.getUser(), oldToken.getClientToken(),
+		var newToken = realm.getTokenStore().acquireToken(oldToken.getUser(), oldToken.getClientToken(),
 				characterToSelect == null ? oldToken.getBoundCharacter().orElse(null) : characterToSelect);
+		record.token(newToken);
 
 		var response = new LinkedHashMap<>();
 		response.put("accessToken", newToken.getAccessToken());
@@ -160,58 +203,119 @@ public class Router {
 
 	@PostMapping("/authserver/validate")
 	@ResponseStatus(NO_CONTENT)
-	public void validate(@RequestBody @Valid ValidateRequest req) {
-		authenticate(req.accessToken, req.clientToken, AvailableLevel.COMPLETE);
+	public void validate(@RequestBody @Valid ValidateRequest req, Realm realm, AccessLog.Record record) {
+		record.token(authenticate(realm, req.accessToken, req.clientToken, AvailableLevel.COMPLETE));
 	}
 
 	@PostMapping("/authserver/invalidate")
 	@ResponseStatus(NO_CONTENT)
-	public void invalidate(@RequestBody @Valid InvalidateRequest req) {
-		tokenStore.authenticateAndConsume(req.accessToken, null, AvailableLevel.PARTIAL, dummy -> true);
+	public void invalidate(@RequestBody @Valid InvalidateRequest req, Realm realm, AccessLog.Record record) {
+		realm.getTokenStore().authenticateAndConsume(req.accessToken, null, AvailableLevel.PARTIAL, dummy -> true)
+				.ifPresent(record::token);
 	}
 
 	@PostMapping("/authserver/signout")
 	@ResponseStatus(NO_CONTENT)
-	public void signout(@RequestBody @Valid SignoutRequest req) {
-		var user = passwordAuthenticated(req.username, req.password);
-		tokenStore.revokeAll(user);
+	public Mono<Void> signout(@RequestBody @Valid SignoutRequest req, ServerHttpRequest http, Realm realm, AccessLog.Record record) {
+		return passwordAuthenticated(realm, req.username, req.password, http, record)
+				.doOnNext(realm.getTokenStore()::revokeAll)
+				.then();
 	}
 
 	@PostMapping("/sessionserver/session/minecraft/join")
 	@ResponseStatus(NO_CONTENT)
-	public void joinServer(@RequestBody @Valid JoinServerRequest req, ServerHttpRequest http) {
-		var token = authenticate(req.accessToken, null, AvailableLevel.COMPLETE);
+	public void joinServer(@RequestBody @Valid JoinServerRequest req, ServerHttpRequest http, Realm realm, AccessLog.Record record) {
+		var token = authenticate(realm, req.accessToken, null, AvailableLevel.COMPLETE);
+		record.token(token);
 		if (token.getBoundCharacter().isPresent() &&
 				unsign(token.getBoundCharacter().get().getUuid()).equals(req.selectedProfile)) {
 			var ip = of(http.getRemoteAddress())
 					.map(addr -> addr.getAddress().getHostAddress());
-			sessionAuth.joinServer(token, req.serverId, ip);
+			realm.getSessionAuthenticator().joinServer(token, req.serverId, ip);
 		} else {
-			throw newForbiddenOperationException("Invalid profile.");
+			throw newForbiddenOperationException(m_invalid_profile);
 		}
 	}
 
 	@GetMapping("/sessionserver/session/minecraft/hasJoined")
-	public ResponseEntity<?> hasJoinedServer(@RequestParam String serverId, @RequestParam String username, @RequestParam Optional<String> ip) {
-		return sessionAuth.verifyUser(username, serverId, ip)
-				.map(character -> ok(character.toCompleteResponse(true)))
+	public ResponseEntity<?> hasJoinedServer(@RequestParam String serverId, @RequestParam String username, @RequestParam Optional<String> ip, Realm realm, AccessLog.Record record) {
+		return realm.getSessionAuthenticator().verifyUser(username, serverId, ip)
+				.map(character -> {
+					record.character(character);
+					return ok(character.toCompleteResponse(signatureKeyPair.getPrivate(), metrics.signatureLatency(realm)));
+				})
 				.orElse(noContent().build());
 	}
 
+	/**
+	 * Streams the joins to the given servers as server-sent events, so that they don't have to poll {@code hasJoined}.
+	 * Comments are sent periodically to keep the connection from being closed as idle.
+	 */
+	@GetMapping(value = "/sessionserver/session/minecraft/join/events", produces = TEXT_EVENT_STREAM_VALUE)
+	public Flux<ServerSentEvent<Map<?, ?>>> joinEvents(@RequestParam List<String> serverId, Realm realm) {
+		if (serverId.size() > joinEventsServersLimit)
+			throw newIllegalArgumentException("Not more that " + joinEventsServersLimit + " servers per subscription is allowed.");
+
+		var events = realm.getSessionAuthenticator().joinEvents(serverId)
+				.map(event -> {
+					var data = new LinkedHashMap<String, Object>();
+					data.put("serverId", event.serverId);
+					data.put("id", unsign(event.character.getUuid()));
+					data.put("name", event.character.getName());
+					if (event.ip != null)
+						data.put("ip", event.ip);
+					data.put("time", event.createdAt);
+					return ServerSentEvent.<Map<?, ?>> builder(data).event("join").build();
+				});
+		var heartbeats = Flux.interval(joinEventsHeartbeat)
+				.map(n -> ServerSentEvent.<Map<?, ?>> builder().comment("").build());
+		return Flux.merge(events, heartbeats);
+	}
+
 	@PostMapping("/api/profiles/minecraft")
-	public Stream<Map<?, ?>> queryProfiles(@RequestBody List<String> names) {
-		return names.stream()
+	public Flux<Map<?, ?>> queryProfiles(ServerHttpRequest http, Realm realm) {
+		return limitedList(http, profilesQueryLimit, "Not more that " + profilesQueryLimit + " profile name per call is allowed.")
 				.distinct()
-				.map(database::findCharacterByName)
-				.flatMap(Optional::stream)
+				.map(realm.getDatabase()::findCharacterByName)
+				.flatMap(Mono::justOrEmpty)
 				.map(YggdrasilCharacter::toSimpleResponse);
 	}
 
+	/**
+	 * Batch version of {@link #profile(String, String, Realm, AccessLog.Record)}.
+	 */
+	@PostMapping("/sessionserver/session/minecraft/profiles")
+	public Flux<Map<?, ?>> profiles(ServerHttpRequest http, @RequestParam(required = false) String unsigned, Realm realm) {
+		var signed = "false".equals(unsigned);
+		return limitedList(http, profilesBatchLimit, "No more than " + profilesBatchLimit + " profiles are allowed per call.")
+				.map(uuid -> {
+					try {
+						return toUUID(uuid);
+					} catch (IllegalArgumentException e) {
+						throw newIllegalArgumentException("Invalid UUID: " + uuid);
+					}
+				})
+				.distinct()
+				.map(realm.getDatabase()::findCharacterByUUID)
+				.flatMap(Mono::justOrEmpty)
+				.flatMapSequential(character -> signed
+						// signing is expensive, spread it across cores, but not on the threads running the timers
+						? Mono.fromCallable(() -> character.toCompleteResponse(signatureKeyPair.getPrivate(), metrics.signatureLatency(realm)))
+								.subscribeOn(signingScheduler)
+								.onErrorMap(RejectedExecutionException.class, e -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, null, e))
+						: Mono.just(character.toCompleteResponse(null, null)));
+	}
+
 	@GetMapping("/sessionserver/session/minecraft/profile/{uuid:[a-f0-9]{32}}")
-	public ResponseEntity<?> profile(@PathVariable String uuid, @RequestParam(required = false) String unsigned) {
+	public ResponseEntity<?> profile(@PathVariable String uuid, @RequestParam(required = false) String unsigned, Realm realm, AccessLog.Record record) {
 		var signed = "false".equals(unsigned);
-		return database.findCharacterByUUID(toUUID(uuid))
-				.map(character -> ok(character.toCompleteResponse(signed)))
+		return realm.getDatabase().findCharacterByUUID(toUUID(uuid))
+				.map(character -> {
+					record.character(character);
+					return ok(signed
+							? character.toCompleteResponse(signatureKeyPair.getPrivate(), metrics.signatureLatency(realm))
+							: character.toCompleteResponse(null, null));
+				})
 				.orElse(noContent().build());
 	}
 
@@ -227,17 +331,18 @@ public class Router {
 	}
 
 	@DeleteMapping("/api/user/profile/{uuid}/{textureType}")
-	public ResponseEntity<?> deleteTexture(@PathVariable String uuid, @PathVariable TextureType textureType, @RequestHeader(required = false) String authorization) {
-		var character = authTextureOperation(uuid, textureType, authorization);
-		character.getTextures().remove(textureType);
+	public ResponseEntity<?> deleteTexture(@PathVariable String uuid, @PathVariable TextureType textureType, @RequestHeader(required = false) String authorization, Realm realm, AccessLog.Record record) {
+		var character = authTextureOperation(realm, uuid, textureType, authorization, record);
+		character.removeTexture(textureType);
+		realm.getDatabase().markModified(character);
 		return noContent().build();
 	}
 
 	@PutMapping("/api/user/profile/{uuid}/{textureType}")
 	public ResponseEntity<?> uploadTexture(@PathVariable String uuid, @PathVariable TextureType textureType, @RequestHeader(required = false) String authorization,
 			@RequestPart("file") byte[] imageFile,
-			@RequestPart(name = "model", required = false) String textureModel) {
-		var character = authTextureOperation(uuid, textureType, authorization);
+			@RequestPart(name = "model", required = false) String textureModel, Realm realm, AccessLog.Record record) {
+		var character = authTextureOperation(realm, uuid, textureType, authorization, record);
 		Texture texture;
 		try (var in = new ByteArrayInputStream(imageFile)) {
 			texture = texturesStorage.loadTexture(in);
@@ -245,7 +350,7 @@ public class Router {
 			logger.warn("unable to parse uploaded texture", e);
 			throw newIllegalArgumentException("bad image");
 		}
-		character.getTextures().put(textureType, texture);
+		character.putTexture(textureType, texture);
 		if (textureType == TextureType.SKIN) {
 			if ("slim".equals(textureModel)) {
 				character.setModel(ModelType.ALEX);
@@ -253,6 +358,7 @@ public class Router {
 				character.setModel(ModelType.STEVE);
 			}
 		}
+		realm.getDatabase().markModified(character);
 		return noContent().build();
 	}
 
@@ -262,35 +368,154 @@ public class Router {
 	}
 
 	// ---- Helper methods ----
-	private YggdrasilUser passwordAuthenticated(String username, String password) {
-		var user = database.findUserByEmail(username)
+	private Mono<YggdrasilUser> passwordAuthenticated(Realm realm, String username, String password, ServerHttpRequest http, AccessLog.Record record) {
+		// checked first, so that attempts on unknown users are limited as well
+		var address = http.getRemoteAddress();
+		if (address != null && !rateLimiter.tryAccess(address.getAddress())) {
+			metrics.recordRateLimited();
+			throw newForbiddenOperationException(m_invalid_credentials);
+		}
+
+		var user = realm.getDatabase().findUserByEmail(username)
 				.orElseThrow(() -> newForbiddenOperationException(m_invalid_credentials));
+		record.user(user);
 
-		if (!rateLimiter.tryAccess(user))
+		if (!rateLimiter.tryAccess(user)) {
+			metrics.recordRateLimited();
 			throw newForbiddenOperationException(m_invalid_credentials);
+		}
 
-		if (!password.equals(user.getPassword()))
-			throw newForbiddenOperationException(m_invalid_credentials);
+		return passwordVerifier.verify(user, password)
+				.map(matches -> {
+					if (!matches)
+						throw newForbiddenOperationException(m_invalid_credentials);
+					return user;
+				});
+	}
+
+	/**
+	 * Decodes a request body which must be a JSON array of strings, but stops reading as soon as it turns out
+	 * to have more than {@code limit} elements. A missing body is an empty array.
+	 * The whole array is checked before any element is emitted, so that an oversized request never produces a partial response.
+	 */
+	private Flux<String> limitedList(ServerHttpRequest http, int limit, String errorMessage) {
+		var contentType = http.getHeaders().getContentType();
+		if (contentType != null && !MediaType.APPLICATION_JSON.isCompatibleWith(contentType))
+			return Flux.error(new UnsupportedMediaTypeStatusException(contentType, List.of(MediaType.APPLICATION_JSON)));
+
+		return Flux.defer(() -> {
+			var reader = new StringArrayReader();
+			return http.getBody()
+					.concatMapIterable(buffer -> {
+						try {
+							return reader.feed(buffer);
+						} finally {
+							DataBufferUtils.release(buffer);
+						}
+					})
+					.concatWith(Flux.defer(() -> Flux.fromIterable(reader.endOfInput())))
+					.doFinally(signal -> reader.close());
+		})
+				.take(limit + 1)
+				.collectList()
+				.flatMapMany(list -> {
+					if (list.size() > limit)
+						throw newIllegalArgumentException(errorMessage);
+					return Flux.fromIterable(list);
+				});
+	}
+
+	/**
+	 * Incrementally parses a JSON array of strings, fed chunk by chunk.
+	 */
+	private static class StringArrayReader {
+		// same as the default limit of the codecs
+		private static final int MAX_BODY_SIZE = 256 * 1024;
+
+		private final JsonParser parser;
+		private final ByteArrayFeeder feeder;
+		private int size;
+		private boolean started;
+		private boolean ended;
+
+		StringArrayReader() {
+			try {
+				parser = jsonFactory.createNonBlockingByteArrayParser();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+		}
 
-		return user;
+		List<String> feed(DataBuffer buffer) {
+			size += buffer.readableByteCount();
+			if (size > MAX_BODY_SIZE)
+				throw new ServerWebInputException("Request body is too large");
+			var bytes = new byte[buffer.readableByteCount()];
+			buffer.read(bytes);
+			try {
+				feeder.feedInput(bytes, 0, bytes.length);
+			} catch (IOException e) {
+				throw new ServerWebInputException("Failed to read HTTP message", null, e);
+			}
+			return read();
+		}
+
+		List<String> endOfInput() {
+			feeder.endOfInput();
+			var elements = read();
+			if (started && !ended)
+				throw new ServerWebInputException("Malformed request body");
+			return elements;
+		}
+
+		private List<String> read() {
+			var elements = new ArrayList<String>();
+			try {
+				JsonToken token;
+				while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+					if (token == JsonToken.START_ARRAY && !started) {
+						started = true;
+					} else if (token == JsonToken.VALUE_STRING && started && !ended) {
+						elements.add(parser.getText());
+					} else if (token == JsonToken.END_ARRAY && started && !ended) {
+						ended = true;
+					} else {
+						// not an array, nested values, or something after the array
+						throw newIllegalArgumentException("Request body must be an array of strings.");
+					}
+				}
+			} catch (IOException e) {
+				throw new ServerWebInputException("Failed to read HTTP message", null, e);
+			}
+			return elements;
+		}
+
+		void close() {
+			try {
+				parser.close();
+			} catch (IOException e) {
+				// nothing to release
+			}
+		}
 	}
 
-	private Token authenticate(String accessToken, @Nullable String clientToken, AvailableLevel availableLevel) {
-		return tokenStore.authenticate(accessToken, clientToken, availableLevel)
+	private Token authenticate(Realm realm, String accessToken, @Nullable String clientToken, AvailableLevel availableLevel) {
+		return realm.getTokenStore().authenticate(accessToken, clientToken, availableLevel)
 				.orElseThrow(() -> newForbiddenOperationException(m_invalid_token));
 	}
 
-	private Token authenticateAndConsume(String accessToken, @Nullable String clientToken, AvailableLevel availableLevel, Predicate<Token> checker) {
-		return tokenStore.authenticateAndConsume(accessToken, clientToken, availableLevel, checker)
+	private Token authenticateAndConsume(Realm realm, String accessToken, @Nullable String clientToken, AvailableLevel availableLevel, Predicate<Token> checker) {
+		return realm.getTokenStore().authenticateAndConsume(accessToken, clientToken, availableLevel, checker)
 				.orElseThrow(() -> newForbiddenOperationException(m_invalid_token));
 	}
 
-	private Token processAuthorizationHeader(String header) {
+	private Token processAuthorizationHeader(Realm realm, String header) {
 		if (header != null) {
 			header = header.trim();
 			if (header.startsWith("Bearer ")) {
 				header = header.substring("Bearer ".length());
-				var token = tokenStore.authenticate(header, null, AvailableLevel.COMPLETE);
+				var token = realm.getTokenStore().authenticate(header, null, AvailableLevel.COMPLETE);
 				if (token.isPresent()) {
 					return token.get();
 				}
@@ -299,13 +524,14 @@ public class Router {
 		throw new ResponseStatusException(HttpStatus.UNAUTHORIZED);
 	}
 
-	private YggdrasilCharacter authTextureOperation(String uuid, TextureType textureType, String authorization) {
-		var token = processAuthorizationHeader(authorization);
-		var character = database.findCharacterByUUID(toUUID(uuid))
+	private YggdrasilCharacter authTextureOperation(Realm realm, String uuid, TextureType textureType, String authorization, AccessLog.Record record) {
+		var token = processAuthorizationHeader(realm, authorization);
+		record.token(token);
+		var character = realm.getDatabase().findCharacterByUUID(toUUID(uuid))
 				.orElseThrow(() -> newIllegalArgumentException(m_profile_not_found));
 		if (character.getOwner() != token.getUser())
 			throw newForbiddenOperationException(m_access_denied);
-		if (!character.getUploadableTextures().contains(textureType))
+		if (!character.isTextureUploadable(textureType))
 			throw newForbiddenOperationException(m_access_denied);
 		return character;
 	}
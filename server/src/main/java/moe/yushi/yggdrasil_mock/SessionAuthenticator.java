@@ -1,14 +1,23 @@
 package moe.yushi.yggdrasil_mock;
 
 import static java.util.Optional.empty;
+import static java.util.stream.Collectors.toList;
 import java.time.Duration;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import moe.yushi.yggdrasil_mock.TokenStore.Token;
 import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilCharacter;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.concurrent.Queues;
 
 @Component
 @ConfigurationProperties(prefix = "yggdrasil.session")
@@ -27,11 +36,43 @@ public class SessionAuthenticator {
 		public long createdAt;
 	}
 
+	public static class JoinEvent {
+		public final String serverId;
+
+		public final YggdrasilCharacter character;
+
+		@Nullable
+		public final String ip;
+
+		public final long createdAt;
+
+		private JoinEvent(PendingAuthentication auth) {
+			this.serverId = auth.serverId;
+			this.character = auth.token.getBoundCharacter().get();
+			this.ip = auth.ip;
+			this.createdAt = auth.createdAt;
+		}
+	}
+
+	/**
+	 * The subscribers to the joins of a server.
+	 */
+	private static class Channel {
+		// emissions are serialized by locking the channel
+		final Sinks.Many<JoinEvent> sink = Sinks.unsafe().many().multicast().directBestEffort();
+		// only accessed within channels.compute()
+		int subscribers;
+	}
+
 	private ConcurrentLinkedHashMap<String, PendingAuthentication> serverId2auth = new ConcurrentLinkedHashMap.Builder<String, PendingAuthentication>()
 			.maximumWeightedCapacity(MAX_AUTH_COUNT)
 			.build();
 
+	// only contains the servers someone is subscribed to, so that joins to other servers cost a single lookup
+	private ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
+
 	private Duration authExpireTime;
+	private int joinEventsBufferSize = 256;
 
 	/**
 	 * @param token
@@ -44,6 +85,38 @@ public class SessionAuthenticator {
 		auth.ip = ip.orElse(null);
 		auth.createdAt = System.currentTimeMillis();
 		serverId2auth.put(serverId, auth);
+
+		var channel = channels.get(serverId);
+		if (channel != null) {
+			var event = new JoinEvent(auth);
+			// held for as long as it takes to enqueue the event for each subscriber
+			synchronized (channel) {
+				channel.sink.tryEmitNext(event);
+			}
+		}
+	}
+
+	/**
+	 * Streams the joins to the given servers.
+	 * <p>
+	 * Events are emitted from {@link #joinServer}, which never waits for subscribers: each subscriber has a buffer
+	 * of {@code joinEventsBufferSize} events, beyond which the oldest ones are dropped, and is signalled on
+	 * {@link Schedulers#parallel()}, so that a slow subscriber only delays its own events.
+	 */
+	public Flux<JoinEvent> joinEvents(Collection<String> serverIds) {
+		var ids = Set.copyOf(serverIds);
+		return Flux.defer(() -> Flux.merge(ids.stream()
+				.map(id -> channels.compute(id, (k, channel) -> {
+					if (channel == null)
+						channel = new Channel();
+					channel.subscribers++;
+					return channel;
+				}).sink.asFlux())
+				.collect(toList())))
+				.doFinally(signal -> ids.forEach(id -> channels.computeIfPresent(id,
+						(k, channel) -> --channel.subscribers == 0 ? null : channel)))
+				.onBackpressureBuffer(joinEventsBufferSize, BufferOverflowStrategy.DROP_OLDEST)
+				.publishOn(Schedulers.parallel(), Queues.XS_BUFFER_SIZE);
 	}
 
 	public Optional<YggdrasilCharacter> verifyUser(String username, String serverId, Optional<String> ip) {
@@ -69,4 +142,12 @@ public class SessionAuthenticator {
 	public void setAuthExpireTime(Duration authExpireTime) {
 		this.authExpireTime = authExpireTime;
 	}
+
+	public int getJoinEventsBufferSize() {
+		return joinEventsBufferSize;
+	}
+
+	public void setJoinEventsBufferSize(int joinEventsBufferSize) {
+		this.joinEventsBufferSize = joinEventsBufferSize;
+	}
 }
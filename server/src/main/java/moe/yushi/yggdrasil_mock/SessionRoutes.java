@@ -0,0 +1,189 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.util.Optional.ofNullable;
+import static moe.yushi.yggdrasil_mock.UUIDUtils.unsign;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_invalid_profile;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.m_invalid_token;
+import static moe.yushi.yggdrasil_mock.exception.YggdrasilException.newForbiddenOperationException;
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+import java.io.IOException;
+import java.security.KeyPair;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
+import org.springframework.web.server.UnsupportedMediaTypeStatusException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import moe.yushi.yggdrasil_mock.TokenStore.AvailableLevel;
+import moe.yushi.yggdrasil_mock.TokenStore.Token;
+import reactor.core.publisher.Mono;
+
+/**
+ * Functional implementation of the highest-rate endpoints ({@code validate}, {@code join} and {@code hasJoined}),
+ * which skips the annotated controller machinery (argument resolution, bean validation, exception handler lookup)
+ * and decodes request bodies with a streaming JSON parser.
+ * <p>
+ * These routes take precedence over the ones in {@link Router}, and behave the same, including errors.
+ * They can be turned off with {@code yggdrasil.core.functional-session-endpoints: false}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "yggdrasil.core.functional-session-endpoints", matchIfMissing = true)
+public class SessionRoutes {
+
+	// same as the default limit of the codecs
+	private static final int MAX_BODY_SIZE = 256 * 1024;
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	/**
+	 * The fields of the request bodies handled here, all of them are strings.
+	 */
+	private static class RequestBody {
+		String accessToken;
+		String clientToken;
+		String selectedProfile;
+		String serverId;
+	}
+
+	private @Autowired KeyPair signatureKeyPair;
+	private @Autowired Metrics metrics;
+
+	@Bean
+	public RouterFunction<ServerResponse> sessionRouterFunction() {
+		return route(POST("/authserver/validate"), this::validate)
+				.andRoute(POST("/sessionserver/session/minecraft/join"), this::joinServer)
+				.andRoute(GET("/sessionserver/session/minecraft/hasJoined"), this::hasJoinedServer);
+	}
+
+	private Mono<ServerResponse> validate(ServerRequest request) {
+		return readBody(request).flatMap(body -> {
+			requireField(body.accessToken);
+			AccessLog.record(request.exchange()).token(authenticate(request, body.accessToken, body.clientToken));
+			return ServerResponse.noContent().build();
+		});
+	}
+
+	private Mono<ServerResponse> joinServer(ServerRequest request) {
+		return readBody(request).flatMap(body -> {
+			requireField(body.accessToken);
+			requireField(body.selectedProfile);
+			requireField(body.serverId);
+			var token = authenticate(request, body.accessToken, null);
+			AccessLog.record(request.exchange()).token(token);
+			var character = token.getBoundCharacter();
+			if (character.isPresent() && unsign(character.get().getUuid()).equals(body.selectedProfile)) {
+				var ip = request.remoteAddress()
+						.map(addr -> addr.getAddress().getHostAddress());
+				Realm.of(request.exchange()).getSessionAuthenticator().joinServer(token, body.serverId, ip);
+				return ServerResponse.noContent().build();
+			} else {
+				throw newForbiddenOperationException(m_invalid_profile);
+			}
+		});
+	}
+
+	private Mono<ServerResponse> hasJoinedServer(ServerRequest request) {
+		var params = request.queryParams();
+		var serverId = requireParam(params.get("serverId"));
+		var username = requireParam(params.get("username"));
+		var ip = ofNullable(params.getFirst("ip"));
+		var realm = Realm.of(request.exchange());
+		return realm.getSessionAuthenticator().verifyUser(username, serverId, ip)
+				.map(character -> {
+					AccessLog.record(request.exchange()).character(character);
+					return ServerResponse.ok()
+							.contentType(MediaType.APPLICATION_JSON)
+							.bodyValue(character.toCompleteResponse(signatureKeyPair.getPrivate(), metrics.signatureLatency(realm)));
+				})
+				.orElseGet(() -> ServerResponse.noContent().build());
+	}
+
+	// ---- Helper methods ----
+	private Token authenticate(ServerRequest request, String accessToken, String clientToken) {
+		return Realm.of(request.exchange()).getTokenStore().authenticate(accessToken, clientToken, AvailableLevel.COMPLETE)
+				.orElseThrow(() -> newForbiddenOperationException(m_invalid_token));
+	}
+
+	private static Mono<RequestBody> readBody(ServerRequest request) {
+		var contentType = request.headers().contentType();
+		if (contentType.isPresent() && !MediaType.APPLICATION_JSON.isCompatibleWith(contentType.get()))
+			return Mono.error(new UnsupportedMediaTypeStatusException(contentType.get(), List.of(MediaType.APPLICATION_JSON)));
+
+		return DataBufferUtils.join(request.body(BodyExtractors.toDataBuffers()), MAX_BODY_SIZE)
+				.map(buffer -> {
+					try (var parser = jsonFactory.createParser(buffer.asInputStream(true))) {
+						return parseBody(parser);
+					} catch (IOException e) {
+						throw new ServerWebInputException("Failed to read HTTP message", null, e);
+					}
+				})
+				.switchIfEmpty(Mono.error(() -> new ServerWebInputException("No request body")));
+	}
+
+	private static RequestBody parseBody(JsonParser parser) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT)
+			throw new ServerWebInputException("Request body must be an object");
+		var body = new RequestBody();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			var name = parser.getCurrentName();
+			parser.nextToken();
+			switch (name) {
+				case "accessToken":
+					body.accessToken = readString(parser);
+					break;
+				case "clientToken":
+					body.clientToken = readString(parser);
+					break;
+				case "selectedProfile":
+					body.selectedProfile = readString(parser);
+					break;
+				case "serverId":
+					body.serverId = readString(parser);
+					break;
+				default:
+					parser.skipChildren();
+			}
+		}
+		// like the codecs, ignore whatever follows the object
+		if (parser.currentToken() != JsonToken.END_OBJECT)
+			throw new ServerWebInputException("Malformed request body");
+		return body;
+	}
+
+	/**
+	 * Reads the current value as a string, as Jackson would bind it: other scalars are coerced, objects and arrays are rejected.
+	 */
+	private static String readString(JsonParser parser) throws IOException {
+		var token = parser.currentToken();
+		if (token == JsonToken.VALUE_NULL)
+			return null;
+		if (!token.isScalarValue())
+			throw new ServerWebInputException("Malformed request body");
+		return parser.getText();
+	}
+
+	private static void requireField(String value) {
+		// same as @NotBlank
+		if (value == null || value.isBlank())
+			throw new ServerWebInputException("Validation failure");
+	}
+
+	private static String requireParam(List<String> values) {
+		if (values == null || values.isEmpty())
+			throw new ServerWebInputException("Required query parameter is not present");
+		return values.get(0);
+	}
+	// --------
+}
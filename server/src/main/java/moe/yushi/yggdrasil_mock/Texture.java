@@ -33,6 +33,8 @@ public class Texture {
 	}
 
 	public static String computeTextureHash(BufferedImage img) {
+		var event = new JfrEvents.TextureHash();
+		event.begin();
 		MessageDigest digest;
 		try {
 			digest = MessageDigest.getInstance("SHA-256");
@@ -64,6 +66,9 @@ public class Texture {
 		}
 
 		byte[] sha256 = digest.digest();
+		event.width = width;
+		event.height = height;
+		event.commit();
 		return String.format("%0" + (sha256.length << 1) + "x", new BigInteger(1, sha256));
 	}
 
@@ -88,10 +93,15 @@ public class Texture {
 		}
 
 		public Texture loadTexture(InputStream in) throws IOException {
+			var decodeEvent = new JfrEvents.TextureDecode();
+			decodeEvent.begin();
 			var img = ImageIO.read(in);
 			if (img == null) {
 				throw new IIOException("No image found");
 			}
+			decodeEvent.width = img.getWidth();
+			decodeEvent.height = img.getHeight();
+			decodeEvent.commit();
 
 			var hash = computeTextureHash(img);
 
@@ -101,8 +111,12 @@ public class Texture {
 			}
 
 			var url = rootUrl.get().path("/textures/{hash}").build(hash).toString();
+			var encodeEvent = new JfrEvents.TextureEncode();
+			encodeEvent.begin();
 			var buf = new ByteArrayOutputStream();
 			ImageIO.write(img, "png", buf);
+			encodeEvent.size = buf.size();
+			encodeEvent.commit();
 			var texture = new Texture(hash, buf.toByteArray(), url);
 
 			existent = textures.putIfAbsent(hash, texture);
@@ -118,5 +132,15 @@ public class Texture {
 				return loadTexture(in);
 			}
 		}
+
+		public int texturesCount() {
+			return textures.size();
+		}
+
+		public long texturesBytes() {
+			return textures.values().stream()
+					.mapToLong(texture -> texture.data.length)
+					.sum();
+		}
 	}
 }
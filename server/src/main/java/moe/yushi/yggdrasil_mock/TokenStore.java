@@ -8,6 +8,7 @@ import java.time.Duration;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.lang.Nullable;
@@ -56,6 +57,13 @@ public class TokenStore {
 			return false;
 		}
 
+		/**
+		 * @return the sequence number of the token, which can be logged, unlike the token itself
+		 */
+		public long getId() {
+			return id;
+		}
+
 		public String getClientToken() {
 			return clientToken;
 		}
@@ -85,11 +93,15 @@ public class TokenStore {
 	private boolean onlyLastSessionAvailable;
 
 	private AtomicLong tokenIdGen = new AtomicLong();
+	private LongAdder evictions = new LongAdder();
 	private ConcurrentHashMap<YggdrasilUser, AtomicLong> notBefore = new ConcurrentHashMap<>();
 	private ConcurrentHashMap<YggdrasilUser, Token> lastAcquiredToken = new ConcurrentHashMap<>();
 	private ConcurrentLinkedHashMap<String, Token> accessToken2token = new ConcurrentLinkedHashMap.Builder<String, Token>()
 			.maximumWeightedCapacity(MAX_TOKEN_COUNT)
-			.listener((k, v) -> lastAcquiredToken.remove(v.user, v))
+			.listener((k, v) -> {
+				lastAcquiredToken.remove(v.user, v);
+				evictions.increment();
+			})
 			.build();
 
 	private void removeToken(Token token) {
@@ -98,27 +110,46 @@ public class TokenStore {
 	}
 
 	public Optional<Token> authenticate(String accessToken, @Nullable String clientToken, AvailableLevel availableLevel) {
+		var event = new JfrEvents.TokenAuthentication();
+		event.begin();
+		var result = authenticate(accessToken, clientToken, availableLevel, event);
+		if (event.shouldCommit()) {
+			event.availableLevel = availableLevel.name();
+			event.commit();
+		}
+		return result;
+	}
+
+	private Optional<Token> authenticate(String accessToken, @Nullable String clientToken, AvailableLevel availableLevel, JfrEvents.TokenAuthentication event) {
 		var token = accessToken2token.getQuietly(accessToken);
-		if (token == null)
+		if (token == null) {
+			event.outcome = "not found";
 			return empty();
+		}
 
 		if (token.isFullyExpired()) {
 			removeToken(token);
+			event.outcome = "expired";
 			return empty();
 		}
 
-		if (clientToken != null && !clientToken.equals(token.clientToken))
+		if (clientToken != null && !clientToken.equals(token.clientToken)) {
+			event.outcome = "client token mismatch";
 			return empty();
+		}
 
 		switch (availableLevel) {
 			case COMPLETE:
 				if (token.isCompleteValid()) {
+					event.outcome = "valid";
 					return of(token);
 				} else {
+					event.outcome = "partially valid";
 					return empty();
 				}
 
 			case PARTIAL:
+				event.outcome = "valid";
 				return of(token);
 
 			default:
@@ -189,6 +220,10 @@ public class TokenStore {
 		return accessToken2token.size();
 	}
 
+	public long evictionsCount() {
+		return evictions.sum();
+	}
+
 	public Duration getTimeToPartiallyExpired() {
 		return timeToPartiallyExpired;
 	}
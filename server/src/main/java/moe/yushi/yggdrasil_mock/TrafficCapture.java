@@ -0,0 +1,482 @@
+package moe.yushi.yggdrasil_mock;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.core.Ordered;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.HttpMessageReader;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebExchangeDecorator;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Records the incoming requests into a binary file, to be replayed by {@link TrafficReplay} against another instance.
+ * Enabled by {@code yggdrasil.capture.enabled}, and stops after {@code max-requests} requests.
+ * <p>
+ * Like the {@link AccessLog}, requests are handed over to a background thread through a bounded buffer,
+ * and dropped when it's full. That thread also removes the secrets (see {@link CapturedRequest}).
+ * On an I/O error, it keeps reopening the file with a backoff, and carries on after the last complete record.
+ * Bodies larger than {@code max-body-size} are not recorded.
+ */
+@Component
+@ConditionalOnProperty(name = "yggdrasil.capture.enabled")
+// after Realms, before everything that may reject a request
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+@ConfigurationProperties(prefix = "yggdrasil.capture")
+public class TrafficCapture implements WebFilter {
+
+	private static final long POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+	private static final ResolvableType MULTIPART_DATA_TYPE = ResolvableType.forClassWithGenerics(MultiValueMap.class, String.class, Part.class);
+
+	private static class Bytes {
+		byte[] data = new byte[0];
+		int size;
+		boolean truncated;
+
+		void append(DataBuffer buffer, int limit) {
+			int length = buffer.readableByteCount();
+			if (truncated || size + length > limit) {
+				truncated = true;
+				return;
+			}
+			if (size + length > data.length) {
+				var grown = new byte[Math.max(size + length, data.length * 2)];
+				System.arraycopy(data, 0, grown, 0, size);
+				data = grown;
+			}
+			// doesn't move the read position of the buffer
+			buffer.asByteBuffer().get(data, size, length);
+			size += length;
+		}
+
+		@Nullable
+		byte[] toArray() {
+			if (truncated)
+				return null;
+			var result = new byte[size];
+			System.arraycopy(data, 0, result, 0, size);
+			return result;
+		}
+	}
+
+	/**
+	 * A request as received, before sanitizing.
+	 */
+	private static class Entry {
+		long arrival;
+		HttpMethod method;
+		String path;
+		MultiValueMap<String, String> query;
+		@Nullable
+		String authorization;
+		@Nullable
+		MediaType contentType;
+		final Bytes body = new Bytes();
+		@Nullable
+		Bytes response;
+		int status;
+		long latency;
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(TrafficCapture.class);
+
+	@Autowired
+	private ServerCodecConfigurer codecs;
+
+	private Path path = Paths.get("capture.bin");
+	private long maxRequests = 1_000_000;
+	private DataSize maxBodySize = DataSize.ofKilobytes(64);
+	private int bufferSize = 16384;
+
+	private RingBuffer<Entry> buffer;
+	private long start;
+	private final AtomicLong requests = new AtomicLong();
+	private final LongAdder written = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private volatile boolean running;
+	private Thread writerThread;
+
+	// ---- Writer state, only accessed by the writer once started ----
+	private long startTime;
+	@Nullable
+	private DataOutputStream out;
+	// the length of the file up to the last complete record known to be written
+	private long committed;
+	// written since the last flush, in bytes and in records
+	private long pending;
+	private long pendingRecords;
+	// --------
+
+	// ---- Sanitizing, only accessed by the writer ----
+	private final Map<String, Integer> accessTokens = new HashMap<>();
+	private final Map<String, Integer> clientTokens = new HashMap<>();
+	private final Map<String, Integer> serverIds = new HashMap<>();
+	// --------
+
+	@PostConstruct
+	private void start() throws IOException {
+		buffer = new RingBuffer<>(bufferSize);
+		var parent = path.toAbsolutePath().getParent();
+		if (parent != null)
+			Files.createDirectories(parent);
+		startTime = System.currentTimeMillis();
+		open();
+		start = System.nanoTime();
+		running = true;
+		writerThread = new Thread(this::writeLoop, "traffic-capture-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		logger.info("Capturing up to {} requests to {}", maxRequests, path);
+	}
+
+	@PreDestroy
+	private void stop() throws InterruptedException {
+		if (writerThread == null)
+			return;
+		running = false;
+		LockSupport.unpark(writerThread);
+		writerThread.join(TimeUnit.SECONDS.toMillis(5));
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		var request = exchange.getRequest();
+		// the admin API is not part of the traffic, and its bodies may hold secrets
+		if (request.getPath().pathWithinApplication().value().startsWith(AdminRouter.PATH_PREFIX)
+				|| requests.getAndIncrement() >= maxRequests)
+			return chain.filter(exchange);
+
+		long arrival = System.nanoTime();
+		var entry = new Entry();
+		entry.arrival = arrival - start;
+		entry.method = request.getMethod();
+		entry.path = request.getURI().getRawPath();
+		entry.query = request.getQueryParams();
+		entry.authorization = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+		entry.contentType = request.getHeaders().getContentType();
+
+		int limit = (int) maxBodySize.toBytes();
+		var tappedRequest = new ServerHttpRequestDecorator(request) {
+			@Override
+			public Flux<DataBuffer> getBody() {
+				return super.getBody().doOnNext(data -> entry.body.append(data, limit));
+			}
+		};
+		var builder = exchange.mutate().request(tappedRequest);
+		if (issuesTokens(request.getPath().pathWithinApplication().value())) {
+			entry.response = new Bytes();
+			builder.response(new ServerHttpResponseDecorator(exchange.getResponse()) {
+				@Override
+				public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+					return super.writeWith(Flux.from(body).doOnNext(data -> entry.response.append(data, limit)));
+				}
+			});
+		}
+		var mutated = builder.build();
+		if (entry.contentType != null && MediaType.MULTIPART_FORM_DATA.isCompatibleWith(entry.contentType)) {
+			// otherwise parsed from the original request, bypassing the tap
+			var multipartData = readMultipartData(tappedRequest);
+			mutated = new ServerWebExchangeDecorator(mutated) {
+				@Override
+				public Mono<MultiValueMap<String, Part>> getMultipartData() {
+					return multipartData;
+				}
+			};
+		}
+
+		var response = exchange.getResponse();
+		return chain.filter(mutated)
+				.doOnError(e -> entry.status = AccessLog.errorStatus(e))
+				.doFinally(signal -> {
+					entry.latency = (System.nanoTime() - arrival) / 1000;
+					if (signal == SignalType.CANCEL) {
+						entry.status = 0;
+					} else if (entry.status == 0) {
+						var status = response.getRawStatusCode();
+						entry.status = status == null ? 200 : status;
+					}
+					if (!buffer.offer(entry))
+						dropped.increment();
+				});
+	}
+
+	@SuppressWarnings("unchecked")
+	private Mono<MultiValueMap<String, Part>> readMultipartData(ServerHttpRequest request) {
+		var reader = codecs.getReaders().stream()
+				.filter(it -> it.canRead(MULTIPART_DATA_TYPE, MediaType.MULTIPART_FORM_DATA))
+				.findFirst()
+				.orElseThrow(() -> new IllegalStateException("No multipart reader"));
+		return ((HttpMessageReader<MultiValueMap<String, Part>>) reader)
+				.readMono(MULTIPART_DATA_TYPE, request, Map.of())
+				.cache();
+	}
+
+	private static boolean issuesTokens(String path) {
+		return path.equals("/authserver/authenticate") || path.equals("/authserver/refresh");
+	}
+
+	// ---- Writer ----
+	private void writeLoop() {
+		var record = new ByteArrayOutputStream(1024);
+		var recordOut = new DataOutputStream(record);
+		int failures = 0;
+		for (;;) {
+			boolean stopping = !running;
+			var entry = buffer.poll();
+			try {
+				if (entry == null) {
+					if (out != null) {
+						out.flush();
+						committed += pending;
+						pending = 0;
+						pendingRecords = 0;
+						if (failures > 0) {
+							logger.info("Capture file {} is being written again", path);
+							failures = 0;
+						}
+					}
+					if (stopping)
+						break;
+					LockSupport.parkNanos(POLL_INTERVAL);
+					continue;
+				}
+
+				// serialized first, so that only I/O errors can leave a partial record
+				record.reset();
+				sanitize(entry).write(recordOut);
+				if (out == null) {
+					logger.info("Reopening capture file {} (attempt {})", path, failures);
+					open();
+				}
+				record.writeTo(out);
+				pending += record.size();
+				pendingRecords++;
+				written.increment();
+			} catch (IOException e) {
+				// the records not flushed yet are overwritten once reopened
+				written.add(-pendingRecords);
+				dropped.add(pendingRecords + (entry == null ? 0 : 1));
+				close();
+				if (stopping)
+					break;
+				// meanwhile, requests are dropped once the buffer is full
+				var delay = AccessLog.retryDelay(++failures);
+				logger.error("Unable to write captured traffic to {}, retrying in {} s", path, delay.toSeconds(), e);
+				LockSupport.parkNanos(delay.toNanos());
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Opens the file after the last complete record, or starts a new one if it's missing or has been truncated.
+	 * Records written since the last flush before an error may be lost.
+	 */
+	private void open() throws IOException {
+		var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			if (committed > 0 && channel.size() >= committed) {
+				channel.truncate(committed);
+				channel.position(committed);
+			} else {
+				if (committed > 0)
+					logger.warn("Capture file {} has been truncated or removed, the requests captured so far are lost", path);
+				channel.truncate(0);
+				committed = 0;
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+		pending = 0;
+		pendingRecords = 0;
+		if (committed == 0) {
+			CapturedRequest.writeHeader(out, startTime);
+			out.flush();
+			committed = out.size();
+		}
+	}
+
+	private void close() {
+		if (out == null)
+			return;
+		try {
+			out.close();
+		} catch (IOException e) {
+			logger.warn("Unable to close capture file", e);
+		}
+		out = null;
+	}
+
+	private CapturedRequest sanitize(Entry entry) {
+		var captured = new CapturedRequest();
+		captured.arrival = entry.arrival / 1000;
+		captured.method = entry.method == null ? HttpMethod.GET : entry.method;
+		captured.path = entry.path;
+		entry.query.forEach((name, values) -> {
+			if (name.equals("ip"))
+				return;
+			for (var value : values) {
+				if (name.equals("serverId"))
+					value = Integer.toString(ordinal(serverIds, value));
+				captured.query.add(Map.entry(name, value));
+			}
+		});
+		if (entry.authorization != null && entry.authorization.startsWith("Bearer "))
+			captured.bearerToken = ordinal(accessTokens, entry.authorization.substring("Bearer ".length()).trim());
+		if (entry.contentType != null) {
+			captured.contentType = entry.contentType.toString();
+			var body = entry.body.toArray();
+			if (body != null && body.length > 0) {
+				if (MediaType.APPLICATION_JSON.isCompatibleWith(entry.contentType))
+					captured.body = sanitizeJson(body);
+				else if (MediaType.MULTIPART_FORM_DATA.isCompatibleWith(entry.contentType))
+					// texture uploads
+					captured.body = body;
+			}
+		}
+		captured.status = entry.status;
+		captured.latency = entry.latency;
+
+		var response = entry.response == null ? null : entry.response.toArray();
+		if (response != null && entry.status == 200) {
+			try {
+				var tree = objectMapper.readTree(response);
+				if (tree.hasNonNull("accessToken"))
+					captured.issuedAccessToken = ordinal(accessTokens, tree.get("accessToken").asText());
+				if (tree.hasNonNull("clientToken"))
+					captured.issuedClientToken = ordinal(clientTokens, tree.get("clientToken").asText());
+			} catch (IOException e) {
+				logger.debug("Unable to parse response of {}", entry.path, e);
+			}
+		}
+		return captured;
+	}
+
+	@Nullable
+	private byte[] sanitizeJson(byte[] body) {
+		JsonNode tree;
+		try {
+			tree = objectMapper.readTree(body);
+		} catch (IOException e) {
+			// might contain anything
+			return null;
+		}
+		removePasswords(tree);
+		if (tree instanceof ObjectNode) {
+			var object = (ObjectNode) tree;
+			replaceWithOrdinal(object, "accessToken", accessTokens);
+			replaceWithOrdinal(object, "clientToken", clientTokens);
+			replaceWithOrdinal(object, "serverId", serverIds);
+		}
+		try {
+			return objectMapper.writeValueAsBytes(tree);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void removePasswords(JsonNode node) {
+		if (node instanceof ObjectNode)
+			((ObjectNode) node).remove("password");
+		node.forEach(TrafficCapture::removePasswords);
+	}
+
+	private static void replaceWithOrdinal(ObjectNode object, String field, Map<String, Integer> ordinals) {
+		var value = object.get(field);
+		if (value != null && value.isTextual())
+			object.set(field, IntNode.valueOf(ordinal(ordinals, value.asText())));
+	}
+
+	private static int ordinal(Map<String, Integer> ordinals, String value) {
+		return ordinals.computeIfAbsent(value, key -> ordinals.size() + 1);
+	}
+	// --------
+
+	public long getWrittenCount() {
+		return written.sum();
+	}
+
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public void setPath(Path path) {
+		this.path = path;
+	}
+
+	public long getMaxRequests() {
+		return maxRequests;
+	}
+
+	public void setMaxRequests(long maxRequests) {
+		this.maxRequests = maxRequests;
+	}
+
+	public DataSize getMaxBodySize() {
+		return maxBodySize;
+	}
+
+	public void setMaxBodySize(DataSize maxBodySize) {
+		this.maxBodySize = maxBodySize;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+}
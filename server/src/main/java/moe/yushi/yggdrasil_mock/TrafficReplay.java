@@ -0,0 +1,706 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.text.MessageFormat.format;
+import static moe.yushi.yggdrasil_mock.UUIDUtils.randomUnsignedUUID;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.lang.Nullable;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Replays the traffic recorded by {@link TrafficCapture} against a running server, and compares the latency
+ * of each endpoint with the capture, or with a previous replay.
+ * <p>
+ * Usage: {@code replay <capture file> [--option=value]...}, see {@link #USAGE}.
+ * <p>
+ * Requests are sent at their original pace (or faster, see {@code --speed}), whether the previous ones have completed or not,
+ * and their latency is measured from the time they were scheduled. Tokens and serverIds are mapped to the ones of the replay:
+ * a request using a token waits for the replayed request that issued it, and {@code hasJoined} waits for the {@code join}
+ * with the same serverId. Tokens issued before the capture started
+ * can't be mapped, the requests using them are skipped, unless they failed originally (an invalid token is sent instead).
+ * Passwords are read from the configuration file, as for {@code load-test}; the logins that failed originally
+ * are sent with a wrong password.
+ * <p>
+ * The server under test should have the same users (and character UUIDs) as the one the traffic was captured from, and run
+ * without rate limits ({@code yggdrasil.rate-limit.ip-limit-duration: 0} and {@code limit-duration: 0}). Note that the latencies of the capture are measured
+ * by the server, while the ones of a replay include the network and the client.
+ */
+public final class TrafficReplay {
+
+	private static final String USAGE = String.join("\n",
+			"Usage: replay <capture file> [--option=value]...",
+			"  --url=http://localhost:8080/    server to replay to",
+			"  --config=./application.yaml     where the passwords are read from",
+			"  --speed=1                       2 sends the requests twice as fast",
+			"  --concurrency=1000              max requests in flight, the others wait",
+			"  --connections=500",
+			"  --h2c                           use HTTP/2 over cleartext",
+			"  --save=<file>                   write the latency distributions, to be used as a baseline",
+			"  --baseline=<file>               compare with a previous replay, instead of the capture",
+			"  --max-regression=<ratio>        fail if the p99 of an endpoint exceeds the baseline's by this ratio",
+			"Exits with 2 if --max-regression is exceeded.");
+
+	private static final Duration REPORT_INTERVAL = Duration.ofSeconds(5);
+	private static final String INVALID_TOKEN = "00000000000000000000000000000000";
+	private static final String WRONG_PASSWORD = "\u0000wrong password";
+	private static final byte[] EMPTY = new byte[0];
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	private static final Map<String, Pattern> ENDPOINTS = new LinkedHashMap<>();
+	static {
+		ENDPOINTS.put("authenticate", Pattern.compile(".*/authserver/authenticate"));
+		ENDPOINTS.put("refresh", Pattern.compile(".*/authserver/refresh"));
+		ENDPOINTS.put("validate", Pattern.compile(".*/authserver/validate"));
+		ENDPOINTS.put("invalidate", Pattern.compile(".*/authserver/invalidate"));
+		ENDPOINTS.put("signout", Pattern.compile(".*/authserver/signout"));
+		ENDPOINTS.put("join", Pattern.compile(".*/sessionserver/session/minecraft/join"));
+		ENDPOINTS.put("joinEvents", Pattern.compile(".*/sessionserver/session/minecraft/join/events"));
+		ENDPOINTS.put("hasJoined", Pattern.compile(".*/sessionserver/session/minecraft/hasJoined"));
+		ENDPOINTS.put("profile", Pattern.compile(".*/sessionserver/session/minecraft/profile/[^/]+"));
+		ENDPOINTS.put("profiles", Pattern.compile(".*/sessionserver/session/minecraft/profiles"));
+		ENDPOINTS.put("query", Pattern.compile(".*/api/profiles/minecraft"));
+		ENDPOINTS.put("texture", Pattern.compile(".*/textures/[^/]+"));
+		ENDPOINTS.put("textureUpload", Pattern.compile(".*/api/user/profile/[^/]+/[^/]+"));
+	}
+
+	private static class Options {
+		Path capture;
+		String url = "http://localhost:8080/";
+		Path config = Paths.get("./application.yaml");
+		double speed = 1;
+		int concurrency = 1000;
+		int connections = 500;
+		boolean h2c = false;
+		Path save;
+		Path baseline;
+		double maxRegression = Double.NaN;
+
+		static Options parse(String[] args) {
+			var options = new Options();
+			for (var arg : args) {
+				if (arg.equals("--h2c")) {
+					options.h2c = true;
+					continue;
+				}
+				if (!arg.startsWith("--")) {
+					if (options.capture != null)
+						throw new IllegalArgumentException("More than one capture file");
+					options.capture = Paths.get(arg);
+					continue;
+				}
+				int eq = arg.indexOf('=');
+				if (eq == -1)
+					throw new IllegalArgumentException("Invalid option: " + arg);
+				var key = arg.substring(2, eq);
+				var value = arg.substring(eq + 1);
+				switch (key) {
+					case "url":
+						options.url = value;
+						break;
+					case "config":
+						options.config = Paths.get(value);
+						break;
+					case "speed":
+						options.speed = Double.parseDouble(value);
+						break;
+					case "concurrency":
+						options.concurrency = Integer.parseInt(value);
+						break;
+					case "connections":
+						options.connections = Integer.parseInt(value);
+						break;
+					case "save":
+						options.save = Paths.get(value);
+						break;
+					case "baseline":
+						options.baseline = Paths.get(value);
+						break;
+					case "max-regression":
+						options.maxRegression = Double.parseDouble(value);
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown option: " + key);
+				}
+			}
+			if (options.capture == null)
+				throw new IllegalArgumentException("No capture file given");
+			if (options.speed <= 0)
+				throw new IllegalArgumentException("speed must be positive");
+			return options;
+		}
+	}
+
+	/**
+	 * Latencies of an endpoint. Recorded from any thread, collected by {@link TrafficReplay#collect()}.
+	 */
+	private static class Stats {
+		final String name;
+		final Recorder recorder = new Recorder(3);
+		final LongAdder statusMismatches = new LongAdder();
+		final LongAdder errors = new LongAdder();
+		final LongAdder skipped = new LongAdder();
+		volatile String lastError;
+
+		final Histogram total = new Histogram(3);
+		Histogram interval;
+
+		Stats(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * The value of a token or a serverId can't be mapped to the replay.
+	 */
+	private static class UnmappedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		UnmappedException(String message) {
+			super(message, null, false, false);
+		}
+	}
+
+	public static int run(String[] args) {
+		if (List.of(args).contains("--help")) {
+			System.err.println(USAGE);
+			return 0;
+		}
+
+		Options options;
+		try {
+			options = Options.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return 1;
+		}
+
+		// not started by Spring Boot, which would have configured this
+		LoggingSystem.get(TrafficReplay.class.getClassLoader()).setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.WARN);
+
+		Function<String, String> passwords;
+		try {
+			passwords = loadPasswords(options.config);
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.println(format("Unable to read users from {0}: {1}", options.config, e));
+			return 1;
+		}
+
+		List<CapturedRequest> requests;
+		try {
+			requests = loadCapture(options.capture);
+		} catch (IOException e) {
+			System.err.println(format("Unable to read {0}: {1}", options.capture, e));
+			return 1;
+		}
+
+		Map<String, Histogram> baseline;
+		if (options.baseline == null) {
+			baseline = capturedLatencies(requests);
+		} else {
+			try {
+				baseline = loadHistograms(options.baseline);
+			} catch (IOException e) {
+				System.err.println(format("Unable to read {0}: {1}", options.baseline, e));
+				return 1;
+			}
+		}
+
+		return new TrafficReplay(options, requests, passwords).execute(baseline);
+	}
+
+	/**
+	 * @return the password of the given user (email or character name), or null if unknown
+	 */
+	private static Function<String, String> loadPasswords(Path config) throws IOException {
+		var generator = LoadGenerator.readGenerator(LoadGenerator.readConfig(config));
+		if (generator != null) {
+			return username -> {
+				int n = generator.parseEmail(username);
+				if (n == -1)
+					n = generator.parseCharacterName(username);
+				return n == -1 ? null : generator.password(n);
+			};
+		}
+		var passwords = new HashMap<String, String>();
+		for (var user : DatabaseImageCompiler.readYaml(config)) {
+			if (user.password == null || user.password.startsWith("{"))
+				continue;
+			passwords.put(user.email, user.password);
+			for (var character : user.characters)
+				passwords.put(character.name, user.password);
+		}
+		return passwords::get;
+	}
+
+	private static List<CapturedRequest> loadCapture(Path file) throws IOException {
+		var requests = new ArrayList<CapturedRequest>();
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			CapturedRequest.readHeader(in);
+			CapturedRequest request;
+			while ((request = CapturedRequest.read(in)) != null)
+				requests.add(request);
+		}
+		// written in the order they completed
+		requests.sort(Comparator.comparingLong(request -> request.arrival));
+		// replayed from the first request, not from the start of the capture
+		if (!requests.isEmpty()) {
+			long first = requests.get(0).arrival;
+			for (var request : requests)
+				request.arrival -= first;
+		}
+		return requests;
+	}
+
+	private static Map<String, Histogram> capturedLatencies(List<CapturedRequest> requests) {
+		var result = new LinkedHashMap<String, Histogram>();
+		for (var request : requests) {
+			result.computeIfAbsent(endpoint(request.path), name -> new Histogram(3))
+					.recordValue(request.latency * 1000);
+		}
+		return result;
+	}
+
+	private static Map<String, Histogram> loadHistograms(Path file) throws IOException {
+		var result = new LinkedHashMap<String, Histogram>();
+		try (var in = Files.newInputStream(file)) {
+			var reader = new HistogramLogReader(in);
+			while (reader.hasNext()) {
+				var histogram = (Histogram) reader.nextIntervalHistogram();
+				if (histogram != null)
+					result.put(histogram.getTag(), histogram);
+			}
+		}
+		return result;
+	}
+
+	private static String endpoint(String path) {
+		for (var entry : ENDPOINTS.entrySet()) {
+			if (entry.getValue().matcher(path).matches())
+				return entry.getKey();
+		}
+		return "other";
+	}
+
+	private final Options options;
+	private final List<CapturedRequest> requests;
+	private final Function<String, String> passwords;
+	private final WebClient client;
+	private final ConnectionProvider connectionProvider;
+	private final String baseUrl;
+
+	private final Map<String, Stats> allStats = new ConcurrentHashMap<>();
+
+	// ---- Mapping ----
+	private final Map<Integer, Sinks.One<String>> issuedAccessTokens = new HashMap<>();
+	private final Map<Integer, Sinks.One<String>> issuedClientTokens = new HashMap<>();
+	private final Map<Integer, String> clientTokens = new ConcurrentHashMap<>();
+	private final Map<Integer, String> serverIds = new ConcurrentHashMap<>();
+	private final Map<CapturedRequest, Sinks.Empty<Void>> joins = new IdentityHashMap<>();
+	private final Map<Integer, Mono<Void>> joined = new HashMap<>();
+	// --------
+
+	private long start;
+	private final LongAdder sent = new LongAdder();
+
+	private TrafficReplay(Options options, List<CapturedRequest> requests, Function<String, String> passwords) {
+		this.options = options;
+		this.requests = requests;
+		this.passwords = passwords;
+		this.baseUrl = options.url.endsWith("/") ? options.url.substring(0, options.url.length() - 1) : options.url;
+
+		for (var request : requests) {
+			if (request.issuedAccessToken != 0)
+				issuedAccessTokens.put(request.issuedAccessToken, Sinks.one());
+			if (request.issuedClientToken != 0)
+				issuedClientTokens.put(request.issuedClientToken, Sinks.one());
+			if (endpoint(request.path).equals("join")) {
+				int serverId = joinServerId(request);
+				if (serverId != 0 && !joined.containsKey(serverId)) {
+					Sinks.Empty<Void> sink = Sinks.empty();
+					joins.put(request, sink);
+					joined.put(serverId, sink.asMono());
+				}
+			}
+		}
+
+		connectionProvider = ConnectionProvider.builder("replay")
+				.maxConnections(options.connections)
+				.pendingAcquireMaxCount(-1)
+				.build();
+		var httpClient = HttpClient.create(connectionProvider);
+		if (options.h2c)
+			httpClient = httpClient.protocol(HttpProtocol.H2C);
+		client = WebClient.builder()
+				.clientConnector(new ReactorClientHttpConnector(httpClient))
+				.build();
+	}
+
+	private int execute(Map<String, Histogram> baseline) {
+		long duration = requests.isEmpty() ? 0 : requests.get(requests.size() - 1).arrival;
+		System.err.println(format("{0} requests over {1}s, speed {2}",
+				requests.size(), duration / 1_000_000, options.speed));
+
+		start = System.nanoTime();
+		var reporter = Flux.interval(REPORT_INTERVAL, REPORT_INTERVAL)
+				.subscribe(tick -> {
+					collect();
+					printProgress();
+				});
+
+		Flux.fromIterable(requests)
+				.concatMap(request -> {
+					long delay = scheduledAt(request) - System.nanoTime();
+					return delay <= 0 ? Mono.just(request) : Mono.delay(Duration.ofNanos(delay)).thenReturn(request);
+				})
+				.flatMap(this::replay, options.concurrency)
+				.blockLast();
+
+		reporter.dispose();
+		collect();
+		connectionProvider.disposeLater().block();
+
+		printReport(System.out, baseline);
+		if (options.save != null) {
+			try {
+				saveHistograms(options.save);
+			} catch (IOException e) {
+				System.err.println(format("Unable to write histograms to {0}: {1}", options.save, e));
+			}
+		}
+		return checkRegression(baseline) ? 0 : 2;
+	}
+
+	private long scheduledAt(CapturedRequest request) {
+		return start + (long) (request.arrival * 1000 / options.speed);
+	}
+
+	// ---- Replay ----
+	private Mono<Void> replay(CapturedRequest request) {
+		var stats = allStats.computeIfAbsent(endpoint(request.path), Stats::new);
+		if (stats.name.equals("joinEvents")) {
+			// streams, which never complete
+			stats.skipped.increment();
+			return Mono.empty();
+		}
+		long scheduledAt = scheduledAt(request);
+		sent.increment();
+
+		var bearer = request.bearerToken == 0 ? Mono.just("") : accessToken(request.bearerToken, request.status);
+		return waitForJoin(request)
+				.then(Mono.zip(bearer, body(request)))
+				.flatMap(resolved -> send(request, resolved.getT1(), resolved.getT2()))
+				.doOnNext(response -> {
+					stats.recorder.recordValue(System.nanoTime() - scheduledAt);
+					if (request.status != 0 && response.status != request.status)
+						stats.statusMismatches.increment();
+					issueTokens(request, response);
+				})
+				.onErrorResume(UnmappedException.class, e -> {
+					stats.skipped.increment();
+					stats.lastError = e.getMessage();
+					issueTokens(request, null);
+					return Mono.empty();
+				})
+				.onErrorResume(e -> {
+					stats.errors.increment();
+					stats.lastError = e.toString();
+					issueTokens(request, null);
+					return Mono.empty();
+				})
+				.doFinally(signal -> {
+					var join = joins.get(request);
+					if (join != null)
+						join.tryEmitEmpty();
+				})
+				.then();
+	}
+
+	private Mono<Void> waitForJoin(CapturedRequest request) {
+		for (var param : request.query) {
+			if (param.getKey().equals("serverId")) {
+				var join = joined.get(Integer.parseInt(param.getValue()));
+				if (join != null)
+					return join;
+			}
+		}
+		return Mono.empty();
+	}
+
+	private static int joinServerId(CapturedRequest request) {
+		if (request.body == null)
+			return 0;
+		try {
+			return objectMapper.readTree(request.body).path("serverId").asInt(0);
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	private static class Response {
+		int status;
+		byte[] body;
+	}
+
+	private Mono<Response> send(CapturedRequest request, String bearer, byte[] body) {
+		var uri = new StringBuilder(baseUrl).append(request.path);
+		char separator = '?';
+		for (var param : request.query) {
+			var value = param.getValue();
+			if (param.getKey().equals("serverId"))
+				value = serverId(Integer.parseInt(value));
+			uri.append(separator)
+					.append(UriUtils.encodeQueryParam(param.getKey(), StandardCharsets.UTF_8))
+					.append('=')
+					.append(UriUtils.encodeQueryParam(value, StandardCharsets.UTF_8));
+			separator = '&';
+		}
+
+		var spec = client.method(request.method).uri(URI.create(uri.toString()));
+		if (!bearer.isEmpty())
+			spec.header(HttpHeaders.AUTHORIZATION, "Bearer " + bearer);
+		if (request.contentType != null)
+			spec.contentType(MediaType.parseMediaType(request.contentType));
+		if (body.length > 0)
+			spec.bodyValue(body);
+		return spec.exchangeToMono(clientResponse -> clientResponse.bodyToMono(byte[].class)
+				.defaultIfEmpty(EMPTY)
+				.map(responseBody -> {
+					var response = new Response();
+					response.status = clientResponse.rawStatusCode();
+					response.body = responseBody;
+					return response;
+				}));
+	}
+
+	/**
+	 * Replaces the ordinals of the body with the values of the replay, and adds the password.
+	 */
+	private Mono<byte[]> body(CapturedRequest request) {
+		if (request.body == null)
+			return Mono.just(EMPTY);
+		if (request.contentType == null || !MediaType.APPLICATION_JSON.isCompatibleWith(MediaType.parseMediaType(request.contentType)))
+			return Mono.just(request.body);
+
+		ObjectNode object;
+		try {
+			var tree = objectMapper.readTree(request.body);
+			if (!(tree instanceof ObjectNode))
+				return Mono.just(request.body);
+			object = (ObjectNode) tree;
+		} catch (IOException e) {
+			return Mono.error(e);
+		}
+
+		if (object.has("serverId"))
+			object.put("serverId", serverId(object.get("serverId").asInt()));
+		if (object.has("username") && !object.has("password")) {
+			String password;
+			if (request.status >= 400) {
+				password = WRONG_PASSWORD;
+			} else {
+				password = passwords.apply(object.get("username").asText());
+				if (password == null)
+					return Mono.error(new UnmappedException("Unknown user: " + object.get("username").asText()));
+			}
+			object.put("password", password);
+		}
+
+		Mono<ObjectNode> result = Mono.just(object);
+		if (object.has("accessToken"))
+			result = result.zipWith(accessToken(object.get("accessToken").asInt(), request.status), (node, token) -> node.put("accessToken", token));
+		if (object.has("clientToken"))
+			result = result.zipWith(clientToken(object.get("clientToken").asInt()), (node, token) -> node.put("clientToken", token));
+		return result.map(node -> {
+			try {
+				return objectMapper.writeValueAsBytes(node);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	private Mono<String> accessToken(int ordinal, int originalStatus) {
+		var issued = issuedAccessTokens.get(ordinal);
+		if (issued != null)
+			return issued.asMono();
+		if (originalStatus >= 400)
+			return Mono.just(INVALID_TOKEN);
+		return Mono.error(new UnmappedException("Access token #" + ordinal + " was issued before the capture"));
+	}
+
+	private Mono<String> clientToken(int ordinal) {
+		var issued = issuedClientTokens.get(ordinal);
+		if (issued != null)
+			return issued.asMono();
+		// chosen by the client
+		return Mono.just(clientTokens.computeIfAbsent(ordinal, key -> randomUnsignedUUID()));
+	}
+
+	private String serverId(int ordinal) {
+		return serverIds.computeIfAbsent(ordinal, key -> Long.toHexString(ThreadLocalRandom.current().nextLong()));
+	}
+
+	/**
+	 * Completes the tokens issued by the request, with invalid ones if it failed.
+	 */
+	private void issueTokens(CapturedRequest request, @Nullable Response response) {
+		String accessToken = INVALID_TOKEN;
+		String clientToken = randomUnsignedUUID();
+		if (response != null && response.status == 200) {
+			try {
+				var tree = objectMapper.readTree(response.body);
+				accessToken = tree.path("accessToken").asText(accessToken);
+				clientToken = tree.path("clientToken").asText(clientToken);
+			} catch (IOException e) {
+				// keep the invalid ones
+			}
+		}
+		if (request.issuedAccessToken != 0)
+			issuedAccessTokens.get(request.issuedAccessToken).tryEmitValue(accessToken);
+		if (request.issuedClientToken != 0)
+			issuedClientTokens.get(request.issuedClientToken).tryEmitValue(clientToken);
+	}
+	// --------
+
+	// ---- Reporting ----
+	private synchronized void collect() {
+		for (var stats : allStats.values()) {
+			stats.interval = stats.recorder.getIntervalHistogram(stats.interval);
+			stats.total.add(stats.interval);
+		}
+	}
+
+	private synchronized void printProgress() {
+		long count = 0;
+		var all = new Histogram(3);
+		for (var stats : allStats.values()) {
+			count += stats.interval.getTotalCount();
+			all.add(stats.interval);
+		}
+		System.err.println(String.format("[%ds] sent %d, completed %d/s, p99 %.2f ms",
+				(System.nanoTime() - start) / 1_000_000_000L,
+				sent.sum(),
+				count / REPORT_INTERVAL.toSeconds(),
+				toMillis(all.getValueAtPercentile(99))));
+	}
+
+	private List<Stats> sortedStats() {
+		var result = new ArrayList<Stats>();
+		for (var name : ENDPOINTS.keySet()) {
+			var stats = allStats.get(name);
+			if (stats != null)
+				result.add(stats);
+		}
+		var other = allStats.get("other");
+		if (other != null)
+			result.add(other);
+		return result;
+	}
+
+	private void printReport(PrintStream out, Map<String, Histogram> baseline) {
+		out.println(String.format("%-14s %9s %8s %8s %8s %9s %9s %9s %9s | %9s %9s %7s",
+				"", "count", "skipped", "mismatch", "errors", "p50 ms", "p90 ms", "p99 ms", "max ms", "base p50", "base p99", "ratio"));
+		for (var stats : sortedStats()) {
+			var h = stats.total;
+			var base = baseline.get(stats.name);
+			out.print(String.format("%-14s %9d %8d %8d %8d %9.2f %9.2f %9.2f %9.2f",
+					stats.name, h.getTotalCount(), stats.skipped.sum(), stats.statusMismatches.sum(), stats.errors.sum(),
+					toMillis(h.getValueAtPercentile(50)), toMillis(h.getValueAtPercentile(90)),
+					toMillis(h.getValueAtPercentile(99)), toMillis(h.getMaxValue())));
+			if (base != null && base.getTotalCount() > 0 && h.getTotalCount() > 0) {
+				out.print(String.format(" | %9.2f %9.2f %7.2f",
+						toMillis(base.getValueAtPercentile(50)), toMillis(base.getValueAtPercentile(99)),
+						(double) h.getValueAtPercentile(99) / base.getValueAtPercentile(99)));
+			}
+			out.println();
+			if (stats.lastError != null)
+				out.println("  last error: " + stats.lastError);
+		}
+		if (options.baseline == null)
+			out.println("(baseline: server-side latencies of the capture)");
+	}
+
+	private void saveHistograms(Path file) throws IOException {
+		try (var out = new PrintStream(Files.newOutputStream(file), false, StandardCharsets.UTF_8)) {
+			var writer = new HistogramLogWriter(out);
+			writer.outputLogFormatVersion();
+			for (var stats : sortedStats()) {
+				if (stats.total.getTotalCount() == 0)
+					continue;
+				stats.total.setTag(stats.name);
+				writer.outputIntervalHistogram(stats.total);
+			}
+		}
+	}
+
+	private boolean checkRegression(Map<String, Histogram> baseline) {
+		if (Double.isNaN(options.maxRegression))
+			return true;
+		boolean met = true;
+		Set<String> compared = new HashSet<>();
+		for (var stats : sortedStats()) {
+			var base = baseline.get(stats.name);
+			if (base == null || base.getTotalCount() == 0 || stats.total.getTotalCount() == 0)
+				continue;
+			compared.add(stats.name);
+			double ratio = (double) stats.total.getValueAtPercentile(99) / base.getValueAtPercentile(99);
+			if (ratio > options.maxRegression) {
+				System.err.println(String.format("Regression: %s p99 = %.2f ms, %.2f times the baseline",
+						stats.name, toMillis(stats.total.getValueAtPercentile(99)), ratio));
+				met = false;
+			}
+		}
+		if (compared.isEmpty()) {
+			System.err.println("Regression check: no endpoint in common with the baseline");
+			met = false;
+		}
+		return met;
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / 1e6;
+	}
+	// --------
+}
@@ -5,8 +5,13 @@ import java.util.UUID;
 public final class UUIDUtils {
 	private UUIDUtils() {}
 
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
 	public static String unsign(UUID uuid) {
-		return uuid.toString().replace("-", "");
+		var chars = new char[32];
+		toHex(uuid.getMostSignificantBits(), chars, 0);
+		toHex(uuid.getLeastSignificantBits(), chars, 16);
+		return new String(chars);
 	}
 
 	public static String unsign(String uuid) {
@@ -19,7 +24,7 @@ public final class UUIDUtils {
 				return UUID.fromString(uuid);
 
 			case 32:
-				return UUID.fromString(uuid.substring(0, 8) + "-" + uuid.substring(8, 12) + "-" + uuid.substring(12, 16) + "-" + uuid.substring(16, 20) + "-" + uuid.substring(20, 32));
+				return new UUID(parseHex(uuid, 0), parseHex(uuid, 16));
 
 			default:
 				throw new IllegalArgumentException("Invalid UUID: " + uuid);
@@ -29,4 +34,22 @@ public final class UUIDUtils {
 	public static String randomUnsignedUUID() {
 		return unsign(UUID.randomUUID());
 	}
+
+	private static void toHex(long value, char[] dest, int offset) {
+		for (int i = 15; i >= 0; i--) {
+			dest[offset + i] = HEX_DIGITS[(int) (value & 0xf)];
+			value >>>= 4;
+		}
+	}
+
+	private static long parseHex(String str, int offset) {
+		long value = 0;
+		for (int i = offset; i < offset + 16; i++) {
+			int digit = Character.digit(str.charAt(i), 16);
+			if (digit == -1)
+				throw new IllegalArgumentException("Invalid UUID: " + str);
+			value = value << 4 | digit;
+		}
+		return value;
+	}
 }
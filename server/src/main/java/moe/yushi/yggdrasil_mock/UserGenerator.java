@@ -0,0 +1,198 @@
+package moe.yushi.yggdrasil_mock;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.ModelType;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.TextureType;
+
+/**
+ * Describes a population of virtual users, each having one character.
+ * <p>
+ * User number {@code n} (0 &lt;= n &lt; count) is derived from the patterns by replacing {@code {n}} with {@code n}.
+ * UUIDs are derived from the seed and {@code n}, and can be mapped back to {@code n},
+ * so that every lookup is answered in constant time without storing anything.
+ */
+public class UserGenerator {
+
+	private static final String PLACEHOLDER = "{n}";
+
+	private static final int KIND_USER = 0;
+	private static final int KIND_CHARACTER = 1;
+
+	private static final long VARIANT_MASK = 0xc000_0000_0000_0000L;
+	private static final long VARIANT = 0x8000_0000_0000_0000L;
+
+	private boolean enabled = false;
+	private int count = 100_000;
+	private long seed = 0;
+	private String email = "user-{n}@example.com";
+	private String password = "password-{n}";
+	private String characterName = "player{n}";
+	private ModelType model = ModelType.STEVE;
+	private Map<TextureType, Texture> textures = new EnumMap<>(TextureType.class);
+	private List<TextureType> uploadableTextures = new ArrayList<>();
+
+	// ---- Forward mapping ----
+	public String email(int n) {
+		return email.replace(PLACEHOLDER, Integer.toString(n));
+	}
+
+	public String password(int n) {
+		return password.replace(PLACEHOLDER, Integer.toString(n));
+	}
+
+	public String characterName(int n) {
+		return characterName.replace(PLACEHOLDER, Integer.toString(n));
+	}
+
+	public UUID userId(int n) {
+		return toUUID(KIND_USER, n);
+	}
+
+	public UUID characterUuid(int n) {
+		return toUUID(KIND_CHARACTER, n);
+	}
+	// --------
+
+	// ---- Reverse mapping ----
+	// All of them return the number of the user, or -1 if the value isn't generated.
+
+	public int parseEmail(String value) {
+		return parse(email, value);
+	}
+
+	public int parseCharacterName(String value) {
+		return parse(characterName, value);
+	}
+
+	public int parseUserId(UUID uuid) {
+		return fromUUID(KIND_USER, uuid);
+	}
+
+	public int parseCharacterUuid(UUID uuid) {
+		return fromUUID(KIND_CHARACTER, uuid);
+	}
+	// --------
+
+	private int parse(String pattern, String value) {
+		int placeholder = pattern.indexOf(PLACEHOLDER);
+		var prefix = pattern.substring(0, placeholder);
+		var suffix = pattern.substring(placeholder + PLACEHOLDER.length());
+		if (value.length() <= prefix.length() + suffix.length() || !value.startsWith(prefix) || !value.endsWith(suffix))
+			return -1;
+
+		int begin = prefix.length();
+		int end = value.length() - suffix.length();
+		if (end - begin > 10 || (end - begin > 1 && value.charAt(begin) == '0'))
+			return -1;
+		long n = 0;
+		for (int i = begin; i < end; i++) {
+			char ch = value.charAt(i);
+			if (ch < '0' || ch > '9')
+				return -1;
+			n = n * 10 + (ch - '0');
+		}
+		return n < count ? (int) n : -1;
+	}
+
+	private long uuidHigh(int kind) {
+		// version 4
+		return (mix(seed * 2 + kind) & ~0xf000L) | 0x4000L;
+	}
+
+	private long uuidMask(int kind) {
+		return mix(~seed * 2 + kind) & ~VARIANT_MASK;
+	}
+
+	private UUID toUUID(int kind, int n) {
+		return new UUID(uuidHigh(kind), VARIANT | (n ^ uuidMask(kind)));
+	}
+
+	private int fromUUID(int kind, UUID uuid) {
+		long low = uuid.getLeastSignificantBits();
+		if (uuid.getMostSignificantBits() != uuidHigh(kind) || (low & VARIANT_MASK) != VARIANT)
+			return -1;
+		long n = (low ^ uuidMask(kind)) & ~VARIANT_MASK;
+		return n < count ? (int) n : -1;
+	}
+
+	private static long mix(long x) {
+		x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+		x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+		return x ^ (x >>> 31);
+	}
+
+	private static String checkPattern(String pattern) {
+		int placeholder = pattern.indexOf(PLACEHOLDER);
+		if (placeholder == -1 || pattern.indexOf(PLACEHOLDER, placeholder + 1) != -1)
+			throw new IllegalArgumentException("pattern must contain exactly one " + PLACEHOLDER + ": " + pattern);
+		return pattern;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public void setEmail(String email) {
+		this.email = checkPattern(email);
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	public String getCharacterName() {
+		return characterName;
+	}
+
+	public void setCharacterName(String characterName) {
+		this.characterName = checkPattern(characterName);
+	}
+
+	public ModelType getModel() {
+		return model;
+	}
+
+	public void setModel(ModelType model) {
+		this.model = model;
+	}
+
+	public Map<TextureType, Texture> getTextures() {
+		return textures;
+	}
+
+	public List<TextureType> getUploadableTextures() {
+		return uploadableTextures;
+	}
+}
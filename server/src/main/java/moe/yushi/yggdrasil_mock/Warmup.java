@@ -0,0 +1,375 @@
+package moe.yushi.yggdrasil_mock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Map.entry;
+import static java.util.Map.ofEntries;
+import static moe.yushi.yggdrasil_mock.UUIDUtils.unsign;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import javax.imageio.ImageIO;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.AbstractServerHttpRequest;
+import org.springframework.http.server.reactive.AbstractServerHttpResponse;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.SslInfo;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.TextureType;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilCharacter;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilUser;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs a synthetic workload before the server starts listening, so that the players reconnecting after a restart
+ * don't hit interpreted code. Enabled by {@code yggdrasil.warmup.enabled}.
+ * <p>
+ * The requests are made in-process, and go through the same filters, handlers, codecs and exception handler
+ * as real ones, except for the access log, traffic capture, metrics and admission control, which they would skew,
+ * and the fault injector.
+ * They are served by a detached {@link Realm} of throwaway users, so that no token, pending authentication,
+ * texture or rate limiter bucket is left behind once it's done, and the signatures they need aren't recorded
+ * by {@link Metrics} either.
+ * <p>
+ * Warmup stops after {@code iterations} iterations (each of them being a login, a server join, profile queries,
+ * a texture upload and a logout), or once {@code time-budget} has elapsed, whichever comes first.
+ * The port is bound only then, so readiness probes fail until it's done.
+ */
+@Component
+@ConditionalOnProperty(name = "yggdrasil.warmup.enabled")
+@ConfigurationProperties(prefix = "yggdrasil.warmup")
+public class Warmup implements SmartLifecycle {
+
+	private static final int USERS = 1000;
+	private static final int TEXTURES = 16;
+	private static final String PASSWORD = "warmup";
+	private static final String INVALID_TOKEN = "00000000000000000000000000000000";
+	private static final String BOUNDARY = "warmup-boundary";
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	private static class WarmupRequest extends AbstractServerHttpRequest {
+		private final HttpMethod method;
+		private final byte[] body;
+
+		WarmupRequest(HttpMethod method, URI uri, HttpHeaders headers, byte[] body) {
+			super(uri, "", headers);
+			this.method = method;
+			this.body = body;
+		}
+
+		@Override
+		public String getMethodValue() {
+			return method.name();
+		}
+
+		@Override
+		public Flux<DataBuffer> getBody() {
+			return body.length == 0 ? Flux.empty() : Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(body));
+		}
+
+		@Override
+		protected MultiValueMap<String, HttpCookie> initCookies() {
+			return new LinkedMultiValueMap<>();
+		}
+
+		@Override
+		@Nullable
+		protected SslInfo initSslInfo() {
+			return null;
+		}
+
+		@Override
+		public <T> T getNativeRequest() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static class WarmupResponse extends AbstractServerHttpResponse {
+		private byte[] body = new byte[0];
+
+		WarmupResponse() {
+			super(DefaultDataBufferFactory.sharedInstance);
+		}
+
+		int getStatus() {
+			var status = getRawStatusCode();
+			return status == null ? 200 : status;
+		}
+
+		@Override
+		protected Mono<Void> writeWithInternal(Publisher<? extends DataBuffer> body) {
+			return DataBufferUtils.join(body)
+					.doOnNext(buffer -> {
+						this.body = new byte[buffer.readableByteCount()];
+						buffer.read(this.body);
+						DataBufferUtils.release(buffer);
+					})
+					.then();
+		}
+
+		@Override
+		protected Mono<Void> writeAndFlushWithInternal(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+			return Flux.from(body).concatMap(this::writeWithInternal).then();
+		}
+
+		@Override
+		protected void applyStatusCode() {
+		}
+
+		@Override
+		protected void applyHeaders() {
+		}
+
+		@Override
+		protected void applyCookies() {
+		}
+
+		@Override
+		public <T> T getNativeResponse() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(Warmup.class);
+
+	private @Autowired ApplicationContext ctx;
+	private @Autowired Realms realms;
+	private @Autowired RateLimiter rateLimiter;
+
+	private int iterations = 10_000;
+	private Duration timeBudget = Duration.ofSeconds(30);
+
+	private volatile boolean running;
+
+	// ---- Workload ----
+	private HttpHandler handler;
+	private List<YggdrasilUser> users;
+	private List<byte[]> textures;
+	private List<String> textureHashes;
+	// --------
+
+	@Override
+	public void start() {
+		warmup();
+		running = true;
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public int getPhase() {
+		// right before the web server, which starts listening in phase Integer.MAX_VALUE - 1
+		return Integer.MAX_VALUE - 2;
+	}
+
+	private void warmup() {
+		long start = System.nanoTime();
+		long deadline = start + timeBudget.toNanos();
+		try {
+			prepare();
+			int i = 0;
+			for (; i < iterations && System.nanoTime() - deadline < 0; i++) {
+				iteration(i);
+			}
+			logger.info("Warmed up in {} ms ({} iterations)", (System.nanoTime() - start) / 1_000_000, i);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (users != null)
+				users.forEach(rateLimiter::forget);
+			handler = null;
+			users = null;
+			textures = null;
+			textureHashes = null;
+		}
+	}
+
+	private void prepare() throws IOException {
+		users = new ArrayList<>(USERS);
+		for (int n = 0; n < USERS; n++) {
+			var user = new YggdrasilUser();
+			user.setEmail("warmup-" + n + "@warmup.invalid");
+			user.setPassword(PASSWORD);
+			var character = new YggdrasilCharacter();
+			character.setName("warmup" + n);
+			character.setUploadableTextures(Set.of(TextureType.SKIN));
+			user.setCharacters(List.of(character));
+			users.add(user);
+		}
+		var realm = realms.createDetachedRealm("warmup", users);
+
+		textures = new ArrayList<>(TEXTURES);
+		textureHashes = new ArrayList<>(TEXTURES);
+		for (int n = 0; n < TEXTURES; n++) {
+			var img = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+			for (int x = 0; x < 64; x++) {
+				for (int y = 0; y < 64; y++) {
+					img.setRGB(x, y, 0xff000000 | (n * 0x0f0f0f + x * 0x0400 + y * 0x04));
+				}
+			}
+			var png = new ByteArrayOutputStream();
+			ImageIO.write(img, "png", png);
+			textures.add(png.toByteArray());
+			textureHashes.add(Texture.computeTextureHash(img));
+		}
+
+		WebFilter selectRealm = (exchange, chain) -> {
+			exchange.getAttributes().put(Realm.ATTRIBUTE, realm);
+			return chain.filter(exchange);
+		};
+		handler = WebHttpHandlerBuilder.applicationContext(ctx)
+				.filters(filters -> {
+					filters.removeIf(filter -> filter instanceof Realms
+							|| filter instanceof AccessLog
+							|| filter instanceof TrafficCapture
+							|| filter instanceof FaultInjector
+							|| filter instanceof AdmissionController
+							|| filter instanceof Metrics.RecordingFilter);
+					filters.add(0, selectRealm);
+				})
+				.build();
+	}
+
+	private void iteration(int i) throws IOException {
+		var user = users.get(i % USERS);
+		var character = user.getCharacters().get(0);
+		var uuid = unsign(character.getUuid());
+		var serverId = Integer.toHexString(i);
+
+		send(HttpMethod.GET, "/", null, 200);
+		send(HttpMethod.POST, "/authserver/validate", ofEntries(entry("accessToken", INVALID_TOKEN)), 403);
+		send(HttpMethod.GET, "/sessionserver/session/minecraft/profile/" + uuid, null, 200);
+		send(HttpMethod.POST, "/sessionserver/session/minecraft/profiles", List.of(uuid), 200);
+		send(HttpMethod.POST, "/api/profiles/minecraft", List.of(character.getName()), 200);
+
+		var login = send(HttpMethod.POST, "/authserver/authenticate", ofEntries(
+				entry("username", user.getEmail()),
+				entry("password", PASSWORD),
+				entry("requestUser", true)), 200, 403);
+		if (login.getStatus() != 200)
+			// rate limited
+			return;
+		var loginResponse = readTree(login);
+
+		var refreshRequest = new LinkedHashMap<String, Object>();
+		refreshRequest.put("accessToken", loginResponse.get("accessToken").asText());
+		refreshRequest.put("clientToken", loginResponse.get("clientToken").asText());
+		refreshRequest.put("requestUser", true);
+		// the only character of a user is selected at login
+		if (!loginResponse.has("selectedProfile"))
+			refreshRequest.put("selectedProfile", ofEntries(entry("id", uuid), entry("name", character.getName())));
+		var refresh = send(HttpMethod.POST, "/authserver/refresh", refreshRequest, 200);
+		var accessToken = readTree(refresh).get("accessToken").asText();
+
+		send(HttpMethod.POST, "/authserver/validate", ofEntries(entry("accessToken", accessToken)), 204);
+		send(HttpMethod.POST, "/sessionserver/session/minecraft/join", ofEntries(
+				entry("accessToken", accessToken),
+				entry("selectedProfile", uuid),
+				entry("serverId", serverId)), 204);
+		send(HttpMethod.GET, "/sessionserver/session/minecraft/hasJoined?username=" + character.getName() + "&serverId=" + serverId, null, 200);
+
+		int texture = i % TEXTURES;
+		send(HttpMethod.PUT, "/api/user/profile/" + uuid + "/skin", accessToken, textures.get(texture), 204);
+		send(HttpMethod.GET, "/textures/" + textureHashes.get(texture), null, 200);
+
+		send(HttpMethod.POST, "/authserver/invalidate", ofEntries(entry("accessToken", accessToken)), 204);
+	}
+
+	private static JsonNode readTree(WarmupResponse response) throws IOException {
+		return objectMapper.readTree(response.body);
+	}
+
+	private WarmupResponse send(HttpMethod method, String uri, @Nullable Object json, int... expectedStatus) throws IOException {
+		var headers = new HttpHeaders();
+		byte[] body;
+		if (json == null) {
+			body = new byte[0];
+		} else {
+			headers.setContentType(MediaType.APPLICATION_JSON);
+			body = objectMapper.writeValueAsBytes(json);
+		}
+		return send(new WarmupRequest(method, URI.create(uri), headers, body), expectedStatus);
+	}
+
+	private WarmupResponse send(HttpMethod method, String uri, String accessToken, byte[] texture, int... expectedStatus) throws IOException {
+		var headers = new HttpHeaders();
+		headers.setBearerAuth(accessToken);
+		headers.setContentType(MediaType.parseMediaType("multipart/form-data; boundary=" + BOUNDARY));
+		var body = new ByteArrayOutputStream();
+		body.write(("--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"model\"\r\n\r\n"
+				+ "slim\r\n"
+				+ "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"file\"; filename=\"skin.png\"\r\n"
+				+ "Content-Type: image/png\r\n\r\n").getBytes(UTF_8));
+		body.write(texture);
+		body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(UTF_8));
+		return send(new WarmupRequest(method, URI.create(uri), headers, body.toByteArray()), expectedStatus);
+	}
+
+	private WarmupResponse send(WarmupRequest request, int... expectedStatus) {
+		var response = new WarmupResponse();
+		handler.handle(request, response).block(REQUEST_TIMEOUT);
+		int status = response.getStatus();
+		for (int expected : expectedStatus) {
+			if (status == expected)
+				return response;
+		}
+		throw new IllegalStateException("Unexpected status " + status + " during warmup: " + request.getMethodValue() + " " + request.getURI()
+				+ " " + new String(response.body, UTF_8));
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+
+	public Duration getTimeBudget() {
+		return timeBudget;
+	}
+
+	public void setTimeBudget(Duration timeBudget) {
+		this.timeBudget = timeBudget;
+	}
+}
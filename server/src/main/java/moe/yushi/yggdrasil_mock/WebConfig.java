@@ -1,11 +1,25 @@
 package moe.yushi.yggdrasil_mock;
 
+import java.util.Map;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
 import org.springframework.core.convert.converter.Converter;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
 import org.springframework.format.FormatterRegistry;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.lang.Nullable;
+import org.springframework.util.MimeType;
+import org.springframework.web.reactive.BindingContext;
 import org.springframework.web.reactive.config.CorsRegistry;
 import org.springframework.web.reactive.config.EnableWebFlux;
 import org.springframework.web.reactive.config.WebFluxConfigurer;
+import org.springframework.web.reactive.result.method.SyncHandlerMethodArgumentResolver;
+import org.springframework.web.reactive.result.method.annotation.ArgumentResolverConfigurer;
+import org.springframework.web.server.ServerWebExchange;
 import moe.yushi.yggdrasil_mock.YggdrasilDatabase.TextureType;
 
 @Configuration
@@ -19,6 +33,68 @@ public class WebConfig implements WebFluxConfigurer {
 		}
 	}
 
+	/**
+	 * Resolves {@link Realm} arguments of handler methods to the realm selected for the request.
+	 */
+	public static class RealmArgumentResolver implements SyncHandlerMethodArgumentResolver {
+		@Override
+		public boolean supportsParameter(MethodParameter parameter) {
+			return parameter.getParameterType() == Realm.class;
+		}
+
+		@Override
+		public Object resolveArgumentValue(MethodParameter parameter, BindingContext bindingContext, ServerWebExchange exchange) {
+			return Realm.of(exchange);
+		}
+	}
+
+	/**
+	 * Resolves {@link AccessLog.Record} arguments of handler methods to the record of the request.
+	 */
+	public static class AccessLogRecordArgumentResolver implements SyncHandlerMethodArgumentResolver {
+		@Override
+		public boolean supportsParameter(MethodParameter parameter) {
+			return parameter.getParameterType() == AccessLog.Record.class;
+		}
+
+		@Override
+		public Object resolveArgumentValue(MethodParameter parameter, BindingContext bindingContext, ServerWebExchange exchange) {
+			return AccessLog.record(exchange);
+		}
+	}
+
+	/**
+	 * Emits a {@link JfrEvents.JsonSerialization} event for every serialized value.
+	 */
+	public static class RecordingJsonEncoder extends Jackson2JsonEncoder {
+		public RecordingJsonEncoder() {
+			super(Jackson2ObjectMapperBuilder.json().build());
+		}
+
+		@Override
+		public DataBuffer encodeValue(Object value, DataBufferFactory bufferFactory, ResolvableType valueType, @Nullable MimeType mimeType, @Nullable Map<String, Object> hints) {
+			var event = new JfrEvents.JsonSerialization();
+			event.begin();
+			var buffer = super.encodeValue(value, bufferFactory, valueType, mimeType, hints);
+			if (event.shouldCommit()) {
+				event.type = valueType.toString();
+				event.size = buffer.readableByteCount();
+				event.commit();
+			}
+			return buffer;
+		}
+	}
+
+	@Override
+	public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+		configurer.defaultCodecs().jackson2JsonEncoder(new RecordingJsonEncoder());
+	}
+
+	@Override
+	public void configureArgumentResolvers(ArgumentResolverConfigurer configurer) {
+		configurer.addCustomResolver(new RealmArgumentResolver(), new AccessLogRecordArgumentResolver());
+	}
+
 	@Override
 	public void addCorsMappings(CorsRegistry registry) {
 		registry.addMapping("/**")
@@ -3,6 +3,7 @@ package moe.yushi.yggdrasil_mock;
 import static java.util.Collections.singletonMap;
 import static java.util.Map.entry;
 import static java.util.Map.ofEntries;
+import static java.util.Objects.requireNonNull;
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
 import static java.util.Optional.ofNullable;
@@ -10,9 +11,16 @@ import static java.util.stream.Collectors.joining;
 import static moe.yushi.yggdrasil_mock.PropertiesUtils.base64Encoded;
 import static moe.yushi.yggdrasil_mock.PropertiesUtils.properties;
 import static moe.yushi.yggdrasil_mock.UUIDUtils.unsign;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.PrivateKey;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -20,12 +28,20 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Function;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
+import com.google.common.collect.MapMaker;
+import moe.yushi.yggdrasil_mock.DatabaseImage.UserEntry;
+import moe.yushi.yggdrasil_mock.Metrics.Latency;
 
 @Component
 @ConfigurationProperties(prefix = "yggdrasil.database")
@@ -67,19 +83,32 @@ public class YggdrasilDatabase {
 	}
 
 	public static class YggdrasilCharacter {
-		private UUID uuid = UUID.randomUUID();
+		private static final TextureType[] TEXTURE_TYPES = TextureType.values();
+
+		private UUID uuid;
+		private String unsignedUuid;
+		private boolean uuidConfigured;
 		private String name;
 		private ModelType model = ModelType.STEVE;
-		private Map<TextureType, Texture> textures = new ConcurrentSkipListMap<>();
-		private Set<TextureType> uploadableTextures = Collections.newSetFromMap(new ConcurrentHashMap<>());
+		// indexed by TextureType.ordinal()
+		private AtomicReferenceArray<Texture> textures = new AtomicReferenceArray<>(TEXTURE_TYPES.length);
+		// bit i is set if TEXTURE_TYPES[i] is uploadable
+		private volatile int uploadableTextures;
 		private YggdrasilUser owner;
 
+		public YggdrasilCharacter() {
+			uuid = UUID.randomUUID();
+			unsignedUuid = unsign(uuid);
+		}
+
 		public UUID getUuid() {
 			return uuid;
 		}
 
 		public void setUuid(UUID uuid) {
 			this.uuid = uuid;
+			this.unsignedUuid = unsign(uuid);
+			this.uuidConfigured = true;
 		}
 
 		public String getName() {
@@ -98,32 +127,88 @@ public class YggdrasilDatabase {
 			this.model = model;
 		}
 
+		public Optional<Texture> getTexture(TextureType type) {
+			return ofNullable(textures.get(type.ordinal()));
+		}
+
+		public void putTexture(TextureType type, Texture texture) {
+			textures.set(type.ordinal(), requireNonNull(texture));
+		}
+
+		public void removeTexture(TextureType type) {
+			textures.set(type.ordinal(), null);
+		}
+
+		/**
+		 * @return a snapshot of the textures
+		 */
 		public Map<TextureType, Texture> getTextures() {
-			return textures;
+			var result = new EnumMap<TextureType, Texture>(TextureType.class);
+			for (var type : TEXTURE_TYPES) {
+				var texture = textures.get(type.ordinal());
+				if (texture != null)
+					result.put(type, texture);
+			}
+			return result;
+		}
+
+		public void setTextures(Map<TextureType, Texture> textures) {
+			for (var type : TEXTURE_TYPES) {
+				this.textures.set(type.ordinal(), textures.get(type));
+			}
 		}
 
 		public YggdrasilUser getOwner() {
 			return owner;
 		}
 
+		public boolean isTextureUploadable(TextureType type) {
+			return (uploadableTextures & (1 << type.ordinal())) != 0;
+		}
+
+		/**
+		 * @return a snapshot of the uploadable textures
+		 */
 		public Set<TextureType> getUploadableTextures() {
-			return uploadableTextures;
+			var result = EnumSet.noneOf(TextureType.class);
+			for (var type : TEXTURE_TYPES) {
+				if (isTextureUploadable(type))
+					result.add(type);
+			}
+			return result;
+		}
+
+		public void setUploadableTextures(Collection<TextureType> uploadableTextures) {
+			int mask = 0;
+			for (var type : uploadableTextures) {
+				mask |= 1 << type.ordinal();
+			}
+			this.uploadableTextures = mask;
 		}
 
 		public Map<String, Object> toSimpleResponse() {
 			return
 			// @formatter:off
 			ofEntries(
-				entry("id", unsign(uuid)),
+				entry("id", unsignedUuid),
 				entry("name", name)
 			);
 			// @formatter:on
 		}
 
+		/**
+		 * @param signingKey
+		 *            the properties are signed if it's not null
+		 * @param signatureLatency
+		 *            where the time spent on signing is recorded, if it's not null
+		 */
 		@SuppressWarnings("unchecked")
-		public Map<String, Object> toCompleteResponse(boolean signed) {
+		public Map<String, Object> toCompleteResponse(@Nullable PrivateKey signingKey, @Nullable Latency signatureLatency) {
 			var texturesResponse = new LinkedHashMap<>();
-			textures.forEach((type, texture) -> {
+			for (var type : TEXTURE_TYPES) {
+				var texture = textures.get(type.ordinal());
+				if (texture == null)
+					continue;
 				// @formatter:off
 				texturesResponse.put(type, type.getMetadata(this)
 					.map(metadata -> ofEntries(
@@ -133,25 +218,25 @@ public class YggdrasilDatabase {
 					.orElseGet(() -> singletonMap("url", texture.url))
 				);
 				// @formatter:on
-			});
+			}
 
 			var properties = new ArrayList<Entry<String, String>>();
 			// @formatter:off
 			properties.add(
 				entry("textures", base64Encoded(
 					entry("timestamp", System.currentTimeMillis()),
-					entry("profileId", unsign(uuid)),
+					entry("profileId", unsignedUuid),
 					entry("profileName", name),
 					entry("textures", texturesResponse)
 				))
 			);
 			// @formatter:on
 
-			if (!uploadableTextures.isEmpty()) {
+			if (uploadableTextures != 0) {
 				// @formatter:off
 				properties.add(
 					entry("uploadableTextures",
-						uploadableTextures.stream()
+						getUploadableTextures().stream()
 							.map(type -> type.name().toLowerCase())
 							.collect(joining(","))
 					)
@@ -162,19 +247,26 @@ public class YggdrasilDatabase {
 			return
 			// @formatter:off
 			ofEntries(
-				entry("id", unsign(uuid)),
+				entry("id", unsignedUuid),
 				entry("name", name),
-				entry("properties", properties(signed, properties.toArray(Entry[]::new)))
+				entry("properties", properties(signingKey, signatureLatency, properties.toArray(Entry[]::new)))
 			);
 			// @formatter:on
 		}
 	}
 
 	public static class YggdrasilUser {
-		private UUID id = UUID.randomUUID();
+		private UUID id;
+		private String unsignedId;
+		private boolean idConfigured;
 		private String email;
 		private String password;
-		private List<YggdrasilCharacter> characters = new CopyOnWriteArrayList<>();
+		private List<YggdrasilCharacter> characters = List.of();
+
+		public YggdrasilUser() {
+			id = UUID.randomUUID();
+			unsignedId = unsign(id);
+		}
 
 		public UUID getId() {
 			return id;
@@ -182,6 +274,8 @@ public class YggdrasilDatabase {
 
 		public void setId(UUID id) {
 			this.id = id;
+			this.unsignedId = unsign(id);
+			this.idConfigured = true;
 		}
 
 		public String getEmail() {
@@ -204,11 +298,15 @@ public class YggdrasilDatabase {
 			return characters;
 		}
 
+		public void setCharacters(List<YggdrasilCharacter> characters) {
+			this.characters = List.copyOf(characters);
+		}
+
 		public Map<String, Object> toResponse() {
 			return
 			// @formatter:off
 			ofEntries(
-				entry("id", unsign(id)),
+				entry("id", unsignedId),
 				entry("properties", properties(
 				))
 			);
@@ -216,70 +314,483 @@ public class YggdrasilDatabase {
 		}
 	}
 
-	private List<YggdrasilUser> users;
+	/**
+	 * An immutable view of the configured users.
+	 * <p>
+	 * Successive snapshots share most of their indexes, see {@link PersistentMap}.
+	 */
+	private static class Snapshot {
+		static final Snapshot EMPTY = new Snapshot(PersistentMap.empty(), PersistentMap.empty(), PersistentMap.empty(), PersistentMap.empty());
+
+		final PersistentMap<UUID, YggdrasilUser> id2user;
+		final PersistentMap<String, YggdrasilUser> email2user;
+		final PersistentMap<UUID, YggdrasilCharacter> uuid2character;
+		final PersistentMap<String, YggdrasilCharacter> name2character;
+
+		Snapshot(PersistentMap<UUID, YggdrasilUser> id2user, PersistentMap<String, YggdrasilUser> email2user, PersistentMap<UUID, YggdrasilCharacter> uuid2character, PersistentMap<String, YggdrasilCharacter> name2character) {
+			this.id2user = id2user;
+			this.email2user = email2user;
+			this.uuid2character = uuid2character;
+			this.name2character = name2character;
+		}
+	}
 
-	private Map<UUID, YggdrasilUser> id2user = new ConcurrentHashMap<>();
-	private Map<String, YggdrasilUser> email2user = new ConcurrentHashMap<>();
-	private Map<UUID, YggdrasilCharacter> uuid2character = new ConcurrentHashMap<>();
-	private Map<String, YggdrasilCharacter> name2character = new ConcurrentHashMap<>();
+	/**
+	 * Builds a new {@link Snapshot} from an existing one.
+	 * <p>
+	 * The indexes are updated as operations are performed. Changes to the fields of users and characters
+	 * that may already be visible to readers are deferred until all the operations have succeeded,
+	 * objects created for this editor are modified in place.
+	 * Every operation throws {@link IllegalArgumentException} if it would make the indexes inconsistent.
+	 */
+	public static class Editor {
+		private final Snapshot base;
+		private final PersistentMap.Transient<UUID, YggdrasilUser> id2user;
+		private final PersistentMap.Transient<String, YggdrasilUser> email2user;
+		private final PersistentMap.Transient<UUID, YggdrasilCharacter> uuid2character;
+		private final PersistentMap.Transient<String, YggdrasilCharacter> name2character;
+
+		private final Set<YggdrasilUser> addedUsers = new LinkedHashSet<>();
+		private final Map<YggdrasilUser, List<YggdrasilCharacter>> pendingCharacters = new HashMap<>();
+		private final Map<YggdrasilCharacter, String> pendingNames = new HashMap<>();
+		private final List<Runnable> deferred = new ArrayList<>();
+
+		private Editor(Snapshot base) {
+			this.base = base;
+			this.id2user = base.id2user.edit();
+			this.email2user = base.email2user.edit();
+			this.uuid2character = base.uuid2character.edit();
+			this.name2character = base.name2character.edit();
+		}
 
-	@PostConstruct
-	private void buildDatabase() {
-		users.forEach(user -> {
+		public Optional<YggdrasilUser> findUserByEmail(String email) {
+			return ofNullable(email2user.get(email));
+		}
+
+		public Optional<YggdrasilCharacter> findCharacterByName(String name) {
+			return ofNullable(name2character.get(name));
+		}
+
+		public List<YggdrasilCharacter> getCharacters(YggdrasilUser user) {
+			return pendingCharacters.getOrDefault(user, user.characters);
+		}
+
+		public String getName(YggdrasilCharacter character) {
+			return pendingNames.getOrDefault(character, character.name);
+		}
+
+		public void addUser(YggdrasilUser user) {
+			addUser(user, user.characters);
+		}
+
+		public void addUser(YggdrasilUser user, List<YggdrasilCharacter> characters) {
 			try {
-				processUser(user);
+				if (user.email == null) throw new IllegalArgumentException("email is missing");
+				if (user.password == null || user.password.isEmpty()) throw new IllegalArgumentException("password is missing");
+
+				if (id2user.put(user.id, user) != null) throw new IllegalArgumentException("id conflict");
+				if (email2user.put(user.email, user) != null) throw new IllegalArgumentException("email conflict");
+
+				characters.forEach(character -> {
+					try {
+						indexCharacter(character, user);
+					} catch (IllegalArgumentException e) {
+						throw new IllegalArgumentException("error while processing character " + character.name, e);
+					}
+				});
 			} catch (IllegalArgumentException e) {
 				throw new IllegalArgumentException("error while processing user " + user.email, e);
 			}
-		});
-	}
+			setCharacters(user, characters);
+			addedUsers.add(user);
+		}
 
-	private void processUser(YggdrasilUser user) {
-		if (user.email == null) throw new IllegalArgumentException("email is missing");
-		if (user.password == null || user.password.isEmpty()) throw new IllegalArgumentException("password is missing");
+		public void removeUser(YggdrasilUser user) {
+			if (email2user.get(user.email) != user)
+				throw new IllegalArgumentException("no such user: " + user.email);
+			id2user.remove(user.id);
+			email2user.remove(user.email);
+			for (var character : getCharacters(user)) {
+				uuid2character.remove(character.uuid);
+				name2character.remove(getName(character));
+			}
+			addedUsers.remove(user);
+		}
 
-		if (id2user.put(user.id, user) != null) throw new IllegalArgumentException("id conflict");
-		if (email2user.put(user.email, user) != null) throw new IllegalArgumentException("email conflict");
+		public void setPassword(YggdrasilUser user, String password) {
+			if (password == null || password.isEmpty()) throw new IllegalArgumentException("password is missing");
+			defer(() -> user.password = password);
+		}
 
-		user.characters.forEach(character -> {
+		public void addCharacter(YggdrasilUser owner, YggdrasilCharacter character) {
+			if (email2user.get(owner.email) != owner)
+				throw new IllegalArgumentException("no such user: " + owner.email);
 			try {
-				processCharacter(character, user);
+				indexCharacter(character, owner);
 			} catch (IllegalArgumentException e) {
 				throw new IllegalArgumentException("error while processing character " + character.name, e);
 			}
+			var characters = new ArrayList<>(getCharacters(owner));
+			characters.add(character);
+			setCharacters(owner, characters);
+		}
+
+		public void removeCharacter(YggdrasilCharacter character) {
+			var name = getName(character);
+			if (name2character.get(name) != character)
+				throw new IllegalArgumentException("no such character: " + name);
+			uuid2character.remove(character.uuid);
+			name2character.remove(name);
+			var characters = new ArrayList<>(getCharacters(character.owner));
+			characters.remove(character);
+			setCharacters(character.owner, characters);
+		}
+
+		public void renameCharacter(YggdrasilCharacter character, String newName) {
+			var name = getName(character);
+			if (name2character.get(name) != character)
+				throw new IllegalArgumentException("no such character: " + name);
+			if (newName == null) throw new IllegalArgumentException("name is missing");
+			if (name2character.get(newName) != null) throw new IllegalArgumentException("name conflict");
+			name2character.put(newName, character);
+			name2character.remove(name);
+			pendingNames.put(character, newName);
+			defer(() -> character.name = newName);
+		}
+
+		/**
+		 * Schedules a change to be applied once all the operations have succeeded, before the new snapshot is published.
+		 */
+		public void defer(Runnable change) {
+			deferred.add(change);
+		}
+
+		private void indexCharacter(YggdrasilCharacter character, YggdrasilUser owner) {
+			if (character.owner != null && character.owner != owner) throw new IllegalArgumentException("owner has already been set");
+			if (character.name == null) throw new IllegalArgumentException("name is missing");
+
+			if (uuid2character.put(character.uuid, character) != null) throw new IllegalArgumentException("uuid conflict");
+			if (name2character.put(character.name, character) != null) throw new IllegalArgumentException("name conflict");
+
+			if (character.owner == null)
+				// a new character, nobody else can see it yet
+				character.owner = owner;
+		}
+
+		private void setCharacters(YggdrasilUser user, List<YggdrasilCharacter> characters) {
+			if (user.characters == characters)
+				return;
+			var copy = List.copyOf(characters);
+			if (isPublished(user)) {
+				pendingCharacters.put(user, copy);
+				defer(() -> user.characters = copy);
+			} else {
+				user.characters = copy;
+			}
+		}
+
+		private boolean isPublished(YggdrasilUser user) {
+			return base.email2user.get(user.email) == user;
+		}
+
+		private Snapshot build() {
+			return new Snapshot(id2user.build(), email2user.build(), uuid2character.build(), name2character.build());
+		}
+
+		private void commit() {
+			deferred.forEach(Runnable::run);
+		}
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(YggdrasilDatabase.class);
+
+	private @Autowired Texture.Storage texturesStorage;
+
+	private List<YggdrasilUser> users = new ArrayList<>();
+	private Path image;
+	private UserGenerator generator = new UserGenerator();
+
+	private AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+	private final Object writeLock = new Object();
+
+	// ---- Database image ----
+	private DatabaseImage imageDb;
+
+	// users materialized from the image, kept as long as something (e.g. a token) refers to them
+	private Map<Integer, YggdrasilUser> imageUsers = new MapMaker().weakValues().makeMap();
+	// resolved once, when the image is opened, so that no request has to wait for a texture to be fetched
+	private Map<String, Texture> url2texture = Map.of();
+	// --------
+
+	// ---- Generated users ----
+	// same as imageUsers
+	private Map<Integer, YggdrasilUser> generatedUsers = new MapMaker().weakValues().makeMap();
+	// --------
+
+	// users not listed in the configuration, whose state has been changed at runtime, and therefore must not be discarded
+	private Set<YggdrasilUser> modifiedUsers = ConcurrentHashMap.newKeySet();
+
+	@PostConstruct
+	void buildDatabase() throws IOException {
+		var editor = new Editor(Snapshot.EMPTY);
+		users.forEach(editor::addUser);
+		snapshot.set(editor.build());
+		users = null;
+
+		if (image != null) {
+			long start = System.nanoTime();
+			imageDb = DatabaseImage.open(image);
+			url2texture = loadTextures(imageDb.readTextureUrls());
+			logger.info("Loaded database image {} ({} users, {} characters, {} textures) in {} ms",
+					image, imageDb.getUsersCount(), imageDb.getCharactersCount(), url2texture.size(), (System.nanoTime() - start) / 1_000_000);
+		}
+	}
+
+	@PreDestroy
+	void closeImage() throws IOException {
+		if (imageDb != null)
+			imageDb.close();
+	}
+
+	/**
+	 * Atomically applies a set of changes to the configured users.
+	 * <p>
+	 * There is a single writer at a time: modifications are serialized by a lock, which lookups never take.
+	 * They use the snapshot published last, and never wait for a modification. A modification only copies
+	 * the index nodes it changes, so it costs O(log n) per changed entry, not O(n).
+	 * The operation must only modify the database through the editor, nothing is changed if it throws.
+	 * <p>
+	 * The deferred changes to existing users and characters are applied before the new indexes are published,
+	 * so a reader may observe them slightly early (e.g. a new character in the list of its owner, but not yet found by name),
+	 * but never sees an index entry whose user or character hasn't been updated yet.
+	 */
+	public <T> T modify(Function<Editor, T> operation) {
+		synchronized (writeLock) {
+			var editor = new Editor(snapshot.get());
+			var result = operation.apply(editor);
+			var next = editor.build();
+			editor.commit();
+			snapshot.set(next);
+			return result;
+		}
+	}
+
+	/**
+	 * Replaces the configured users.
+	 * <p>
+	 * Existing users and characters are carried forward (matched by email and name respectively),
+	 * so that tokens and pending authentications referring to them stay valid.
+	 *
+	 * @return the users that have been removed
+	 */
+	public List<YggdrasilUser> replaceUsers(List<YggdrasilUser> newUsers) {
+		// validate before touching any existing object
+		var validator = new Editor(Snapshot.EMPTY);
+		newUsers.forEach(validator::addUser);
+		newUsers.forEach(user -> user.characters.forEach(character -> character.owner = null));
+
+		return modify(editor -> {
+			var previous = editor.base;
+			var previousUsers = previous.email2user.values();
+			previousUsers.forEach(editor::removeUser);
+
+			for (var newUser : newUsers) {
+				var user = previous.email2user.get(newUser.email);
+				if (user == null || (newUser.idConfigured && !newUser.id.equals(user.id))) {
+					editor.addUser(newUser);
+					continue;
+				}
+
+				var characters = new ArrayList<YggdrasilCharacter>(newUser.characters.size());
+				for (var newCharacter : newUser.characters) {
+					var character = previous.name2character.get(newCharacter.name);
+					if (character == null || character.owner != user || (newCharacter.uuidConfigured && !newCharacter.uuid.equals(character.uuid))) {
+						characters.add(newCharacter);
+						continue;
+					}
+					editor.defer(() -> {
+						character.model = newCharacter.model;
+						character.setTextures(newCharacter.getTextures());
+						character.uploadableTextures = newCharacter.uploadableTextures;
+					});
+					characters.add(character);
+				}
+				editor.setPassword(user, newUser.password);
+				editor.addUser(user, characters);
+			}
+
+			var removed = new ArrayList<>(previousUsers);
+			removed.removeAll(editor.addedUsers);
+			return removed;
 		});
 	}
 
-	private void processCharacter(YggdrasilCharacter character, YggdrasilUser owner) {
-		if (character.owner != null) throw new IllegalArgumentException("owner has already been set");
-		character.owner = owner;
-		if (character.name == null) throw new IllegalArgumentException("name is missing");
+	private Optional<YggdrasilUser> findImageUser(int index) {
+		if (index == -1)
+			return empty();
+		return of(imageUsers.computeIfAbsent(index, this::materializeImageUser));
+	}
 
-		if (uuid2character.put(character.uuid, character) != null) throw new IllegalArgumentException("uuid conflict");
-		if (name2character.put(character.name, character) != null) throw new IllegalArgumentException("name conflict");
+	private Optional<YggdrasilCharacter> findImageCharacter(int index) {
+		if (index == -1)
+			return empty();
+		return findImageUser(imageDb.getCharacterOwner(index))
+				.map(owner -> owner.characters.get(imageDb.getCharacterPosition(index)));
 	}
 
+	private YggdrasilUser materializeImageUser(int index) {
+		// textures that couldn't be loaded when the image was opened are left out
+		return newUser(imageDb.readUser(index), url -> ofNullable(url2texture.get(url)));
+	}
+
+	/**
+	 * Creates a user, which is not added to the database, from an entry. The textures are loaded from their URLs.
+	 */
+	public YggdrasilUser newUser(UserEntry entry) {
+		return newUser(entry, this::loadTexture);
+	}
+
+	private YggdrasilUser newUser(UserEntry entry, Function<String, Optional<Texture>> textures) {
+		var user = new YggdrasilUser();
+		if (entry.id != null)
+			user.setId(entry.id);
+		user.email = entry.email;
+		user.password = entry.password;
+		var characters = new ArrayList<YggdrasilCharacter>(entry.characters.size());
+		for (var characterEntry : entry.characters) {
+			var character = new YggdrasilCharacter();
+			if (characterEntry.uuid != null)
+				character.setUuid(characterEntry.uuid);
+			character.name = characterEntry.name;
+			character.model = characterEntry.model;
+			for (var type : TextureType.values()) {
+				var url = characterEntry.textures[type.ordinal()];
+				if (url != null)
+					textures.apply(url).ifPresent(texture -> character.putTexture(type, texture));
+			}
+			character.setUploadableTextures(characterEntry.uploadableTextures);
+			character.owner = user;
+			characters.add(character);
+		}
+		user.characters = List.copyOf(characters);
+		return user;
+	}
+
+	private Optional<YggdrasilUser> findGeneratedUser(int n) {
+		if (n == -1)
+			return empty();
+		return of(generatedUsers.computeIfAbsent(n, this::materializeGeneratedUser));
+	}
+
+	private Optional<YggdrasilCharacter> findGeneratedCharacter(int n) {
+		return findGeneratedUser(n).map(owner -> owner.characters.get(0));
+	}
+
+	private YggdrasilUser materializeGeneratedUser(int n) {
+		var user = new YggdrasilUser();
+		user.setId(generator.userId(n));
+		user.email = generator.email(n);
+		user.password = generator.password(n);
+		var character = new YggdrasilCharacter();
+		character.setUuid(generator.characterUuid(n));
+		character.name = generator.characterName(n);
+		character.model = generator.getModel();
+		character.setTextures(generator.getTextures());
+		character.setUploadableTextures(generator.getUploadableTextures());
+		character.owner = user;
+		user.characters = List.of(character);
+		return user;
+	}
+
+	private Optional<Texture> loadTexture(String url) {
+		var texture = url2texture.get(url);
+		if (texture == null) {
+			try {
+				texture = texturesStorage.loadTexture(url);
+			} catch (IOException e) {
+				logger.warn("unable to load texture " + url, e);
+				return empty();
+			}
+		}
+		return of(texture);
+	}
+
+	private Map<String, Texture> loadTextures(Set<String> urls) {
+		var loaded = new HashMap<String, Texture>(urls.size() * 2);
+		for (var url : urls)
+			loadTexture(url).ifPresent(texture -> loaded.put(url, texture));
+		return loaded;
+	}
+
+	/**
+	 * Must be called after the state of the character (e.g. its textures) has been changed at runtime.
+	 */
+	public void markModified(YggdrasilCharacter character) {
+		if (snapshot.get().id2user.get(character.owner.id) != character.owner)
+			modifiedUsers.add(character.owner);
+	}
+
+	// Lookup order: configured users, database image, generated users
+
 	public Optional<YggdrasilUser> findUserById(UUID id) {
-		return ofNullable(id2user.get(id));
+		var user = ofNullable(snapshot.get().id2user.get(id));
+		if (user.isEmpty() && imageDb != null)
+			user = findImageUser(imageDb.findUserById(id));
+		if (user.isEmpty() && generator.isEnabled())
+			user = findGeneratedUser(generator.parseUserId(id));
+		return user;
 	}
 
 	public Optional<YggdrasilUser> findUserByEmail(String email) {
-		return ofNullable(email2user.get(email));
+		var user = ofNullable(snapshot.get().email2user.get(email));
+		if (user.isEmpty() && imageDb != null)
+			user = findImageUser(imageDb.findUserByEmail(email));
+		if (user.isEmpty() && generator.isEnabled())
+			user = findGeneratedUser(generator.parseEmail(email));
+		return user;
 	}
 
 	public Optional<YggdrasilCharacter> findCharacterByUUID(UUID uuid) {
-		return ofNullable(uuid2character.get(uuid));
+		var character = ofNullable(snapshot.get().uuid2character.get(uuid));
+		if (character.isEmpty() && imageDb != null)
+			character = findImageCharacter(imageDb.findCharacterByUUID(uuid));
+		if (character.isEmpty() && generator.isEnabled())
+			character = findGeneratedCharacter(generator.parseCharacterUuid(uuid));
+		return character;
 	}
 
 	public Optional<YggdrasilCharacter> findCharacterByName(String name) {
-		return ofNullable(name2character.get(name));
+		var character = ofNullable(snapshot.get().name2character.get(name));
+		if (character.isEmpty() && imageDb != null)
+			character = findImageCharacter(imageDb.findCharacterByName(name));
+		if (character.isEmpty() && generator.isEnabled())
+			character = findGeneratedCharacter(generator.parseCharacterName(name));
+		return character;
+	}
+
+	public int getUsersCount() {
+		return snapshot.get().email2user.size()
+				+ (imageDb == null ? 0 : imageDb.getUsersCount())
+				+ (generator.isEnabled() ? generator.getCount() : 0);
 	}
 
 	public List<YggdrasilUser> getUsers() {
-		return users;
+		return users != null ? users : snapshot.get().email2user.values();
 	}
 
 	public void setUsers(List<YggdrasilUser> users) {
 		this.users = users;
 	}
+
+	public UserGenerator getGenerator() {
+		return generator;
+	}
+
+	public Path getImage() {
+		return image;
+	}
+
+	public void setImage(Path image) {
+		this.image = image;
+	}
 }
@@ -3,14 +3,17 @@ package moe.yushi.yggdrasil_mock;
 import static java.text.MessageFormat.format;
 import static java.util.Map.entry;
 import static java.util.Map.ofEntries;
-import static moe.yushi.yggdrasil_mock.PropertiesUtils.getSignaturePublicKey;
+import java.security.KeyPair;
 import java.util.List;
 import java.util.function.Supplier;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.web.util.UriBuilder;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -19,14 +22,29 @@ import org.springframework.web.util.UriComponentsBuilder;
 @SpringBootApplication
 public class YggdrasilMockServer {
 
+	/**
+	 * Name of the bean holding a signature key given by the application embedding the server.
+	 */
+	static final String PROVIDED_KEY_PAIR = "providedSignatureKeyPair";
+
 	private List<String> skinDomains;
 	private String url;
 	private String serverName;
 	private boolean loginWithCharacterName;
 
+	/**
+	 * The key used to sign profile properties: the one provided as {@value #PROVIDED_KEY_PAIR}
+	 * (see {@link EmbeddedServer}), or else a new one.
+	 */
+	@Bean
+	@Primary
+	public KeyPair signatureKeyPair(@Qualifier(PROVIDED_KEY_PAIR) ObjectProvider<KeyPair> providedKeyPair) {
+		return providedKeyPair.getIfAvailable(KeyUtils::generateKey);
+	}
+
 	@Bean
-	public String publickeyPem() {
-		return KeyUtils.toPEMPublicKey(getSignaturePublicKey());
+	public String publickeyPem(KeyPair signatureKeyPair) {
+		return KeyUtils.toPEMPublicKey(signatureKeyPair.getPublic());
 	}
 
 	@Bean
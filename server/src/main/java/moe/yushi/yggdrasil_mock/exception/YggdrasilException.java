@@ -1,19 +1,40 @@
 package moe.yushi.yggdrasil_mock.exception;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.springframework.http.HttpStatus;
-import org.springframework.web.server.ResponseStatusException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
-public class YggdrasilException extends ResponseStatusException {
+/**
+ * An error reported to the client as {@code {"error": ..., "errorMessage": ...}}.
+ * <p>
+ * These exceptions have no stack trace, as they are never logged. The ones with a {@code m_*} message are
+ * shared instances, which don't record suppressed exceptions either, and whose response body is encoded once.
+ */
+public class YggdrasilException extends RuntimeException {
 
 	private static final long serialVersionUID = 1L;
 
-	private String error;
-	private String message;
+	private static final ObjectMapper objectMapper = new ObjectMapper();
 
-	public YggdrasilException(HttpStatus status, String error, String message) {
-		super(status, error);
+	private final HttpStatus status;
+	private final String error;
+	private final String message;
+	private transient byte[] body;
+
+	private YggdrasilException(HttpStatus status, String error, String message, boolean shared) {
+		super(error + ": " + message, null, !shared, false);
+		this.status = status;
 		this.error = error;
 		this.message = message;
+		if (shared)
+			this.body = encodeBody(error, message);
+	}
+
+	public HttpStatus getStatus() {
+		return status;
 	}
 
 	public String getYggdrasilMessage() {
@@ -24,12 +45,34 @@ public class YggdrasilException extends ResponseStatusException {
 		return error;
 	}
 
+	/**
+	 * @return the response body, as UTF-8 encoded JSON
+	 */
+	public byte[] getBody() {
+		if (body == null)
+			body = encodeBody(error, message);
+		return body;
+	}
+
+	public static byte[] encodeBody(String error, String message) {
+		var body = new LinkedHashMap<String, String>();
+		body.put("error", error);
+		body.put("errorMessage", message);
+		try {
+			return objectMapper.writeValueAsBytes(body);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	public static YggdrasilException newForbiddenOperationException(String message) {
-		return new YggdrasilException(HttpStatus.FORBIDDEN, "ForbiddenOperationException", message);
+		var shared = sharedForbiddenOperationExceptions.get(message);
+		return shared != null ? shared : new YggdrasilException(HttpStatus.FORBIDDEN, FORBIDDEN_OPERATION, message, false);
 	}
 
 	public static YggdrasilException newIllegalArgumentException(String message) {
-		return new YggdrasilException(HttpStatus.BAD_REQUEST, "IllegalArgumentException", message);
+		var shared = sharedIllegalArgumentExceptions.get(message);
+		return shared != null ? shared : new YggdrasilException(HttpStatus.BAD_REQUEST, ILLEGAL_ARGUMENT, message, false);
 	}
 
 	public static final String m_invalid_token = "Invalid token.";
@@ -37,5 +80,19 @@ public class YggdrasilException extends ResponseStatusException {
 	public static final String m_token_already_assigned = "Access token already has a profile assigned.";
 	public static final String m_access_denied = "Access denied.";
 	public static final String m_profile_not_found = "No such profile.";
+	public static final String m_invalid_profile = "Invalid profile.";
+
+	private static final String FORBIDDEN_OPERATION = "ForbiddenOperationException";
+	private static final String ILLEGAL_ARGUMENT = "IllegalArgumentException";
 
+	private static final String[] SHARED_MESSAGES = { m_invalid_token, m_invalid_credentials, m_token_already_assigned, m_access_denied, m_profile_not_found, m_invalid_profile };
+
+	private static final Map<String, YggdrasilException> sharedForbiddenOperationExceptions = new HashMap<>();
+	private static final Map<String, YggdrasilException> sharedIllegalArgumentExceptions = new HashMap<>();
+	static {
+		for (var message : SHARED_MESSAGES) {
+			sharedForbiddenOperationExceptions.put(message, new YggdrasilException(HttpStatus.FORBIDDEN, FORBIDDEN_OPERATION, message, true));
+			sharedIllegalArgumentExceptions.put(message, new YggdrasilException(HttpStatus.BAD_REQUEST, ILLEGAL_ARGUMENT, message, true));
+		}
+	}
 }
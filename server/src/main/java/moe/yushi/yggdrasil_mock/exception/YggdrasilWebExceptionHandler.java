@@ -6,6 +6,7 @@ import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 import static org.springframework.web.reactive.function.server.RequestPredicates.all;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.springframework.boot.autoconfigure.web.ErrorProperties;
 import org.springframework.boot.autoconfigure.web.ResourceProperties;
 import org.springframework.boot.autoconfigure.web.reactive.error.DefaultErrorWebExceptionHandler;
@@ -15,6 +16,7 @@ import org.springframework.boot.web.reactive.error.ErrorAttributes;
 import org.springframework.context.ApplicationContext;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.ServerCodecConfigurer;
 import org.springframework.stereotype.Component;
@@ -22,11 +24,22 @@ import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
 
+/**
+ * Writes errors as Yggdrasil error responses.
+ * <p>
+ * Client errors ({@link YggdrasilException}s and 4xx {@link ResponseStatusException}s) are written directly,
+ * with bodies encoded once. Other errors go through {@link DefaultErrorWebExceptionHandler}, which logs them.
+ */
 @Component
 @Order(Ordered.HIGHEST_PRECEDENCE)
 public class YggdrasilWebExceptionHandler extends DefaultErrorWebExceptionHandler {
 
+	// indexed by HttpStatus.ordinal()
+	private final AtomicReferenceArray<byte[]> statusBodies = new AtomicReferenceArray<>(HttpStatus.values().length);
+
 	public YggdrasilWebExceptionHandler(ResourceProperties resourceProperties, ApplicationContext applicationContext, ServerCodecConfigurer serverCodecConfigurer) {
 		super(new DefaultErrorAttributes() {
 
@@ -59,6 +72,40 @@ public class YggdrasilWebExceptionHandler extends DefaultErrorWebExceptionHandle
 		setMessageWriters(serverCodecConfigurer.getWriters());
 	}
 
+	@Override
+	public Mono<Void> handle(ServerWebExchange exchange, Throwable throwable) {
+		if (!exchange.getResponse().isCommitted()) {
+			if (throwable instanceof YggdrasilException) {
+				var e = (YggdrasilException) throwable;
+				return write(exchange, e.getStatus(), e.getBody());
+			}
+			if (throwable instanceof ResponseStatusException) {
+				var e = (ResponseStatusException) throwable;
+				if (e.getStatus().is4xxClientError()) {
+					exchange.getResponse().getHeaders().addAll(e.getResponseHeaders());
+					return write(exchange, e.getStatus(), statusBody(e.getStatus()));
+				}
+			}
+		}
+		return super.handle(exchange, throwable);
+	}
+
+	private byte[] statusBody(HttpStatus status) {
+		var body = statusBodies.get(status.ordinal());
+		if (body == null) {
+			body = YggdrasilException.encodeBody(status.getReasonPhrase(), status.value() + " " + status.getReasonPhrase());
+			statusBodies.set(status.ordinal(), body);
+		}
+		return body;
+	}
+
+	private static Mono<Void> write(ServerWebExchange exchange, HttpStatus status, byte[] body) {
+		var response = exchange.getResponse();
+		response.setStatusCode(status);
+		response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+		return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+	}
+
 	@Override
 	protected RouterFunction<ServerResponse> getRoutingFunction(ErrorAttributes errorAttributes) {
 		return route(all(), req -> {
@@ -0,0 +1,110 @@
+package moe.yushi.yggdrasil_mock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class PersistentMapTest {
+
+	/**
+	 * A key whose hash code is chosen, to exercise the collision nodes.
+	 */
+	private static class Key {
+		final int id;
+		final int hash;
+
+		Key(int id, int hash) {
+			this.id = id;
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && ((Key) obj).id == id;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	@Test
+	void behavesLikeAHashMap() {
+		var random = new Random(42);
+		var keys = new ArrayList<Key>();
+		for (int i = 0; i < 5000; i++) {
+			// few distinct hashes, so that many keys collide, at every level
+			keys.add(new Key(i, random.nextBoolean() ? random.nextInt() : random.nextInt(64) << 26));
+		}
+
+		var expected = new HashMap<Key, Integer>();
+		var map = PersistentMap.<Key, Integer> empty();
+		for (int round = 0; round < 20; round++) {
+			var editor = map.edit();
+			for (int i = 0; i < 2000; i++) {
+				var key = keys.get(random.nextInt(keys.size()));
+				if (random.nextInt(3) == 0) {
+					assertEquals(expected.remove(key), editor.remove(key));
+				} else {
+					int value = random.nextInt();
+					assertEquals(expected.put(key, value), editor.put(key, value));
+				}
+				assertEquals(expected.size(), editor.size());
+			}
+			map = editor.build();
+			assertSameContent(expected, map);
+		}
+	}
+
+	@Test
+	void previousVersionsAreUnchanged() {
+		var editor = PersistentMap.<String, Integer> empty().edit();
+		for (int i = 0; i < 1000; i++)
+			editor.put("key" + i, i);
+		var first = editor.build();
+
+		var second = first.edit();
+		for (int i = 0; i < 1000; i += 2)
+			second.remove("key" + i);
+		second.put("key1", -1);
+		second.put("new", 0);
+		var secondMap = second.build();
+
+		assertEquals(1000, first.size());
+		for (int i = 0; i < 1000; i++)
+			assertEquals(i, first.get("key" + i));
+		assertNull(first.get("new"));
+
+		assertEquals(501, secondMap.size());
+		assertNull(secondMap.get("key0"));
+		assertEquals(-1, secondMap.get("key1"));
+		assertEquals(3, secondMap.get("key3"));
+		assertEquals(0, secondMap.get("new"));
+	}
+
+	@Test
+	void cannotBeEditedOnceBuilt() {
+		var editor = PersistentMap.<String, Integer> empty().edit();
+		editor.put("key", 1);
+		editor.build();
+		assertThrows(IllegalStateException.class, () -> editor.put("key", 2));
+	}
+
+	// ---- Helper methods ----
+	private static <K, V> void assertSameContent(Map<K, V> expected, PersistentMap<K, V> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (var entry : expected.entrySet())
+			assertEquals(entry.getValue(), actual.get(entry.getKey()));
+		var actualEntries = new HashMap<K, V>();
+		actual.forEach(actualEntries::put);
+		assertEquals(expected, actualEntries);
+		assertEquals(expected.size(), actual.values().size());
+	}
+	// --------
+}
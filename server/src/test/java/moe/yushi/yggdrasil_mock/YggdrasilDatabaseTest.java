@@ -0,0 +1,147 @@
+package moe.yushi.yggdrasil_mock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilCharacter;
+import moe.yushi.yggdrasil_mock.YggdrasilDatabase.YggdrasilUser;
+
+public class YggdrasilDatabaseTest {
+
+	private static final String EMAIL = "test@example.com";
+	private static final int THREADS = 4;
+	private static final int CHARACTERS_PER_THREAD = 1500;
+
+	private YggdrasilDatabase database;
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		var user = new YggdrasilUser();
+		user.setEmail(EMAIL);
+		user.setPassword("password");
+		database = new YggdrasilDatabase();
+		database.setUsers(new ArrayList<>(List.of(user)));
+		database.buildDatabase();
+		executor = Executors.newFixedThreadPool(THREADS + 1);
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void concurrentModificationsAreNotLost() throws Exception {
+		runConcurrently(THREADS, thread -> {
+			for (int i = 0; i < CHARACTERS_PER_THREAD; i++)
+				addCharacter("character_" + thread + "_" + i);
+		});
+
+		var user = database.findUserByEmail(EMAIL).orElseThrow();
+		assertEquals(THREADS * CHARACTERS_PER_THREAD, user.getCharacters().size());
+		for (var character : user.getCharacters()) {
+			assertSame(user, character.getOwner());
+			assertSame(character, database.findCharacterByName(character.getName()).orElseThrow());
+			assertSame(character, database.findCharacterByUUID(character.getUuid()).orElseThrow());
+		}
+	}
+
+	@Test
+	void concurrentRemovalsAreNotLost() throws Exception {
+		runConcurrently(THREADS, thread -> {
+			for (int i = 0; i < CHARACTERS_PER_THREAD; i++)
+				addCharacter("character_" + thread + "_" + i);
+			for (int i = 0; i < CHARACTERS_PER_THREAD; i += 2)
+				removeCharacter("character_" + thread + "_" + i);
+		});
+
+		var user = database.findUserByEmail(EMAIL).orElseThrow();
+		assertEquals(THREADS * CHARACTERS_PER_THREAD / 2, user.getCharacters().size());
+		for (int thread = 0; thread < THREADS; thread++) {
+			for (int i = 0; i < CHARACTERS_PER_THREAD; i++) {
+				var found = database.findCharacterByName("character_" + thread + "_" + i);
+				assertEquals(i % 2 == 1, found.isPresent());
+				found.ifPresent(character -> assertTrue(user.getCharacters().contains(character)));
+			}
+		}
+	}
+
+	@Test
+	void indexedCharactersAreListedByTheirOwner() throws Exception {
+		var done = new AtomicBoolean();
+		var reader = executor.submit(() -> {
+			int checked = 0;
+			while (!done.get()) {
+				for (int i = 0; i < CHARACTERS_PER_THREAD; i++) {
+					for (int thread = 0; thread < THREADS; thread++) {
+						var found = database.findCharacterByName("character_" + thread + "_" + i);
+						if (found.isEmpty())
+							continue;
+						var character = found.get();
+						assertTrue(character.getOwner().getCharacters().contains(character), "indexed, but not listed by its owner");
+						checked++;
+					}
+				}
+			}
+			return checked;
+		});
+
+		runConcurrently(THREADS, thread -> {
+			for (int i = 0; i < CHARACTERS_PER_THREAD; i++)
+				addCharacter("character_" + thread + "_" + i);
+		});
+		done.set(true);
+		assertTrue(reader.get() > 0);
+	}
+
+	// ---- Helper methods ----
+	private interface Task {
+		void run(int thread) throws Exception;
+	}
+
+	private void runConcurrently(int threads, Task task) throws Exception {
+		var start = new CountDownLatch(1);
+		var futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < threads; i++) {
+			int thread = i;
+			futures.add(executor.submit((Callable<Void>) () -> {
+				start.await();
+				task.run(thread);
+				return null;
+			}));
+		}
+		start.countDown();
+		for (var future : futures)
+			future.get();
+	}
+
+	private void addCharacter(String name) {
+		var character = new YggdrasilCharacter();
+		character.setName(name);
+		database.modify(editor -> {
+			editor.addCharacter(editor.findUserByEmail(EMAIL).orElseThrow(), character);
+			return null;
+		});
+	}
+
+	private void removeCharacter(String name) {
+		database.modify(editor -> {
+			editor.removeCharacter(editor.findCharacterByName(name).orElseThrow());
+			return null;
+		});
+	}
+	// --------
+}
@@ -595,6 +595,91 @@ describe("yggdrasil basic api", function () {
 					})
 					.expect(204)));
 
+		this.slow(slowTime + config.rateLimits.login);
+		it("user1 with nested unknown fields",
+			() => authenticateUser1()
+				.then(authResponse => request.post("/authserver/validate")
+					.send({
+						extra: { nested: [1, { deeper: "value" }] },
+						accessToken: authResponse.accessToken
+					})
+					.expect(204)));
+
+		this.slow(slowTime + config.rateLimits.login);
+		it("user1 with trailing tokens (expecting them to be ignored)",
+			() => authenticateUser1()
+				.then(authResponse => request.post("/authserver/validate")
+					.set("Content-Type", "application/json")
+					.send(JSON.stringify({ accessToken: authResponse.accessToken }) + " {}]")
+					.expect(204)));
+
+		this.slow(slowTime);
+		it("an object as accessToken",
+			() => request.post("/authserver/validate")
+				.send({
+					accessToken: { value: invalidAccessToken }
+				})
+				.expect(400)
+				.expect(exception("Bad Request")));
+
+		this.slow(slowTime);
+		it("an array as accessToken",
+			() => request.post("/authserver/validate")
+				.send({
+					accessToken: [invalidAccessToken]
+				})
+				.expect(400)
+				.expect(exception("Bad Request")));
+
+		this.slow(slowTime);
+		it("missing accessToken",
+			() => request.post("/authserver/validate")
+				.send({
+					clientToken: invalidClientToken
+				})
+				.expect(400)
+				.expect(exception("Bad Request")));
+
+		this.slow(slowTime);
+		it("blank accessToken",
+			() => request.post("/authserver/validate")
+				.send({
+					accessToken: "  "
+				})
+				.expect(400)
+				.expect(exception("Bad Request")));
+
+		this.slow(slowTime);
+		it("not an object",
+			() => request.post("/authserver/validate")
+				.send([invalidAccessToken])
+				.expect(400)
+				.expect(exception("Bad Request")));
+
+		this.slow(slowTime);
+		it("truncated body",
+			() => request.post("/authserver/validate")
+				.set("Content-Type", "application/json")
+				.send(`{"accessToken":"${invalidAccessToken}"`)
+				.expect(400)
+				.expect(exception("Bad Request")));
+
+		this.slow(slowTime);
+		it("empty body",
+			() => request.post("/authserver/validate")
+				.set("Content-Type", "application/json")
+				.send("")
+				.expect(400)
+				.expect(exception("Bad Request")));
+
+		this.slow(slowTime);
+		it("wrong content type",
+			() => request.post("/authserver/validate")
+				.set("Content-Type", "text/plain")
+				.send(JSON.stringify({ accessToken: invalidAccessToken }))
+				.expect(415)
+				.expect(exception("Unsupported Media Type")));
+
 	});
 
 	describe("invalidate", function () {
@@ -787,6 +872,54 @@ describe("yggdrasil basic api", function () {
 					let result = verify.verifyNameQueryResponse(res.body);
 					expect(result).to.have.all.keys([u2character1, u3character1]);
 				}));
+
+		it(`10 characters, including ${u2character1}`,
+			() => request.post("/api/profiles/minecraft")
+				.send([...Array(9).keys()].map(i => nonexistentCharacterName + i).concat(u2character1))
+				.expect(200)
+				.expect(res => {
+					let result = verify.verifyNameQueryResponse(res.body);
+					expect(result).to.have.key(u2character1);
+				}));
+
+		it("more than 10 characters",
+			() => request.post("/api/profiles/minecraft")
+				.send([...Array(10).keys()].map(i => nonexistentCharacterName + i).concat(u2character1))
+				.expect(400)
+				.expect(exception("IllegalArgumentException"))
+				.expect(res =>
+					expect(res.body.errorMessage).to.equal("Not more that 10 profile name per call is allowed.")));
+
+		it("not an array",
+			() => request.post("/api/profiles/minecraft")
+				.send({ name: u2character1 })
+				.expect(400)
+				.expect(exception("IllegalArgumentException")));
+
+		it("a nested array",
+			() => request.post("/api/profiles/minecraft")
+				.send([u2character1, [u3character1]])
+				.expect(400)
+				.expect(exception("IllegalArgumentException")));
+
+		it("a nested object",
+			() => request.post("/api/profiles/minecraft")
+				.send([u2character1, { name: u3character1 }])
+				.expect(400)
+				.expect(exception("IllegalArgumentException")));
+
+		it("a number",
+			() => request.post("/api/profiles/minecraft")
+				.send([u2character1, 1])
+				.expect(400)
+				.expect(exception("IllegalArgumentException")));
+
+		it("truncated body",
+			() => request.post("/api/profiles/minecraft")
+				.set("Content-Type", "application/json")
+				.send(`["${u2character1}","${u3character1}`)
+				.expect(400)
+				.expect(exception("Bad Request")));
 	});
 
 	describe("session", function () {
@@ -873,6 +1006,74 @@ describe("yggdrasil basic api", function () {
 
 		});
 
+		describe("query profiles in batch", function () {
+			this.slow(slowTime);
+
+			function queryCharacters(ids, urlQuery = "") {
+				return request.post("/sessionserver/session/minecraft/profiles" + urlQuery)
+					.send(ids)
+					.expect(200)
+					.expect(res => expect(res.body).to.be.an("array"))
+					.then(res => res.body);
+			}
+
+			it("empty payload",
+				() => queryCharacters([])
+					.then(it => expect(it).to.be.empty));
+
+			it("a nonexistent character",
+				() => queryCharacters([nonexistentCharacterUUID])
+					.then(it => expect(it).to.be.empty));
+
+			it("in the requested order",
+				() => queryCharacters([uuids.get(u3character2), uuids.get(u2character1), uuids.get(u3character1)])
+					.then(it => {
+						expect(namesOf(it)).to.deep.equal([u3character2, u2character1, u3character1]);
+						verifyU3character2(it[0], false);
+						verifyU2character1(it[1], false);
+						verifyU3character1(it[2], false);
+					}));
+
+			it("duplicated and nonexistent characters",
+				() => queryCharacters([uuids.get(u2character1), nonexistentCharacterUUID, uuids.get(u2character1), uuids.get(u3character1)])
+					.then(it => expect(namesOf(it)).to.deep.equal([u2character1, u3character1])));
+
+			it("with unsigned=false",
+				() => queryCharacters([uuids.get(u2character1), uuids.get(u3character1)], "?unsigned=false")
+					.then(it => {
+						expect(namesOf(it)).to.deep.equal([u2character1, u3character1]);
+						verifyU2character1(it[0], true);
+						verifyU3character1(it[1], true);
+					}));
+
+			it("with unsigned=true",
+				() => queryCharacters([uuids.get(u2character1)], "?unsigned=true")
+					.then(it => verifyU2character1(it[0], false)));
+
+			it("more than 100 characters",
+				() => {
+					let ids = [];
+					for (let i = 0; i < 101; i++)
+						ids.push(crypto.randomBytes(16).toString("hex"));
+					return request.post("/sessionserver/session/minecraft/profiles")
+						.send(ids)
+						.expect(400)
+						.expect(exception("IllegalArgumentException"));
+				});
+
+			it("an invalid uuid",
+				() => request.post("/sessionserver/session/minecraft/profiles")
+					.send([uuids.get(u2character1), "not-a-uuid"])
+					.expect(400)
+					.expect(exception("IllegalArgumentException")));
+
+			it("not an array",
+				() => request.post("/sessionserver/session/minecraft/profiles")
+					.send({ id: uuids.get(u2character1) })
+					.expect(400)
+					.expect(exception("IllegalArgumentException")));
+		});
+
 		function randomServerId() {
 			return crypto.randomBytes(16).toString("hex");
 		}
@@ -1006,6 +1207,62 @@ describe("yggdrasil basic api", function () {
 			this.slow(slowTime + config.rateLimits.login);
 			it(`${u3character2}`,
 				() => joinU3character2());
+
+			this.slow(slowTime + config.rateLimits.login);
+			it(`${u2character1} with nested unknown fields and trailing tokens`,
+				() => authenticateUser2()
+					.then(res => request.post("/sessionserver/session/minecraft/join")
+						.set("Content-Type", "application/json")
+						.send(JSON.stringify({
+							extra: { nested: [1, { deeper: "value" }] },
+							accessToken: res.accessToken,
+							selectedProfile: uuids.get(u2character1),
+							serverId: randomServerId()
+						}) + " {}]")
+						.expect(204)));
+
+			this.slow(slowTime + config.rateLimits.login);
+			it("missing serverId",
+				() => authenticateUser2()
+					.then(res => request.post("/sessionserver/session/minecraft/join")
+						.send({
+							accessToken: res.accessToken,
+							selectedProfile: uuids.get(u2character1)
+						})
+						.expect(400)
+						.expect(exception("Bad Request"))));
+
+			this.slow(slowTime + config.rateLimits.login);
+			it("an object as serverId",
+				() => authenticateUser2()
+					.then(res => request.post("/sessionserver/session/minecraft/join")
+						.send({
+							accessToken: res.accessToken,
+							selectedProfile: uuids.get(u2character1),
+							serverId: { value: randomServerId() }
+						})
+						.expect(400)
+						.expect(exception("Bad Request"))));
+
+			this.slow(slowTime);
+			it("truncated body",
+				() => request.post("/sessionserver/session/minecraft/join")
+					.set("Content-Type", "application/json")
+					.send(`{"accessToken":"${invalidAccessToken}","serverId":`)
+					.expect(400)
+					.expect(exception("Bad Request")));
+
+			this.slow(slowTime);
+			it("wrong content type",
+				() => request.post("/sessionserver/session/minecraft/join")
+					.set("Content-Type", "text/plain")
+					.send(JSON.stringify({
+						accessToken: invalidAccessToken,
+						selectedProfile: uuids.get(u2character1),
+						serverId: randomServerId()
+					}))
+					.expect(415)
+					.expect(exception("Unsupported Media Type")));
 		});
 
 		describe("has joined server", function () {